@@ -0,0 +1,266 @@
+package com.ansill.redis;
+
+import com.ansill.validation.Validation;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publisher that packs many messages of a channel into a single PUBLISH. A batch is published once it holds enough
+ * messages, grows too big or has been waiting for the linger time, whichever comes first. {@link JedisPubSubManager}
+ * unpacks batches so its consumers still receive one message at a time, in the order they were published
+ */
+public final class BatchingPublisher implements AutoCloseable{
+
+    /** Largest initial capacity of a batch in bytes */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /** Maximum number of messages in a batch */
+    @Nonnegative
+    private final int max_count;
+
+    /** Maximum size of a batch in bytes */
+    @Nonnegative
+    private final int max_bytes;
+
+    /** Linger time in nanoseconds */
+    @Nonnegative
+    private final long linger_nanos;
+
+    /** Lock that guards batches, the connection and closed flag */
+    @Nonnull
+    private final Object lock = new Object();
+
+    /** Pending batches by channel name, guarded by lock */
+    @Nonnull
+    private final Map<String,Envelope> batches = new HashMap<>();
+
+    /** Connection to publish on, guarded by lock */
+    @Nonnull
+    private final Jedis connection;
+
+    /** Executor that publishes batches that lingered too long */
+    @Nonnull
+    private final ScheduledExecutorService executor;
+
+    /** Compressor of batches, null if batches are not compressed */
+    @Nullable
+    private volatile PayloadCompressor compressor = null;
+
+    /** Id of this publisher in sequence stamps */
+    private final long id = ThreadLocalRandom.current().nextLong();
+
+    /** Next sequence number by channel, guarded by lock */
+    @Nonnull
+    private final Map<String,Long> sequences = new HashMap<>();
+
+    /** Flag whether batches are stamped with sequence numbers */
+    private volatile boolean sequence_stamping = false;
+
+    /** Flag whether publisher is closed, guarded by lock */
+    private boolean closed = false;
+
+    /**
+     * Creates batching publisher
+     *
+     * @param hostname  hostname of the server
+     * @param port      port of the server
+     * @param max_count maximum number of messages in a batch
+     * @param max_bytes maximum size of a batch in bytes, a message that is larger is published in a batch of its own
+     * @param linger    maximum time a message waits in a batch before it's published
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public BatchingPublisher(
+            @Nonnull String hostname,
+            @Nonnegative int port,
+            @Nonnegative int max_count,
+            @Nonnegative int max_bytes,
+            @Nonnull Duration linger
+    ) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonemptyString(hostname, "hostname");
+        Validation.assertNaturalNumber(port, "port");
+        Validation.assertNaturalNumber(max_count, "max_count");
+        Validation.assertNaturalNumber(max_bytes, "max_bytes");
+        Validation.assertNonnull(linger, "linger");
+        if(linger.isNegative() || linger.isZero()) throw new IllegalArgumentException("linger must be positive");
+
+        // Assign it
+        this.max_count = max_count;
+        this.max_bytes = max_bytes;
+        this.linger_nanos = linger.toNanos();
+
+        // Connect
+        this.connection = new Jedis(hostname, port);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BatchingPublisher-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Publishes message
+     *
+     * @param channel channel name
+     * @param message message
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws IllegalStateException    thrown if publisher is closed
+     * @throws JedisException           thrown if a full batch could not be published
+     */
+    public void publish(@Nonnull String channel, @Nonnull String message)
+    throws IllegalArgumentException, IllegalStateException, JedisException{
+        Validation.assertNonnull(message, "message");
+        this.publish(channel, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Publishes message
+     *
+     * @param channel channel name
+     * @param message message
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws IllegalStateException    thrown if publisher is closed
+     * @throws JedisException           thrown if a full batch could not be published
+     */
+    public void publish(@Nonnull String channel, @Nonnull byte[] message)
+    throws IllegalArgumentException, IllegalStateException, JedisException{
+
+        // Assert parameters
+        Validation.assertNonemptyString(channel, "channel");
+        Validation.assertNonnull(message, "message");
+
+        synchronized(this.lock){
+            if(this.closed) throw new IllegalStateException("Publisher is closed");
+
+            // Publish current batch first if message doesn't fit in it
+            Envelope envelope = this.batches.get(channel);
+            int size = Envelope.LENGTH_SIZE + message.length;
+            if(envelope != null && envelope.getSize() + size > this.max_bytes){
+                this.send(channel, envelope);
+                envelope = null;
+            }
+
+            // Start new batch and make sure it doesn't linger
+            if(envelope == null){
+                envelope = new Envelope(Math.min(Envelope.HEADER_SIZE + size, INITIAL_CAPACITY));
+                this.batches.put(channel, envelope);
+                Envelope scheduled = envelope;
+                this.executor.schedule(() -> this.expire(channel, scheduled), this.linger_nanos, TimeUnit.NANOSECONDS);
+            }
+
+            // Add it and publish batch if it's full
+            envelope.add(message);
+            if(envelope.getCount() >= this.max_count || envelope.getSize() >= this.max_bytes){
+                this.send(channel, envelope);
+            }
+        }
+    }
+
+    /**
+     * Sets compressor of batches, batches are compressed as a whole so small messages compress well together
+     *
+     * @param compressor compressor, or null to publish batches uncompressed
+     */
+    public void setCompressor(@Nullable PayloadCompressor compressor){
+        this.compressor = compressor;
+    }
+
+    /**
+     * Sets whether batches are stamped with sequence numbers of their messages per channel, so managers that receive
+     * them can detect lost messages
+     *
+     * @param enabled true to stamp batches
+     * @see JedisPubSubManager#getLostMessageCount()
+     */
+    public void setSequenceStamping(boolean enabled){
+        this.sequence_stamping = enabled;
+    }
+
+    /**
+     * Publishes every pending batch
+     *
+     * @throws JedisException thrown if a batch could not be published
+     */
+    public void flush() throws JedisException{
+        synchronized(this.lock){
+            for(Map.Entry<String,Envelope> entry : new ArrayList<>(this.batches.entrySet())){
+                this.send(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Publishes batch that has lingered for too long, does nothing if it was already published
+     *
+     * @param channel  channel name
+     * @param envelope batch
+     */
+    private void expire(@Nonnull String channel, @Nonnull Envelope envelope){
+        synchronized(this.lock){
+            if(this.closed || this.batches.get(channel) != envelope) return;
+            try{
+                this.send(channel, envelope);
+            }catch(JedisException e){
+                System.err.println("Failed to publish " + envelope.getCount() + " messages on '" + channel + "': " + e);
+            }
+        }
+    }
+
+    /**
+     * Publishes batch, must be called while holding the lock
+     *
+     * @param channel  channel name
+     * @param envelope batch
+     * @throws JedisException thrown if batch could not be published
+     */
+    private void send(@Nonnull String channel, @Nonnull Envelope envelope) throws JedisException{
+
+        // Remove it first so a failed batch is not published again
+        this.batches.remove(channel);
+        byte[] payload = envelope.toBytes();
+        PayloadCompressor compressor = this.compressor;
+        if(compressor != null) payload = compressor.compress(payload);
+
+        // Messages of a batch that fails to publish are counted as lost by subscribers
+        if(this.sequence_stamping){
+            int count = envelope.getCount();
+            long sequence = this.sequences.merge(channel, (long) count, Long::sum) - count;
+            payload = Sequence.stamp(this.id, sequence, count, payload);
+        }
+        this.connection.publish(SafeEncoder.encode(channel), payload);
+    }
+
+    /**
+     * Publishes every pending batch and closes the connection
+     *
+     * @throws JedisException thrown if a batch could not be published
+     */
+    @Override
+    public void close() throws JedisException{
+        synchronized(this.lock){
+            if(this.closed) return;
+            this.closed = true;
+            this.executor.shutdownNow();
+            try{
+                this.flush();
+            }finally{
+                this.connection.close();
+            }
+        }
+    }
+}
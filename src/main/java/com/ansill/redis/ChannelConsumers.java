@@ -0,0 +1,221 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Consumers of a single channel. Consumers without routing key receive every message, consumers with routing key are
+ * kept in a hash index per key extractor so each message only reaches consumers whose key matches. Mutations are
+ * expected to be serialized by the caller, lookups may happen concurrently. Messages waiting for dispatch are kept
+ * here as well, so the channel's lane can deliver them in order
+ */
+final class ChannelConsumers{
+
+    /** All consumers */
+    @Nonnull
+    private final Map<Integer,ConsumerEntry> entries = new ConcurrentHashMap<>();
+
+    /** Consumers that receive every message */
+    @Nonnull
+    private final Map<Integer,ConsumerEntry> broadcast = new ConcurrentHashMap<>();
+
+    /** Snapshot of consumers that receive every message, replaced on every change so lookups don't allocate */
+    @Nonnull
+    private volatile ConsumerEntry[] broadcast_snapshot = new ConsumerEntry[0];
+
+    /** Routing index - key extractor to routing key to consumers */
+    @Nonnull
+    private final Map<Function<String,?>,Map<Object,Map<Integer,ConsumerEntry>>> routed = new ConcurrentHashMap<>();
+
+    /** Server acknowledgment of the subscription */
+    @Nonnull
+    private final CompletableFuture<Void> confirmation;
+
+    /** Priority class of the channel */
+    @Nonnull
+    private final Priority priority;
+
+    /** Messages waiting for dispatch, in the order they arrived */
+    @Nonnull
+    private final Queue<Message> mailbox = new ConcurrentLinkedQueue<>();
+
+    /** Number of messages in the mailbox and in delivery, the channel has a turn on its lane while it's above zero */
+    @Nonnull
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    /**
+     * Creates channel consumers
+     *
+     * @param confirmation future that completes once the server acknowledges the subscription
+     * @param priority     priority class of the channel
+     */
+    ChannelConsumers(@Nonnull CompletableFuture<Void> confirmation, @Nonnull Priority priority){
+        this.confirmation = confirmation;
+        this.priority = priority;
+    }
+
+    /**
+     * Returns server acknowledgment of the subscription
+     *
+     * @return future that completes once the server acknowledges the subscription
+     */
+    @Nonnull
+    CompletableFuture<Void> getConfirmation(){
+        return this.confirmation;
+    }
+
+    /**
+     * Returns priority class of the channel
+     *
+     * @return priority class
+     */
+    @Nonnull
+    Priority getPriority(){
+        return this.priority;
+    }
+
+    /**
+     * Puts message in the mailbox
+     *
+     * @param message message
+     * @return true if the channel needs a turn on its lane, false if it has one already
+     */
+    boolean post(@Nonnull Message message){
+        this.mailbox.add(message);
+        return this.waiting.getAndIncrement() == 0;
+    }
+
+    /**
+     * Takes the oldest message from the mailbox, only called by the channel's turn
+     *
+     * @return message, never null while the channel has a turn
+     */
+    @Nullable
+    Message poll(){
+        return this.mailbox.poll();
+    }
+
+    /**
+     * Marks the message taken last as delivered
+     *
+     * @return true if more messages are waiting, false if the channel's turn is over
+     */
+    boolean finish(){
+        return this.waiting.decrementAndGet() != 0;
+    }
+
+    /**
+     * Adds consumer
+     *
+     * @param id    consumer id
+     * @param entry consumer entry
+     */
+    void add(int id, @Nonnull ConsumerEntry entry){
+
+        // Keep track of it
+        this.entries.put(id, entry);
+
+        // Add to broadcast if it's not routed
+        Function<String,?> extractor = entry.getKeyExtractor();
+        if(extractor == null){
+            this.broadcast.put(id, entry);
+            this.broadcast_snapshot = this.broadcast.values().toArray(new ConsumerEntry[0]);
+            return;
+        }
+
+        // Otherwise add to index
+        this.routed.computeIfAbsent(extractor, key -> new ConcurrentHashMap<>())
+                   .computeIfAbsent(entry.getKey(), key -> new ConcurrentHashMap<>())
+                   .put(id, entry);
+    }
+
+    /**
+     * Removes consumer
+     *
+     * @param id consumer id
+     */
+    void remove(int id){
+
+        // Find it
+        ConsumerEntry entry = this.entries.remove(id);
+        if(entry == null) return;
+
+        // Remove from broadcast if it's not routed
+        Function<String,?> extractor = entry.getKeyExtractor();
+        if(extractor == null){
+            this.broadcast.remove(id);
+            this.broadcast_snapshot = this.broadcast.values().toArray(new ConsumerEntry[0]);
+            return;
+        }
+
+        // Otherwise remove from index and clean up empty maps
+        this.routed.computeIfPresent(extractor, (key, index) -> {
+            index.computeIfPresent(entry.getKey(), (inner_key, entries) -> {
+                entries.remove(id);
+                return entries.isEmpty() ? null : entries;
+            });
+            return index.isEmpty() ? null : index;
+        });
+    }
+
+    /**
+     * Checks if there are no consumers
+     *
+     * @return true if empty, false if there are consumers
+     */
+    boolean isEmpty(){
+        return this.entries.isEmpty();
+    }
+
+    /**
+     * Finds consumers that should receive the message. Routing key is extracted once per key extractor, and a key
+     * extractor that throws matches nothing, just like a null key
+     *
+     * @param message message
+     * @return consumers, must not be modified
+     */
+    @Nonnull
+    ConsumerEntry[] select(@Nonnull Message message){
+
+        // Skip the index if nobody is using it
+        ConsumerEntry[] broadcast = this.broadcast_snapshot;
+        if(this.routed.isEmpty()) return broadcast;
+
+        // Collect broadcast consumers and routed consumers with matching key
+        List<ConsumerEntry> entries = new ArrayList<>(Arrays.asList(broadcast));
+        for(Map.Entry<Function<String,?>,Map<Object,Map<Integer,ConsumerEntry>>> index : this.routed.entrySet()){
+            Object key = extract(index.getKey(), message);
+            if(key == null) continue;
+            Map<Integer,ConsumerEntry> matches = index.getValue().get(key);
+            if(matches != null) entries.addAll(matches.values());
+        }
+        return entries.toArray(new ConsumerEntry[0]);
+    }
+
+    /**
+     * Extracts routing key without letting the key extractor's failure escape
+     *
+     * @param extractor key extractor
+     * @param message   message
+     * @return routing key, null if there's none or the key extractor failed
+     */
+    @Nullable
+    private static Object extract(@Nonnull Function<String,?> extractor, @Nonnull Message message){
+        try{
+            return extractor.apply(message.getText());
+        }catch(RuntimeException e){
+            System.err.println("Key extractor failed on a message on '" + message.getChannel() + "': " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hash key over channel name bytes. Stored keys own their bytes, a probe key can be pointed at a range of a buffer
+ * so channel names can be looked up without allocating
+ */
+final class ChannelKey{
+
+    /** Buffer that holds the bytes */
+    @Nonnull
+    private ByteBuffer source;
+
+    /** Offset of first byte */
+    @Nonnegative
+    private int offset;
+
+    /** Number of bytes */
+    @Nonnegative
+    private int length;
+
+    /** Hash code */
+    private int hash;
+
+    /**
+     * Creates key over range of buffer
+     *
+     * @param source buffer that holds the bytes
+     * @param offset offset of first byte
+     * @param length number of bytes
+     */
+    private ChannelKey(@Nonnull ByteBuffer source, @Nonnegative int offset, @Nonnegative int length){
+        this.set(source, offset, length);
+    }
+
+    /**
+     * Creates stored key of channel name
+     *
+     * @param channel channel name
+     * @return key
+     */
+    @Nonnull
+    static ChannelKey of(@Nonnull String channel){
+        byte[] bytes = channel.getBytes(StandardCharsets.UTF_8);
+        return new ChannelKey(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Creates probe key that is meant to be reused with {@link #set(ByteBuffer, int, int)}
+     *
+     * @return key
+     */
+    @Nonnull
+    static ChannelKey probe(){
+        return new ChannelKey(ByteBuffer.allocate(0), 0, 0);
+    }
+
+    /**
+     * Points key at range of buffer
+     *
+     * @param source buffer that holds the bytes
+     * @param offset offset of first byte
+     * @param length number of bytes
+     * @return this key
+     */
+    @Nonnull
+    ChannelKey set(@Nonnull ByteBuffer source, @Nonnegative int offset, @Nonnegative int length){
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        int hash = 1;
+        for(int i = offset; i < offset + length; i++) hash = 31 * hash + source.get(i);
+        this.hash = hash;
+        return this;
+    }
+
+    @Override
+    public int hashCode(){
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object object){
+        if(this == object) return true;
+        if(!(object instanceof ChannelKey)) return false;
+        ChannelKey other = (ChannelKey) object;
+        if(this.hash != other.hash || this.length != other.length) return false;
+        for(int i = 0; i < this.length; i++){
+            if(this.source.get(this.offset + i) != other.source.get(other.offset + i)) return false;
+        }
+        return true;
+    }
+}
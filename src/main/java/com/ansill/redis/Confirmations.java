@@ -0,0 +1,87 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pending server acknowledgments of subscribe commands. Acknowledgments of the same name arrive in the order the
+ * commands were sent, so each name keeps a queue of futures and an acknowledgment completes the oldest one
+ */
+final class Confirmations{
+
+    /** Pending confirmations by channel name or pattern, guarded by itself */
+    @Nonnull
+    private final Map<String,Queue<CompletableFuture<Void>>> pending = new HashMap<>();
+
+    /** Default constructor */
+    Confirmations(){
+    }
+
+    /**
+     * Expects acknowledgment of a subscribe command that is about to be sent
+     *
+     * @param name channel name or pattern
+     * @return future that completes once the command is acknowledged
+     */
+    @Nonnull
+    CompletableFuture<Void> expect(@Nonnull String name){
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized(this.pending){
+            this.pending.computeIfAbsent(name, key -> new ArrayDeque<>()).add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Completes the oldest pending confirmation of the name, does nothing if none is pending
+     *
+     * @param name channel name or pattern
+     */
+    void confirm(@Nonnull String name){
+        CompletableFuture<Void> future;
+        synchronized(this.pending){
+            Queue<CompletableFuture<Void>> queue = this.pending.get(name);
+            if(queue == null) return;
+            future = queue.poll();
+            if(queue.isEmpty()) this.pending.remove(name);
+        }
+
+        // Complete it outside of the lock since it runs dependent actions
+        if(future != null) future.complete(null);
+    }
+
+    /**
+     * Forgets confirmation whose command could not be sent
+     *
+     * @param name   channel name or pattern
+     * @param future future returned by {@link #expect(String)}
+     */
+    void discard(@Nonnull String name, @Nonnull CompletableFuture<Void> future){
+        synchronized(this.pending){
+            Queue<CompletableFuture<Void>> queue = this.pending.get(name);
+            if(queue == null) return;
+            queue.remove(future);
+            if(queue.isEmpty()) this.pending.remove(name);
+        }
+    }
+
+    /**
+     * Fails every pending confirmation
+     *
+     * @param cause cause of failure
+     */
+    void failAll(@Nonnull Throwable cause){
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        synchronized(this.pending){
+            this.pending.values().forEach(futures::addAll);
+            this.pending.clear();
+        }
+        futures.forEach(future -> future.completeExceptionally(cause));
+    }
+}
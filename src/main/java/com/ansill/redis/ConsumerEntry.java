@@ -0,0 +1,138 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Registered consumer along with its execution statistics */
+final class ConsumerEntry{
+
+    /** Consumer function that adapts message to what the subscriber asked for */
+    @Nonnull
+    private final Consumer<Message> consumer;
+
+    /** Subscription that owns this consumer */
+    @Nonnull
+    private final Subscription subscription;
+
+    /** Key extractor, null if consumer receives every message on the channel */
+    @Nullable
+    private final Function<String,?> key_extractor;
+
+    /** Routing key, null if consumer receives every message on the channel */
+    @Nullable
+    private final Object key;
+
+    /** Consecutive threshold violation count */
+    @Nonnull
+    private final AtomicInteger violations = new AtomicInteger(0);
+
+    /** Isolation flag */
+    @Nonnull
+    private final AtomicBoolean isolated = new AtomicBoolean(false);
+
+    /**
+     * Creates consumer entry
+     *
+     * @param consumer     consumer function
+     * @param subscription subscription that owns this consumer
+     */
+    ConsumerEntry(@Nonnull Consumer<Message> consumer, @Nonnull Subscription subscription){
+        this(consumer, subscription, null, null);
+    }
+
+    /**
+     * Creates consumer entry that only receives messages with matching routing key
+     *
+     * @param consumer      consumer function
+     * @param subscription  subscription that owns this consumer
+     * @param key_extractor key extractor, null if consumer receives every message on the channel
+     * @param key           routing key, null if consumer receives every message on the channel
+     */
+    ConsumerEntry(
+            @Nonnull Consumer<Message> consumer,
+            @Nonnull Subscription subscription,
+            @Nullable Function<String,?> key_extractor,
+            @Nullable Object key
+    ){
+        this.consumer = consumer;
+        this.subscription = subscription;
+        this.key_extractor = key_extractor;
+        this.key = key;
+    }
+
+    /**
+     * Returns consumer function
+     *
+     * @return consumer function
+     */
+    @Nonnull
+    Consumer<Message> getConsumer(){
+        return this.consumer;
+    }
+
+    /**
+     * Returns subscription that owns this consumer
+     *
+     * @return subscription
+     */
+    @Nonnull
+    Subscription getSubscription(){
+        return this.subscription;
+    }
+
+    /**
+     * Returns key extractor
+     *
+     * @return key extractor, null if consumer receives every message on the channel
+     */
+    @Nullable
+    Function<String,?> getKeyExtractor(){
+        return this.key_extractor;
+    }
+
+    /**
+     * Returns routing key
+     *
+     * @return routing key, null if consumer receives every message on the channel
+     */
+    @Nullable
+    Object getKey(){
+        return this.key;
+    }
+
+    /**
+     * Records a threshold violation
+     *
+     * @return number of consecutive violations including this one
+     */
+    int recordViolation(){
+        return this.violations.incrementAndGet();
+    }
+
+    /** Resets consecutive violation count */
+    void resetViolations(){
+        if(this.violations.get() != 0) this.violations.set(0);
+    }
+
+    /**
+     * Marks consumer as isolated
+     *
+     * @return true if consumer was not isolated before, false if it was already isolated
+     */
+    boolean isolate(){
+        return this.isolated.compareAndSet(false, true);
+    }
+
+    /**
+     * Checks if the consumer is isolated
+     *
+     * @return true if isolated, false if it's not isolated
+     */
+    boolean isIsolated(){
+        return this.isolated.get();
+    }
+}
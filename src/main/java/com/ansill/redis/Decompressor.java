@@ -0,0 +1,93 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompressor of payloads compressed by {@link PayloadCompressor}. The inflater is reused between messages, so it's not
+ * thread-safe, while every payload is inflated into a buffer of its own that can outlive the dispatch without a copy
+ */
+final class Decompressor{
+
+    /** Largest uncompressed size accepted, same as the largest bulk string Redis accepts */
+    private static final int MAX_SIZE = 512 * 1024 * 1024;
+
+    /** Largest ratio of uncompressed to compressed size that deflate can reach, larger claims are forged */
+    private static final int MAX_RATIO = 1032;
+
+    /** Smallest output buffer, the buffer grows from here as the inflater fills it */
+    private static final int MIN_OUTPUT_SIZE = 4096;
+
+    /** Inflater */
+    @Nonnull
+    private final Inflater inflater = new Inflater();
+
+    /** Reusable input buffer for payloads that are not backed by an array */
+    @Nonnull
+    private byte[] input = new byte[0];
+
+    /**
+     * Inflates message if it's compressed
+     *
+     * @param message message that may be compressed
+     * @return inflated message that owns its payload, or the message itself if it's not compressed or could not be
+     * inflated
+     */
+    @Nonnull
+    Message decompress(@Nonnull Message message){
+
+        // Check header
+        ByteBuffer payload = message.view();
+        int start = payload.position();
+        int length = payload.remaining() - PayloadCompressor.HEADER_SIZE;
+        if(length < 0) return message;
+        for(int i = 0; i < PayloadCompressor.MAGIC.length; i++){
+            if(payload.get(start + i) != PayloadCompressor.MAGIC[i]) return message;
+        }
+        int size = payload.getInt(start + PayloadCompressor.MAGIC.length);
+        if(size < 0 || size > MAX_SIZE || size > (long) length * MAX_RATIO) return message;
+
+        // Start recording
+        Object event = Events.beginCompression();
+
+        // Get the compressed bytes as an array
+        Inflater inflater = this.inflater;
+        inflater.reset();
+        if(payload.hasArray()){
+            inflater.setInput(payload.array(), payload.arrayOffset() + start + PayloadCompressor.HEADER_SIZE, length);
+        }else{
+            if(this.input.length < length) this.input = new byte[length];
+            ByteBuffer compressed = payload.duplicate();
+            compressed.position(start + PayloadCompressor.HEADER_SIZE);
+            compressed.get(this.input, 0, length);
+            inflater.setInput(this.input, 0, length);
+        }
+
+        // Inflate it, one spare byte lets the stream reach its end and shows if it's larger than it claims. The buffer
+        // grows with what the inflater actually produces rather than what the header claims
+        byte[] output = new byte[(int) Math.min(size + 1L, Math.max(MIN_OUTPUT_SIZE, length * 4L))];
+        int inflated = 0;
+        try{
+            while(inflated <= size && !inflater.finished()){
+                if(inflated == output.length){
+                    output = Arrays.copyOf(output, (int) Math.min(size + 1L, output.length * 2L));
+                }
+                int count = inflater.inflate(output, inflated, output.length - inflated);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+        }catch(DataFormatException e){
+            return message;
+        }
+
+        // Deliver it as it is if it doesn't add up
+        if(inflated != size || !inflater.finished()) return message;
+
+        // Record it
+        Events.endCompression(event, message.getChannel(), "decompress", size, payload.limit() - start);
+        return new Message(message.getChannel(), ByteBuffer.wrap(output, 0, size), true);
+    }
+}
@@ -0,0 +1,19 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+
+/** Listener of subscriber connections that were lost without the manager being closed */
+@FunctionalInterface
+public interface DisconnectListener{
+
+    /**
+     * Called on the receiving thread once the subscriber connection is gone for good. The manager receives nothing
+     * anymore, so it should be closed and replaced. The receiving thread may be an event loop thread that other
+     * managers share, so it should return quickly and leave closing and replacing to another thread
+     *
+     * @param endpoint endpoint the connection was connected to
+     * @param stalled  true if the manager's liveness probe dropped the connection, false if it was lost or dropped by
+     *                 another manager sharing it
+     */
+    void onDisconnect(@Nonnull String endpoint, boolean stalled);
+}
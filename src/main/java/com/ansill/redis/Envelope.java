@@ -0,0 +1,165 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Batching envelope that packs many messages into a single published payload. The envelope starts with a magic header
+ * followed by every message prefixed by its length as a 4-byte big-endian integer. Payloads that don't have the header
+ * or whose lengths don't add up to the payload size are not envelopes and are delivered as they are
+ */
+final class Envelope{
+
+    /** Magic header, starts with a NUL byte so it's unlikely to show up at the start of text messages */
+    @Nonnull
+    private static final byte[] MAGIC = {0, 'J', 'P', 'S', 'M', 'B', 1};
+
+    /** Size of length prefix of every message */
+    static final int LENGTH_SIZE = 4;
+
+    /** Size of the envelope header */
+    static final int HEADER_SIZE = MAGIC.length;
+
+    /** Envelope being packed */
+    @Nonnull
+    private byte[] bytes;
+
+    /** Number of bytes used */
+    @Nonnegative
+    private int size;
+
+    /** Number of packed messages */
+    @Nonnegative
+    private int count = 0;
+
+    /**
+     * Creates empty envelope
+     *
+     * @param capacity initial capacity in bytes
+     */
+    Envelope(@Nonnegative int capacity){
+        this.bytes = Arrays.copyOf(MAGIC, Math.max(capacity, HEADER_SIZE));
+        this.size = HEADER_SIZE;
+    }
+
+    /**
+     * Packs message into envelope
+     *
+     * @param message message
+     */
+    void add(@Nonnull byte[] message){
+
+        // Grow if needed
+        int required = this.size + LENGTH_SIZE + message.length;
+        if(required > this.bytes.length){
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(required, this.bytes.length * 2));
+        }
+
+        // Write length then message
+        byte[] bytes = this.bytes;
+        int length = message.length;
+        bytes[this.size] = (byte) (length >>> 24);
+        bytes[this.size + 1] = (byte) (length >>> 16);
+        bytes[this.size + 2] = (byte) (length >>> 8);
+        bytes[this.size + 3] = (byte) length;
+        System.arraycopy(message, 0, bytes, this.size + LENGTH_SIZE, length);
+        this.size = required;
+        this.count++;
+    }
+
+    /**
+     * Returns number of packed messages
+     *
+     * @return number of messages
+     */
+    @Nonnegative
+    int getCount(){
+        return this.count;
+    }
+
+    /**
+     * Returns size of envelope
+     *
+     * @return size in bytes
+     */
+    @Nonnegative
+    int getSize(){
+        return this.size;
+    }
+
+    /**
+     * Returns the envelope as payload to publish
+     *
+     * @return payload
+     */
+    @Nonnull
+    byte[] toBytes(){
+        return Arrays.copyOf(this.bytes, this.size);
+    }
+
+    /**
+     * Unpacks envelope and passes every message in it to the action. Nothing is passed on if the message is not an
+     * envelope
+     *
+     * @param message message that may be an envelope
+     * @param action  action to run on every unpacked message
+     * @return true if message was an envelope
+     */
+    static boolean unpack(@Nonnull Message message, @Nonnull Consumer<Message> action){
+
+        // Check it first so a payload that only looks like an envelope is never delivered partially
+        ByteBuffer payload = message.view();
+        if(!isEnvelope(payload)) return false;
+
+        // Pass on every message as a slice of the envelope
+        int position = payload.position() + HEADER_SIZE;
+        int limit = payload.limit();
+        while(position < limit){
+            int length = payload.getInt(position);
+            position += LENGTH_SIZE;
+            action.accept(message.slice(position, length));
+            position += length;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if payload is a well-formed envelope
+     *
+     * @param payload payload
+     * @return true if it is an envelope
+     */
+    static boolean isEnvelope(@Nonnull ByteBuffer payload){
+        return count(payload) >= 0;
+    }
+
+    /**
+     * Counts messages in envelope
+     *
+     * @param payload payload
+     * @return number of messages, or -1 if it's not a well-formed envelope
+     */
+    static int count(@Nonnull ByteBuffer payload){
+
+        // Check header
+        int start = payload.position();
+        int limit = payload.limit();
+        if(limit - start < HEADER_SIZE) return -1;
+        for(int i = 0; i < HEADER_SIZE; i++) if(payload.get(start + i) != MAGIC[i]) return -1;
+
+        // Check that lengths add up
+        long position = start + HEADER_SIZE;
+        int count = 0;
+        while(position < limit){
+            if(limit - position < LENGTH_SIZE) return -1;
+            int length = payload.getInt((int) position);
+            if(length < 0) return -1;
+            position += LENGTH_SIZE + (long) length;
+            count++;
+        }
+        return position == limit ? count : -1;
+    }
+}
@@ -0,0 +1,165 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Single thread that multiplexes many non-blocking channels with a selector */
+final class EventLoop implements AutoCloseable{
+
+    /** Selector */
+    @Nonnull
+    private final Selector selector;
+
+    /** Tasks to run on the loop thread */
+    @Nonnull
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /** Loop thread */
+    @Nonnull
+    private final Thread thread;
+
+    /** Running flag */
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts event loop
+     *
+     * @param name name of the loop thread
+     * @throws IOException thrown if selector cannot be opened
+     */
+    EventLoop(@Nonnull String name) throws IOException{
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Runs task on the loop thread
+     *
+     * @param task task
+     */
+    void execute(@Nonnull Runnable task){
+        this.tasks.add(task);
+        if(Thread.currentThread() != this.thread) this.selector.wakeup();
+    }
+
+    /**
+     * Checks if the current thread is the loop thread
+     *
+     * @return true if current thread is the loop thread
+     */
+    boolean inLoop(){
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Registers channel to the selector, handler will be notified on the loop thread once it's registered
+     *
+     * @param channel channel
+     * @param ops     interest set
+     * @param handler handler of ready events
+     */
+    void register(@Nonnull SelectableChannel channel, int ops, @Nonnull Handler handler){
+        this.execute(() -> {
+            try{
+                handler.onRegistered(channel.register(this.selector, ops, handler));
+            }catch(ClosedChannelException | RuntimeException e){
+                handler.onClosed();
+            }
+        });
+    }
+
+    /** Loop */
+    private void run(){
+        while(this.running){
+
+            // Wait for something to happen
+            try{
+                this.selector.select();
+            }catch(IOException e){
+                e.printStackTrace();
+                continue;
+            }
+
+            // Run tasks
+            this.runTasks();
+
+            // Handle ready keys
+            Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+            while(iterator.hasNext()){
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if(!key.isValid()) continue;
+                try{
+                    ((Handler) key.attachment()).onReady(key);
+                }catch(RuntimeException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Run remaining tasks and let handlers know that they won't be served anymore, a failing one skips nothing
+        this.runTasks();
+        for(SelectionKey key : this.selector.keys()){
+            try{
+                ((Handler) key.attachment()).onClosed();
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }
+
+        // Close it
+        try{
+            this.selector.close();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /** Runs queued tasks, a failing task doesn't keep the others from running */
+    private void runTasks(){
+        Runnable task;
+        while((task = this.tasks.poll()) != null){
+            try{
+                task.run();
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /** Handler of ready events */
+    interface Handler{
+
+        /**
+         * Called on the loop thread when the channel is registered
+         *
+         * @param key selection key
+         */
+        void onRegistered(@Nonnull SelectionKey key);
+
+        /**
+         * Called on the loop thread when the key is ready
+         *
+         * @param key selection key
+         */
+        void onReady(@Nonnull SelectionKey key);
+
+        /** Called on the loop thread when the channel cannot be served by the loop anymore */
+        void onClosed();
+    }
+}
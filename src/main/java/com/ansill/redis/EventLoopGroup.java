@@ -0,0 +1,65 @@
+package com.ansill.redis;
+
+import com.ansill.validation.Validation;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Group of event loop threads that serves non-blocking subscriber connections. A single group can be shared by many
+ * {@link JedisPubSubManager}s, each manager's connection is assigned to one of the loops in round-robin order
+ */
+public final class EventLoopGroup implements AutoCloseable{
+
+    /** Event loops */
+    @Nonnull
+    private final EventLoop[] loops;
+
+    /** Round-robin counter */
+    @Nonnull
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /** Creates event loop group with a single thread */
+    public EventLoopGroup(){
+        this(1);
+    }
+
+    /**
+     * Creates event loop group
+     *
+     * @param threads number of event loop threads
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public EventLoopGroup(@Nonnegative int threads) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNaturalNumber(threads, "threads");
+
+        // Start loops
+        this.loops = new EventLoop[threads];
+        try{
+            for(int i = 0; i < threads; i++) this.loops[i] = new EventLoop("JedisPubSubManager-eventloop-" + i);
+        }catch(IOException e){
+            this.close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns next event loop
+     *
+     * @return event loop
+     */
+    @Nonnull
+    EventLoop next(){
+        return this.loops[Math.floorMod(this.counter.getAndIncrement(), this.loops.length)];
+    }
+
+    @Override
+    public void close(){
+        for(EventLoop loop : this.loops) if(loop != null) loop.close();
+    }
+}
@@ -0,0 +1,101 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Flight recorder event hooks. This is the Java 8 version that does nothing, Java 11 and later loads the version in
+ * the multi-release layer that emits JDK Flight Recorder events
+ */
+final class Events{
+
+    /** Prevents instantiation */
+    private Events(){
+    }
+
+    /**
+     * Records that a message was received
+     *
+     * @param channel channel name
+     * @param size    size of message in bytes
+     */
+    static void messageReceived(@Nonnull String channel, @Nonnegative int size){
+    }
+
+    /**
+     * Begins dispatch to a single consumer
+     *
+     * @return event token to pass to {@link #endDispatch(Object, String)}, may be null
+     */
+    @Nullable
+    static Object beginDispatch(){
+        return null;
+    }
+
+    /**
+     * Ends dispatch to a single consumer
+     *
+     * @param token   event token from {@link #beginDispatch()}
+     * @param channel channel name
+     */
+    static void endDispatch(@Nullable Object token, @Nonnull String channel){
+    }
+
+    /**
+     * Records that a channel was subscribed or unsubscribed on the connection
+     *
+     * @param channel    channel name
+     * @param subscribed true if subscribed, false if unsubscribed
+     */
+    static void channelSubscription(@Nonnull String channel, boolean subscribed){
+    }
+
+    /**
+     * Begins manager startup or close
+     *
+     * @return event token to pass to {@link #endLifecycle(Object, String, String)}, may be null
+     */
+    @Nullable
+    static Object beginLifecycle(){
+        return null;
+    }
+
+    /**
+     * Ends manager startup or close
+     *
+     * @param token    event token from {@link #beginLifecycle()}
+     * @param endpoint endpoint of the manager
+     * @param phase    lifecycle phase
+     */
+    static void endLifecycle(@Nullable Object token, @Nonnull String endpoint, @Nonnull String phase){
+    }
+
+    /**
+     * Begins compression or decompression of a payload
+     *
+     * @return event token to pass to {@link #endCompression(Object, String, String, int, int)}, may be null
+     */
+    @Nullable
+    static Object beginCompression(){
+        return null;
+    }
+
+    /**
+     * Ends compression or decompression of a payload
+     *
+     * @param token           event token from {@link #beginCompression()}
+     * @param channel         channel name, null if not known
+     * @param operation       compress, decompress or skip if compression didn't pay off
+     * @param size            size of payload in bytes
+     * @param compressed_size size of compressed payload in bytes
+     */
+    static void endCompression(
+            @Nullable Object token,
+            @Nullable String channel,
+            @Nonnull String operation,
+            @Nonnegative int size,
+            @Nonnegative int compressed_size
+    ){
+    }
+}
@@ -0,0 +1,17 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/** Listener of failovers of a manager that follows a master through Redis Sentinel */
+@FunctionalInterface
+public interface FailoverListener{
+
+    /**
+     * Called once the subscriber connection has moved to the new master and every subscription has been sent again
+     *
+     * @param endpoint      endpoint of the new master
+     * @param elapsed_nanos time from detection of the failure until every subscription was sent again in nanoseconds
+     */
+    void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos);
+}
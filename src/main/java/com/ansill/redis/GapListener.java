@@ -0,0 +1,19 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/** Listener of gaps in sequence-stamped messages */
+@FunctionalInterface
+public interface GapListener{
+
+    /**
+     * Called on the receiving thread when messages of a publisher went missing, so it should return quickly
+     *
+     * @param channel  channel name
+     * @param expected sequence number that was expected next
+     * @param received sequence number that was received instead
+     * @param lost     number of messages that went missing
+     */
+    void onGap(@Nonnull String channel, @Nonnegative long expected, @Nonnegative long received, @Nonnegative long lost);
+}
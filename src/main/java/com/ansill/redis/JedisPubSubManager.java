@@ -1,18 +1,43 @@
 package com.ansill.redis;
 
 import com.ansill.validation.Validation;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.SafeEncoder;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
-import java.util.Collections;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /** Pubsub manager */
 public final class JedisPubSubManager implements AutoCloseable{
@@ -21,9 +46,22 @@ public final class JedisPubSubManager implements AutoCloseable{
     @Nonnull
     private static final String DEFAULT_CHANNEL_NAME = "DEFAULT_INACTIVE_CHANNEL";
 
-    /** Connection */
+    /** Default number of threads that dispatch normal and low priority channels, one stuck channel doesn't stop them */
+    private static final int DEFAULT_DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** Maximum number of channels per coalesced unsubscribe command */
+    private static final int UNSUBSCRIBE_BATCH_SIZE = 1000;
+
+    /** Maximum number of messages waiting for isolated consumers, a consumer that overflows it is canceled */
+    static final int ISOLATED_CAPACITY = 10_000;
+
+    /** Endpoint of the server, changes on failover */
+    @Nonnull
+    private volatile String endpoint;
+
+    /** Subscriber connection */
     @Nonnull
-    private final Jedis connection;
+    private final SubscriberConnection connection;
 
     /** Consumer count map */
     @Nonnull
@@ -31,11 +69,43 @@ public final class JedisPubSubManager implements AutoCloseable{
 
     /** Consumer map */
     @Nonnull
-    private final Map<String,Map<Integer,Consumer<String>>> consumer_map = new ConcurrentHashMap<>();
+    private final Map<String,ChannelConsumers> consumer_map = new ConcurrentHashMap<>();
+
+    /** Consumer count map of patterns */
+    @Nonnull
+    private final Map<String,UniqueIdPool> pattern_counter_map = new ConcurrentHashMap<>();
+
+    /** Consumer map of patterns */
+    @Nonnull
+    private final Map<String,ChannelConsumers> pattern_map = new ConcurrentHashMap<>();
+
+    /** Channels being unsubscribed by number of unacknowledged unsubscribes, their messages still arrive until then */
+    @Nonnull
+    private final Map<String,Integer> unsubscribing = new ConcurrentHashMap<>();
+
+    /** Patterns being unsubscribed by number of unacknowledged unsubscribes */
+    @Nonnull
+    private final Map<String,Integer> pattern_unsubscribing = new ConcurrentHashMap<>();
+
+    /** Pending acknowledgments of channel subscriptions */
+    @Nonnull
+    private final Confirmations confirmations = new Confirmations();
+
+    /** Pending acknowledgments of pattern subscriptions */
+    @Nonnull
+    private final Confirmations pattern_confirmations = new Confirmations();
+
+    /** Decompressor of received payloads, only used by the thread that receives messages */
+    @Nonnull
+    private final Decompressor decompressor = new Decompressor();
+
+    /** Decompressor of payloads published through this manager, guarded by itself */
+    @Nonnull
+    private final Decompressor loopback_decompressor = new Decompressor();
 
-    /** PubSub object */
+    /** Lock that keeps new channel subscriptions from slipping in between a batch cancel and its unsubscribe */
     @Nonnull
-    private final PubSub pubsub;
+    private final ReadWriteLock channel_lock = new ReentrantReadWriteLock();
 
     /** Subscription count */
     @Nonnull
@@ -45,6 +115,96 @@ public final class JedisPubSubManager implements AutoCloseable{
     @Nonnull
     private final CountDownLatch closed_cdl = new CountDownLatch(1);
 
+    /** CDL for message on default channel */
+    @Nonnull
+    private final CountDownLatch message_cdl = new CountDownLatch(1);
+
+    /** Slow consumer policy, null if slow consumer detection is disabled */
+    @Nullable
+    private volatile SlowConsumerPolicy slow_consumer_policy = null;
+
+    /** Executor for isolated slow consumers, created on first isolation */
+    @Nullable
+    private volatile ExecutorService isolated_executor = null;
+
+    /** Flag whether payloads of the connection are arrays of their own, set once the connection is created */
+    private volatile boolean owned_payloads = false;
+
+    /** Number of deliveries that have been accepted but not completed, striped so the hot path doesn't contend */
+    @Nonnull
+    private final LongAdder in_flight = new LongAdder();
+
+    /** Dispatch lanes, consumers run on them rather than on the thread that reads the connection */
+    @Nonnull
+    private final Lanes lanes = new Lanes(
+            (consumers, message) -> this.unpack(consumers, message, this.slow_consumer_policy),
+            this.in_flight,
+            DEFAULT_DISPATCH_THREADS
+    );
+
+    /** Id of this manager in origin tags of messages it publishes */
+    private final long origin = newOrigin();
+
+    /** Lock that guards the publisher connection */
+    @Nonnull
+    private final Object publisher_lock = new Object();
+
+    /** Connection to publish on, created on first publish, guarded by publisher lock */
+    @Nullable
+    private Jedis publisher = null;
+
+    /** Endpoint that the publisher connection is connected to, guarded by publisher lock */
+    @Nullable
+    private String publisher_endpoint = null;
+
+    /** Liveness probe, null if the connection is not probed */
+    @Nullable
+    private volatile LivenessProbe liveness_probe = null;
+
+    /** Executor that sends pings, guarded by this */
+    @Nullable
+    private ScheduledExecutorService prober = null;
+
+    /** Token of the ping that has not been answered yet, null if there's none */
+    @Nullable
+    private volatile String ping_token = null;
+
+    /** Time the unanswered ping was sent in nanoseconds, written before the token */
+    private volatile long ping_sent = 0;
+
+    /** Number of pings sent, only used by the prober */
+    @Nonnegative
+    private long ping_count = 0;
+
+    /** Next sequence number by channel, guarded by publisher lock */
+    @Nonnull
+    private final Map<String,Long> sequences = new HashMap<>();
+
+    /** Flag whether published messages are stamped with sequence numbers */
+    private volatile boolean sequence_stamping = false;
+
+    /** Tracker of sequence numbers of received messages */
+    @Nonnull
+    private final SequenceTracker sequence_tracker = new SequenceTracker();
+
+    /** Gap listener, null if nobody listens */
+    @Nullable
+    private volatile GapListener gap_listener = null;
+
+    /** Failover listener, null if nobody listens */
+    @Nullable
+    private volatile FailoverListener failover_listener = null;
+
+    /** Disconnect listener, null if nobody listens */
+    @Nullable
+    private volatile DisconnectListener disconnect_listener = null;
+
+    /** Flag whether the manager closed the connection itself */
+    private volatile boolean closing = false;
+
+    /** Flag whether the liveness probe dropped the connection */
+    private volatile boolean stalled = false;
+
     /**
      * Creates pub sub manager
      *
@@ -53,40 +213,192 @@ public final class JedisPubSubManager implements AutoCloseable{
      * @throws IllegalArgumentException thrown if any of parameters is invalid
      */
     public JedisPubSubManager(@Nonnull String hostname, @Nonnegative int port) throws IllegalArgumentException{
+        this(hostname, port, (channel, listener) -> new JedisSubscriberConnection(hostname, port, channel, listener));
+    }
 
-        // Assert parameters
-        Validation.assertNonemptyString(hostname, "hostname");
-        Validation.assertNaturalNumber(port, "port");
+    /**
+     * Creates pub sub manager that uses a non-blocking connection served by the event loop group instead of a
+     * dedicated thread. The event loop group must outlive the manager
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @param group    event loop group
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public JedisPubSubManager(@Nonnull String hostname, @Nonnegative int port, @Nonnull EventLoopGroup group)
+    throws IllegalArgumentException{
+        this(hostname, port, (channel, listener) -> {
+            Validation.assertNonnull(group, "group");
+            return new NioSubscriberConnection(hostname, port, channel, group, listener);
+        });
+    }
 
-        // Create new exclusive connection
-        this.connection = new Jedis(hostname, port);
+    /**
+     * Creates pub sub manager that shares its subscriber connection with every other shared manager of the same
+     * endpoint in the JVM. Channels subscribed by several managers are only subscribed once on the server and each
+     * message is received once. Every manager keeps its own subscriptions, and the connection is closed once the last
+     * manager that shares it is closed
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @return pub sub manager
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public static JedisPubSubManager shared(@Nonnull String hostname, @Nonnegative int port)
+    throws IllegalArgumentException{
+        return new JedisPubSubManager(hostname, port, (channel, listener) -> SharedSubscriberConnection.acquire(
+                Arrays.asList(hostname, port),
+                (inner_channel, inner_listener) -> new JedisSubscriberConnection(
+                        hostname,
+                        port,
+                        inner_channel,
+                        inner_listener
+                ),
+                channel,
+                listener
+        ));
+    }
+
+    /**
+     * Creates pub sub manager that shares its non-blocking subscriber connection with every other shared manager of
+     * the same endpoint and event loop group in the JVM. The event loop group must outlive the manager
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @param group    event loop group
+     * @return pub sub manager
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public static JedisPubSubManager shared(
+            @Nonnull String hostname,
+            @Nonnegative int port,
+            @Nonnull EventLoopGroup group
+    ) throws IllegalArgumentException{
+        Validation.assertNonnull(group, "group");
+        return new JedisPubSubManager(hostname, port, (channel, listener) -> SharedSubscriberConnection.acquire(
+                Arrays.asList(hostname, port, group),
+                (inner_channel, inner_listener) -> new NioSubscriberConnection(
+                        hostname,
+                        port,
+                        inner_channel,
+                        group,
+                        inner_listener
+                ),
+                channel,
+                listener
+        ));
+    }
+
+    /**
+     * Creates pub sub manager that follows the master of a group monitored by Redis Sentinel. Sentinels are watched
+     * for master switches, and when the master switches or the connection drops, the subscriber connection moves to the
+     * current master and every channel and pattern is subscribed again
+     *
+     * @param master_name name of the master as configured in the sentinels
+     * @param sentinels   sentinels in "host:port" form
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws JedisConnectionException thrown if no sentinel knows the master
+     */
+    public JedisPubSubManager(@Nonnull String master_name, @Nonnull Set<String> sentinels)
+    throws IllegalArgumentException, JedisConnectionException{
+        this(master_name, parseSentinels(master_name, sentinels), JedisSubscriberConnection::new);
+    }
 
-        // Ping it (test the connection)
-        this.connection.ping("Hello!");
+    /**
+     * Creates pub sub manager that follows the master of a group monitored by Redis Sentinel and uses a non-blocking
+     * connection served by the event loop group. The event loop group must outlive the manager
+     *
+     * @param master_name name of the master as configured in the sentinels
+     * @param sentinels   sentinels in "host:port" form
+     * @param group       event loop group
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws JedisConnectionException thrown if no sentinel knows the master
+     */
+    public JedisPubSubManager(
+            @Nonnull String master_name,
+            @Nonnull Set<String> sentinels,
+            @Nonnull EventLoopGroup group
+    ) throws IllegalArgumentException, JedisConnectionException{
+        this(master_name, parseSentinels(master_name, sentinels), (hostname, port, channel, listener) -> {
+            Validation.assertNonnull(group, "group");
+            return new NioSubscriberConnection(hostname, port, channel, group, listener);
+        });
+    }
 
-        // Set up CDLs
-        CountDownLatch ready_cdl = new CountDownLatch(1);
-        CountDownLatch message_cdl = new CountDownLatch(1);
+    /**
+     * Creates pub sub manager that follows the master of a group monitored by Redis Sentinel
+     *
+     * @param master_name name of the master
+     * @param sentinels   sentinels
+     * @param transport   transport that connects to the master
+     * @throws JedisConnectionException thrown if no sentinel knows the master
+     */
+    private JedisPubSubManager(
+            @Nonnull String master_name,
+            @Nonnull List<HostAndPort> sentinels,
+            @Nonnull SentinelSubscriberConnection.Transport transport
+    ) throws JedisConnectionException{
+        this(master_name, sentinels, SentinelSubscriberConnection.resolve(master_name, sentinels), transport);
+    }
 
-        // Create pubsub
-        this.pubsub = new PubSub(this.consumer_map, ready_cdl, message_cdl);
+    /**
+     * Creates pub sub manager that follows the master of a group monitored by Redis Sentinel
+     *
+     * @param master_name name of the master
+     * @param sentinels   sentinels
+     * @param master      address of the master
+     * @param transport   transport that connects to the master
+     */
+    private JedisPubSubManager(
+            @Nonnull String master_name,
+            @Nonnull List<HostAndPort> sentinels,
+            @Nonnull HostAndPort master,
+            @Nonnull SentinelSubscriberConnection.Transport transport
+    ){
+        this(
+                master.getHost(),
+                master.getPort(),
+                (channel, listener) -> new SentinelSubscriberConnection(
+                        master_name,
+                        sentinels,
+                        master,
+                        transport,
+                        channel,
+                        listener
+                )
+        );
+    }
 
-        // Start the blocking subscription in another thread
-        new Thread(() -> {
+    /**
+     * Creates pub sub manager
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @param factory  factory of subscriber connection
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    JedisPubSubManager(
+            @Nonnull String hostname,
+            @Nonnegative int port,
+            @Nonnull SubscriberConnection.Factory factory
+    ) throws IllegalArgumentException{
 
-            // Subscribe to default channel name - method will block until unsubscribe() is called
-            this.connection.subscribe(this.pubsub, DEFAULT_CHANNEL_NAME);
+        // Assert parameters
+        Validation.assertNonemptyString(hostname, "hostname");
+        Validation.assertNaturalNumber(port, "port");
 
-            // Countdown to indicate that subscription is closed
-            this.closed_cdl.countDown();
+        // Start recording startup
+        Object event = Events.beginLifecycle();
+        this.endpoint = hostname + ":" + port;
 
-        }).start();
+        // Create new exclusive connection that subscribes to default channel name
+        this.connection = factory.create(DEFAULT_CHANNEL_NAME, new Listener());
+        this.owned_payloads = !this.connection.reusesBuffers();
 
         try{
 
-            // Wait for pubsub to become ready
-            ready_cdl.await();
-
             // Create test connection
             try(Jedis connection = new Jedis(hostname, port)){
 
@@ -98,15 +410,27 @@ public final class JedisPubSubManager implements AutoCloseable{
                     // Stop if failing too much
                     if(counts++ == max_failure) throw new RuntimeException("Failed to acknowledge the PubSub manager!");
 
+                    // Stop if connection died
+                    if(this.closed_cdl.getCount() == 0){
+                        throw new JedisConnectionException("Subscriber connection closed unexpectedly");
+                    }
+
                     // Publish
                     connection.publish(DEFAULT_CHANNEL_NAME, "JedisPubSubManager helloing!");
 
-                }while(!message_cdl.await(100, TimeUnit.MILLISECONDS)); // Wait for pub sub to receive message
+                }while(!this.message_cdl.await(100, TimeUnit.MILLISECONDS)); // Wait for pub sub to receive message
             }
 
         }catch(InterruptedException e){
+            this.connection.close();
             throw new RuntimeException(e);
+        }catch(RuntimeException e){
+            this.connection.close();
+            throw e;
         }
+
+        // Record it
+        Events.endLifecycle(event, this.endpoint, "startup");
     }
 
     /**
@@ -125,129 +449,1218 @@ public final class JedisPubSubManager implements AutoCloseable{
         Validation.assertNonnull(channel, "channel");
         Validation.assertNonnull(consumer, "consumer");
 
-        // Error if closed
-        if(this.closed_cdl.getCount() == 0) throw new IllegalStateException("JedisPubSubManager is closed!");
+        // Subscribe it
+        return this.register(channel, false, Priority.NORMAL, null, null, message -> consumer.accept(message.getText()), null);
+    }
+
+    /**
+     * Subscribes to a channel in a priority class. Every class is dispatched on its own lane, so a flood on a channel
+     * or a slow consumer only delays consumers of channels in the same class or below. A channel keeps the class it was
+     * first subscribed with
+     *
+     * @param channel  channel name
+     * @param priority priority class of the channel
+     * @param consumer consumer function
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if any of parameters is invalid or if channel is already subscribed
+     *                                  with another priority class
+     */
+    @Nonnull
+    public Subscription subscribe(
+            @Nonnull String channel,
+            @Nonnull Priority priority,
+            @Nonnull Consumer<String> consumer
+    ) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(channel, "channel");
+        Validation.assertNonnull(priority, "priority");
+        Validation.assertNonnull(consumer, "consumer");
 
-        // Get unique id
-        int id = this.counter_map.computeIfAbsent(channel, key -> new UniqueIdPool()).draw();
+        // Subscribe it
+        return this.register(channel, false, priority, null, null, message -> consumer.accept(message.getText()), null);
+    }
 
-        // Subscribe to channel
-        this.consumer_map.computeIfAbsent(channel, key -> {
-            this.pubsub.subscribe(channel);
-            return new ConcurrentHashMap<>();
-        }).put(id, consumer);
+    /**
+     * Subscribes to a channel and completes once the server has acknowledged the subscription, so messages published
+     * afterwards are guaranteed to be received. Many subscriptions can be issued before waiting on any of them
+     *
+     * @param channel  channel name
+     * @param consumer consumer function
+     * @return future of subscription reference, fails if the connection closes before acknowledgment
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public CompletableFuture<Subscription> subscribeConfirmed(
+            @Nonnull String channel,
+            @Nonnull Consumer<String> consumer
+    ) throws IllegalArgumentException{
 
-        // Count up subscription count
-        this.subscriptions.incrementAndGet();
+        // Assert parameters
+        Validation.assertNonnull(channel, "channel");
+        Validation.assertNonnull(consumer, "consumer");
 
-        // Return subscription with runnable that will remove consumer and surrenders id at the end of subscription
-        return new Subscription(() -> {
+        // Subscribe it
+        CompletableFuture<Subscription> confirmed = new CompletableFuture<>();
+        this.register(channel, false, Priority.NORMAL, null, null, message -> consumer.accept(message.getText()), confirmed);
+        return confirmed;
+    }
 
-            // Update map
-            this.consumer_map.computeIfPresent(channel, (key, value) -> {
+    /**
+     * Subscribes to every channel that matches a glob-style pattern. The server subscription is shared by every
+     * subscriber of the same pattern, and each subscriber receives a message once even if other patterns match it too
+     *
+     * @param pattern  glob-style pattern such as {@code tenant.*}
+     * @param consumer consumer function that receives channel name and message
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public Subscription psubscribe(@Nonnull String pattern, @Nonnull BiConsumer<String,String> consumer)
+    throws IllegalArgumentException{
 
-                // Remove
-                value.remove(id);
+        // Assert parameters
+        Validation.assertNonnull(pattern, "pattern");
+        Validation.assertNonnull(consumer, "consumer");
 
-                // Surrender
-                this.counter_map.get(channel).surrender(id);
+        // Subscribe it
+        return this.register(
+                pattern,
+                true,
+                Priority.NORMAL,
+                null,
+                null,
+                message -> consumer.accept(message.getChannel(), message.getText()),
+                null
+        );
+    }
 
-                // Decrement subscription count
-                this.subscriptions.decrementAndGet();
+    /**
+     * Subscribes to every channel that matches a glob-style pattern in a priority class
+     *
+     * @param pattern  glob-style pattern such as {@code tenant.*}
+     * @param priority priority class of the pattern
+     * @param consumer consumer function that receives channel name and message
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if any of parameters is invalid or if pattern is already subscribed
+     *                                  with another priority class
+     */
+    @Nonnull
+    public Subscription psubscribe(
+            @Nonnull String pattern,
+            @Nonnull Priority priority,
+            @Nonnull BiConsumer<String,String> consumer
+    ) throws IllegalArgumentException{
 
-                // If channel map is not empty, then leave it alone
-                if(!value.isEmpty()) return value;
+        // Assert parameters
+        Validation.assertNonnull(pattern, "pattern");
+        Validation.assertNonnull(priority, "priority");
+        Validation.assertNonnull(consumer, "consumer");
 
-                // Otherwise unsubscribe the channel
-                if(this.closed_cdl.getCount() != 0) this.pubsub.unsubscribe(channel);
+        // Subscribe it
+        return this.register(
+                pattern,
+                true,
+                priority,
+                null,
+                null,
+                message -> consumer.accept(message.getChannel(), message.getText()),
+                null
+        );
+    }
 
-                // Clean up map
-                this.counter_map.remove(channel);
+    /**
+     * Subscribes to a pattern and completes once the server has acknowledged the subscription
+     *
+     * @param pattern  glob-style pattern such as {@code tenant.*}
+     * @param consumer consumer function that receives channel name and message
+     * @return future of subscription reference, fails if the connection closes before acknowledgment
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public CompletableFuture<Subscription> psubscribeConfirmed(
+            @Nonnull String pattern,
+            @Nonnull BiConsumer<String,String> consumer
+    ) throws IllegalArgumentException{
 
-                // Return null to remove this value
-                return null;
+        // Assert parameters
+        Validation.assertNonnull(pattern, "pattern");
+        Validation.assertNonnull(consumer, "consumer");
 
-            });
-        });
+        // Subscribe it
+        CompletableFuture<Subscription> confirmed = new CompletableFuture<>();
+        this.register(
+                pattern,
+                true,
+                Priority.NORMAL,
+                null,
+                null,
+                message -> consumer.accept(message.getChannel(), message.getText()),
+                confirmed
+        );
+        return confirmed;
     }
 
     /**
-     * Get subscription count
+     * Subscribes to a channel and receives raw payloads. Payloads are never decoded into strings on this path. Each
+     * payload is a read-only slice that may be backed by a buffer which is reused for later messages, so copy it if it
+     * needs to outlive the call to the consumer
      *
-     * @return subscription count
+     * @param channel  channel name
+     * @param consumer consumer function
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
      */
-    @Nonnegative
-    public long getSubscriptionCount(){
-        return this.subscriptions.get();
+    @Nonnull
+    public Subscription subscribeBinary(@Nonnull String channel, @Nonnull Consumer<ByteBuffer> consumer)
+    throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(channel, "channel");
+        Validation.assertNonnull(consumer, "consumer");
+
+        // Subscribe it
+        return this.register(channel, false, Priority.NORMAL, null, null, message -> consumer.accept(message.getPayload()), null);
     }
 
-    @Override
-    public void close(){
+    /**
+     * Subscribes to a channel but only receives messages whose routing key equals to the provided key. The routing key
+     * is extracted once per message for all consumers that share the same key extractor instance, and only consumers
+     * with matching key are looked up, so reuse the same key extractor instance across subscriptions on the channel.
+     *
+     * @param channel       channel name
+     * @param key_extractor function that extracts routing key from a message, null keys match nothing
+     * @param key           routing key to receive
+     * @param consumer      consumer function
+     * @param <K>           type of routing key
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public <K> Subscription subscribe(
+            @Nonnull String channel,
+            @Nonnull Function<String,K> key_extractor,
+            @Nonnull K key,
+            @Nonnull Consumer<String> consumer
+    )
+    throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(channel, "channel");
+        Validation.assertNonnull(key_extractor, "key_extractor");
+        Validation.assertNonnull(key, "key");
+        Validation.assertNonnull(consumer, "consumer");
+
+        // Subscribe it
+        return this.register(
+                channel,
+                false,
+                Priority.NORMAL,
+                key_extractor,
+                key,
+                message -> consumer.accept(message.getText()),
+                null
+        );
+    }
+
+    /**
+     * Subscribes to a channel or pattern
+     *
+     * @param channel       channel name or pattern
+     * @param pattern       true if channel is a pattern
+     * @param priority      priority class of the channel
+     * @param key_extractor key extractor, null if consumer receives every message on the channel
+     * @param key           routing key, null if consumer receives every message on the channel
+     * @param consumer      consumer function that adapts message to what the subscriber asked for
+     * @param confirmed     future to complete with the subscription once the server acknowledges it, null if the
+     *                      caller doesn't wait for it
+     * @return subscription reference
+     * @throws IllegalArgumentException thrown if channel is already subscribed with another priority class
+     */
+    @Nonnull
+    private Subscription register(
+            @Nonnull String channel,
+            boolean pattern,
+            @Nonnull Priority priority,
+            @Nullable Function<String,?> key_extractor,
+            @Nullable Object key,
+            @Nonnull Consumer<Message> consumer,
+            @Nullable CompletableFuture<Subscription> confirmed
+    ) throws IllegalArgumentException{
 
-        // Unsubscribe
-        this.pubsub.unsubscribe();
+        // Error if closed
+        if(this.closed_cdl.getCount() == 0) throw new IllegalStateException("JedisPubSubManager is closed!");
 
-        // Wait for main subscription thread to exit
+        // Patterns are kept apart from channels
+        Map<String,UniqueIdPool> counter_map = pattern ? this.pattern_counter_map : this.counter_map;
+        Map<String,ChannelConsumers> consumer_map = pattern ? this.pattern_map : this.consumer_map;
+        Confirmations confirmations = pattern ? this.pattern_confirmations : this.confirmations;
+
+        // Subscribe to channel and add consumer, batch cancels may not run in between. The id is drawn last, under the
+        // same lock that removes the channel's id pool, so nothing is left behind when subscribing fails
+        Subscription[] created = new Subscription[1];
+        ChannelConsumers consumers;
+        this.channel_lock.readLock().lock();
         try{
-            this.closed_cdl.await();
-        }catch(InterruptedException e){
-            throw new RuntimeException(e);
+            consumers = consumer_map.compute(channel, (inner_key, value) -> {
+
+                // Subscribe if it's a new channel, acknowledgment is expected before command is sent
+                if(value == null){
+                    CompletableFuture<Void> confirmation = confirmations.expect(channel);
+                    try{
+                        if(pattern) this.connection.psubscribe(channel);
+                        else this.connection.subscribe(channel);
+                    }catch(RuntimeException e){
+                        confirmations.discard(channel, confirmation);
+                        throw e;
+                    }
+                    Events.channelSubscription(channel, true);
+                    value = new ChannelConsumers(confirmation, priority);
+                }
+
+                // Channel stays in the lane it was first subscribed in
+                if(value.getPriority() != priority){
+                    throw new IllegalArgumentException(
+                            "'" + channel + "' is already subscribed with " + value.getPriority() + " priority"
+                    );
+                }
+
+                // Create subscription that will remove consumer and surrender id when it's canceled, and add it
+                int id = counter_map.computeIfAbsent(channel, pool_key -> new UniqueIdPool()).draw();
+                created[0] = new Subscription(this, channel, pattern, id);
+                value.add(id, new ConsumerEntry(consumer, created[0], key_extractor, key));
+                return value;
+            });
+        }finally{
+            this.channel_lock.readLock().unlock();
         }
+        Subscription subscription = created[0];
 
-        // Close the connection
-        this.connection.close();
+        // Count up subscription count
+        this.subscriptions.incrementAndGet();
+
+        // Complete confirmation once the server acknowledges the channel, which may already have happened
+        if(confirmed != null){
+            consumers.getConfirmation().whenComplete((ignored, throwable) -> {
+                if(throwable == null) confirmed.complete(subscription);
+                else confirmed.completeExceptionally(throwable);
+            });
+        }
+
+        // Return subscription
+        return subscription;
     }
 
-    /** Customized JedisPubSub class */
-    private static class PubSub extends JedisPubSub{
+    /**
+     * Removes consumer of canceled subscription and unsubscribes the channel if it was the last consumer
+     *
+     * @param subscription subscription that was just canceled
+     */
+    void remove(@Nonnull Subscription subscription){
+
+        // Patterns are kept apart from channels
+        boolean pattern = subscription.isPattern();
+        String channel = subscription.getChannel();
+        Map<String,UniqueIdPool> counter_map = pattern ? this.pattern_counter_map : this.counter_map;
+        Map<String,ChannelConsumers> consumer_map = pattern ? this.pattern_map : this.consumer_map;
+
+        // Update map
+        consumer_map.computeIfPresent(channel, (inner_key, value) -> {
+
+            // Remove
+            value.remove(subscription.getId());
+
+            // Surrender
+            counter_map.get(channel).surrender(subscription.getId());
+
+            // Decrement subscription count
+            this.subscriptions.decrementAndGet();
 
-        /** Channel function map */
-        @Nonnull
-        private final Map<String,Map<Integer,Consumer<String>>> channel_function_map;
+            // If channel map is not empty, then leave it alone
+            if(!value.isEmpty()) return value;
 
-        /** CDL to ensure that it's working */
-        @Nonnull
-        private final CountDownLatch cdl;
+            // Otherwise unsubscribe the channel
+            if(this.closed_cdl.getCount() != 0){
+                (pattern ? this.pattern_unsubscribing : this.unsubscribing).merge(channel, 1, Integer::sum);
+                if(pattern) this.connection.punsubscribe(channel);
+                else this.connection.unsubscribe(channel);
+                Events.channelSubscription(channel, false);
+            }
+
+            // Clean up map
+            counter_map.remove(channel);
+
+            // Return null to remove this value
+            return null;
+
+        });
+    }
+
+    /**
+     * Cancels many subscriptions at once. Consumers are removed channel by channel rather than one by one, and the
+     * channels and patterns that are left without consumers are unsubscribed with as few commands as possible.
+     * Subscriptions that are already canceled are skipped
+     *
+     * @param subscriptions subscriptions of this manager
+     * @throws IllegalArgumentException thrown if any of subscriptions is null or belongs to another manager
+     */
+    public void cancelAll(@Nonnull Collection<Subscription> subscriptions) throws IllegalArgumentException{
 
-        /**
-         * PubSub constructor
-         *
-         * @param channel_function_map channel map
-         * @param ready_cdl            CDL for ready
-         * @param message_cdl          CDL for message
-         */
-        private PubSub(
-                @Nonnull Map<String,Map<Integer,Consumer<String>>> channel_function_map,
-                @Nonnull CountDownLatch ready_cdl,
-                @Nonnull CountDownLatch message_cdl
-        ){
-            this.channel_function_map = channel_function_map;
-            this.cdl = message_cdl;
-            ready_cdl.countDown();
+        // Assert parameters
+        Validation.assertNonnull(subscriptions, "subscriptions");
+        for(Subscription subscription : subscriptions){
+            Validation.assertNonnull(subscription, "subscription");
+            if(subscription.getManager() != this){
+                throw new IllegalArgumentException("Subscription belongs to another JedisPubSubManager");
+            }
         }
 
-        @Override
-        public void onMessage(String channel, String message){
+        // Claim the subscriptions that are still active and group them by channel
+        Map<String,List<Subscription>> channels = new HashMap<>();
+        Map<String,List<Subscription>> patterns = new HashMap<>();
+        for(Subscription subscription : subscriptions){
+            if(!subscription.claim()) continue;
+            (subscription.isPattern() ? patterns : channels)
+                    .computeIfAbsent(subscription.getChannel(), key -> new ArrayList<>())
+                    .add(subscription);
+        }
 
-            // If null, ignore
-            if(channel == null) return;
+        // Remove consumers and unsubscribe emptied channels before anyone can subscribe to them again
+        this.channel_lock.writeLock().lock();
+        try{
+            List<String> emptied = this.removeAll(channels, this.counter_map, this.consumer_map);
+            List<String> emptied_patterns = this.removeAll(patterns, this.pattern_counter_map, this.pattern_map);
+            if(this.closed_cdl.getCount() == 0) return;
+            for(String channel : emptied) this.unsubscribing.merge(channel, 1, Integer::sum);
+            for(String pattern : emptied_patterns) this.pattern_unsubscribing.merge(pattern, 1, Integer::sum);
+            for(String[] batch : batches(emptied)) this.connection.unsubscribe(batch);
+            for(String[] batch : batches(emptied_patterns)) this.connection.punsubscribe(batch);
+            emptied.forEach(channel -> Events.channelSubscription(channel, false));
+            emptied_patterns.forEach(channel -> Events.channelSubscription(channel, false));
+        }finally{
+            this.channel_lock.writeLock().unlock();
+        }
+    }
 
-            // If channel doesn't exist
-            this.channel_function_map.computeIfAbsent(channel, key -> {
+    /**
+     * Removes consumers of canceled subscriptions, one channel at a time
+     *
+     * @param subscriptions canceled subscriptions by channel
+     * @param counter_map   consumer count map
+     * @param consumer_map  consumer map
+     * @return channels that are left without consumers and need to be unsubscribed
+     */
+    @Nonnull
+    private List<String> removeAll(
+            @Nonnull Map<String,List<Subscription>> subscriptions,
+            @Nonnull Map<String,UniqueIdPool> counter_map,
+            @Nonnull Map<String,ChannelConsumers> consumer_map
+    ){
+        List<String> emptied = new ArrayList<>();
+        subscriptions.forEach((channel, canceled) -> consumer_map.computeIfPresent(channel, (inner_key, value) -> {
 
-                // Quietly ignore default channel name
-                if(key.equals(DEFAULT_CHANNEL_NAME)) return Collections.singletonMap(
-                        null,
-                        inner -> this.cdl.countDown()
-                );
+            // Remove all of them and surrender their ids
+            UniqueIdPool ids = counter_map.get(channel);
+            for(Subscription subscription : canceled){
+                value.remove(subscription.getId());
+                ids.surrender(subscription.getId());
+            }
+            this.subscriptions.addAndGet(-canceled.size());
 
-                // Otherwise warn about other channels
-                return Collections.singletonMap(
-                        null,
-                        inner -> System.err.println("Unexpected channel '" + key + "' showed up the pubsub manager")
-                );
+            // If channel map is not empty, then leave it alone
+            if(!value.isEmpty()) return value;
 
-            }).values().parallelStream().forEach(item -> item.accept(message));
+            // Otherwise clean up and remove the channel
+            emptied.add(channel);
+            counter_map.remove(channel);
+            return null;
+        }));
+        return emptied;
+    }
+
+    /**
+     * Splits names into batches that are small enough for a single command
+     *
+     * @param names names
+     * @return batches
+     */
+    @Nonnull
+    private static List<String[]> batches(@Nonnull List<String> names){
+        List<String[]> batches = new ArrayList<>();
+        for(int start = 0; start < names.size(); start += UNSUBSCRIBE_BATCH_SIZE){
+            int end = Math.min(names.size(), start + UNSUBSCRIBE_BATCH_SIZE);
+            batches.add(names.subList(start, end).toArray(new String[0]));
+        }
+        return batches;
+    }
+
+    /**
+     * Publishes message and delivers it straight to consumers of the channel in this manager, without waiting for the
+     * server to send it back. Other subscribers receive it through the server as usual, and the copy that comes back
+     * to this manager is dropped. Local consumers receive it once the server has taken it, on the lane of the channel
+     * like any other message, inflated if it was compressed, and pattern consumers receive it through the server
+     *
+     * @param channel channel name
+     * @param message message
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws IllegalStateException    thrown if manager is closed
+     * @throws JedisConnectionException thrown if message could not be published
+     */
+    public void publish(@Nonnull String channel, @Nonnull String message)
+    throws IllegalArgumentException, IllegalStateException, JedisConnectionException{
+        Validation.assertNonnull(message, "message");
+        this.publish(channel, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Publishes message and delivers it straight to consumers of the channel in this manager, without waiting for the
+     * server to send it back
+     *
+     * @param channel channel name
+     * @param message message
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     * @throws IllegalStateException    thrown if manager is closed
+     * @throws JedisConnectionException thrown if message could not be published
+     * @see #publish(String, String)
+     */
+    public void publish(@Nonnull String channel, @Nonnull byte[] message)
+    throws IllegalArgumentException, IllegalStateException, JedisConnectionException{
+
+        // Assert parameters
+        Validation.assertNonemptyString(channel, "channel");
+        Validation.assertNonnull(message, "message");
+
+        // Error if closed
+        if(this.closed_cdl.getCount() == 0) throw new IllegalStateException("JedisPubSubManager is closed!");
+
+        synchronized(this.publisher_lock){
+
+            // Stamp it under the lock so sequence numbers go out in order, and tag it so the echo can be recognized
+            byte[] payload = message;
+            if(this.sequence_stamping){
+                long sequence = this.sequences.merge(channel, 1L, Long::sum) - 1;
+                payload = Sequence.stamp(this.origin, sequence, 1, payload);
+            }
+            byte[] tagged = Origin.tag(this.origin, payload);
+
+            // Connect, or reconnect if the server has moved
+            String endpoint = this.endpoint;
+            if(this.publisher == null || !endpoint.equals(this.publisher_endpoint)){
+                if(this.publisher != null) this.publisher.close();
+                HostAndPort address = HostAndPort.parseString(endpoint);
+                this.publisher = new Jedis(address.getHost(), address.getPort());
+                this.publisher_endpoint = endpoint;
+            }
+
+            // Drop broken connection so the next publish reconnects
+            try{
+                this.publisher.publish(SafeEncoder.encode(channel), tagged);
+            }catch(JedisConnectionException e){
+                this.publisher.close();
+                this.publisher = null;
+                throw e;
+            }
+        }
+
+        // Deliver it locally once the server has it, inflated like the server's copy would be. Publishing threads
+        // share their own decompressor rather than the receiving thread's, so only the copy is made under its lock
+        ChannelConsumers consumers = this.consumer_map.get(channel);
+        if(consumers == null) return;
+        Message local;
+        synchronized(this.loopback_decompressor){
+            local = this.loopback_decompressor.decompress(new Message(channel, ByteBuffer.wrap(message))).copy();
+        }
+        this.route(consumers, local);
+    }
+
+    /**
+     * Get subscription count
+     *
+     * @return subscription count
+     */
+    @Nonnegative
+    public long getSubscriptionCount(){
+        return this.subscriptions.get();
+    }
+
+    /**
+     * Returns number of payloads that were dropped because the lane of their priority class was full. Every message
+     * in them counts as lost as well
+     *
+     * @return number of dropped payloads
+     * @see #getLostMessageCount()
+     */
+    @Nonnegative
+    public long getDroppedMessageCount(){
+        return this.lanes.getDropped();
+    }
+
+    /**
+     * Sets number of threads that dispatch normal and low priority channels. Messages of a channel are delivered in
+     * order on one thread at a time, different channels are delivered in parallel. High priority channels always have
+     * a thread of their own. Defaults to the number of processors, but at least two
+     *
+     * @param threads number of threads
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public void setDispatchThreads(@Nonnegative int threads) throws IllegalArgumentException{
+        Validation.assertNaturalNumber(threads, "threads");
+        this.lanes.setThreads(threads);
+    }
+
+    /**
+     * Sets slow consumer policy. Consumers that take longer than the policy's threshold to accept messages will be
+     * isolated or cancelled according to the policy
+     *
+     * @param policy slow consumer policy, null to disable slow consumer detection
+     */
+    public void setSlowConsumerPolicy(@Nullable SlowConsumerPolicy policy){
+        this.slow_consumer_policy = policy;
+    }
+
+    /**
+     * Sets liveness probe. The subscriber connection is pinged at the probe's interval, and if a reply doesn't arrive
+     * within the probe's timeout, the connection is dropped. Managers that follow a master through Redis Sentinel then
+     * reconnect, other managers close like they do when the connection is lost
+     *
+     * @param probe liveness probe, null to stop probing
+     */
+    public synchronized void setLivenessProbe(@Nullable LivenessProbe probe){
+
+        // Stop probing
+        if(this.prober != null) this.prober.shutdownNow();
+        this.prober = null;
+        this.liveness_probe = probe;
+        this.ping_token = null;
+        if(probe == null || this.closed_cdl.getCount() == 0) return;
+
+        // Start probing
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "JedisPubSubManager-liveness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = probe.getIntervalNanos();
+        this.prober.scheduleWithFixedDelay(() -> this.probe(probe), interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets whether messages published through this manager are stamped with a sequence number per channel, so
+     * managers that receive them can detect lost messages. Every manager that receives them must support stamps
+     *
+     * @param enabled true to stamp messages
+     * @see #getLostMessageCount()
+     */
+    public void setSequenceStamping(boolean enabled){
+        this.sequence_stamping = enabled;
+    }
+
+    /**
+     * Sets gap listener that is called when sequence-stamped messages went missing
+     *
+     * @param listener gap listener, null to stop listening
+     */
+    public void setGapListener(@Nullable GapListener listener){
+        this.gap_listener = listener;
+    }
+
+    /**
+     * Returns number of messages that were lost on every channel. That's sequence-stamped messages that went missing
+     * before they reached this manager, and any message that this manager dropped because its lane was full
+     *
+     * @return number of lost messages
+     */
+    @Nonnegative
+    public long getLostMessageCount(){
+        return this.sequence_tracker.getLost();
+    }
+
+    /**
+     * Returns number of messages on channel that were lost, either sequence-stamped messages that went missing before
+     * they reached this manager or messages that this manager dropped because their lane was full
+     *
+     * @param channel channel name
+     * @return number of lost messages
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnegative
+    public long getLostMessageCount(@Nonnull String channel) throws IllegalArgumentException{
+        Validation.assertNonnull(channel, "channel");
+        return this.sequence_tracker.getLost(channel);
+    }
+
+    /**
+     * Tracks sequence of stamped message and removes the stamp, other messages are left alone
+     *
+     * @param message message
+     * @return message without the stamp
+     */
+    @Nonnull
+    private Message track(@Nonnull Message message){
+
+        // Leave unstamped messages alone
+        ByteBuffer payload = message.view();
+        if(!Sequence.isStamped(payload)) return message;
+
+        // Track it and report any gap
+        long publisher = Sequence.publisher(payload);
+        long sequence = Sequence.sequence(payload);
+        String channel = message.getChannel();
+        long lost = this.sequence_tracker.track(channel, publisher, sequence, Sequence.count(payload));
+        GapListener listener = this.gap_listener;
+        if(lost > 0 && listener != null){
+            try{
+                listener.onGap(channel, sequence - lost, sequence, lost);
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }
+        return Sequence.strip(message);
+    }
+
+    /**
+     * Sets failover listener, only called by managers that follow a master through Redis Sentinel
+     *
+     * @param listener failover listener, null to stop listening
+     */
+    public void setFailoverListener(@Nullable FailoverListener listener){
+        this.failover_listener = listener;
+    }
+
+    /**
+     * Sets disconnect listener that is called when the subscriber connection is lost while the manager is open.
+     * Managers that follow a master through Redis Sentinel reconnect by their own, others stop receiving for good
+     *
+     * @param listener disconnect listener, null to stop listening
+     */
+    public void setDisconnectListener(@Nullable DisconnectListener listener){
+        this.disconnect_listener = listener;
+    }
+
+    /**
+     * Pings the connection, or drops it if the previous ping was not answered in time. Runs on the prober
+     *
+     * @param probe liveness probe
+     */
+    private void probe(@Nonnull LivenessProbe probe){
+
+        // Ignore if probe was replaced or manager is closed
+        if(probe != this.liveness_probe || this.closed_cdl.getCount() == 0) return;
+
+        // Wait for the previous ping, drop the connection once it's late
+        String token = this.ping_token;
+        if(token != null){
+            if(System.nanoTime() - this.ping_sent < probe.getTimeoutNanos()) return;
+            this.ping_token = null;
+            probe.recordStall();
+            this.stalled = true;
+            Object event = Events.beginLifecycle();
+            this.connection.abort();
+            Events.endLifecycle(event, this.endpoint, "stall");
+            return;
+        }
+
+        // Ping it, tokens carry origin since shared connections pass replies to every manager
+        token = Long.toHexString(this.origin) + ":" + this.ping_count++;
+        this.ping_sent = System.nanoTime();
+        this.ping_token = token;
+        try{
+            this.connection.ping(token);
+        }catch(JedisException e){
+            // Connection is failing, it's closed or moved by its own
+        }
+    }
+
+    /**
+     * Creates id for origin tags
+     *
+     * @return random id that is never {@link Origin#NONE}
+     */
+    private static long newOrigin(){
+        long origin;
+        do{
+            origin = ThreadLocalRandom.current().nextLong();
+        }while(origin == Origin.NONE);
+        return origin;
+    }
+
+    /**
+     * Parses sentinel addresses
+     *
+     * @param master_name name of the master
+     * @param sentinels   sentinels in "host:port" form
+     * @return sentinel addresses
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    private static List<HostAndPort> parseSentinels(@Nonnull String master_name, @Nonnull Set<String> sentinels)
+    throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonemptyString(master_name, "master_name");
+        Validation.assertNonnull(sentinels, "sentinels");
+        if(sentinels.isEmpty()) throw new IllegalArgumentException("sentinels is empty");
+
+        // Parse them
+        List<HostAndPort> addresses = new ArrayList<>(sentinels.size());
+        for(String sentinel : sentinels){
+            Validation.assertNonemptyString(sentinel, "sentinel");
+            try{
+                addresses.add(HostAndPort.parseString(sentinel));
+            }catch(RuntimeException e){
+                throw new IllegalArgumentException("sentinel '" + sentinel + "' is not in host:port form", e);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Dispatches message to consumers of the channel or pattern
+     *
+     * @param consumer_map  consumer map to look up
+     * @param unsubscribing names being unsubscribed
+     * @param name          channel name or pattern that the message arrived through
+     * @param message       message
+     */
+    private void dispatch(
+            @Nonnull Map<String,ChannelConsumers> consumer_map,
+            @Nonnull Map<String,Integer> unsubscribing,
+            @Nonnull String name,
+            @Nonnull Message message
+    ){
+
+        // Record it
+        Events.messageReceived(message.getChannel(), message.getSize());
+
+        // Get consumers
+        ChannelConsumers consumers = consumer_map.get(name);
+
+        // Messages that were sent before an unsubscribe took effect are expected, warn about anything else
+        if(consumers == null){
+            if(unsubscribing.containsKey(name)) return;
+            System.err.println("Unexpected channel '" + name + "' showed up the pubsub manager");
+            return;
+        }
+
+        // Inflate compressed payloads once for every consumer
+        this.route(consumers, this.decompressor.decompress(message));
+    }
+
+    /**
+     * Hands message off to the lane of its priority class, so consumers never run on the thread that reads the
+     * connection. The caller never waits, messages that find their lane full are dropped
+     *
+     * @param consumers consumers of the channel or pattern
+     * @param message   message
+     */
+    private void route(@Nonnull ChannelConsumers consumers, @Nonnull Message message){
+
+        // Payload may not outlive the dispatch so copy it unless it's the message's own, this is the only copy made
+        // on the way to consumers
+        if(this.lanes.offer(consumers, message.copy()) || this.closed_cdl.getCount() == 0) return;
+
+        // Lane was full, every message of a batch counts as lost
+        int count = Envelope.count(message.view());
+        this.sequence_tracker.drop(message.getChannel(), count < 0 ? 1 : count);
+    }
+
+    /**
+     * Unpacks batches and delivers every message to the selected consumers of the channel or pattern
+     *
+     * @param consumers consumers of the channel or pattern
+     * @param message   message
+     * @param policy    slow consumer policy, null if disabled
+     */
+    private void unpack(
+            @Nonnull ChannelConsumers consumers,
+            @Nonnull Message message,
+            @Nullable SlowConsumerPolicy policy
+    ){
+
+        // Batches from BatchingPublisher are delivered one message at a time, others skip setting that up
+        if(!Envelope.isEnvelope(message.view())) this.deliverAll(consumers, message, policy);
+        else Envelope.unpack(message, unpacked -> this.deliverAll(consumers, unpacked, policy));
+    }
+
+    /**
+     * Delivers message to the selected consumers of the channel or pattern
+     *
+     * @param consumers consumers of the channel or pattern
+     * @param message   message
+     * @param policy    slow consumer policy, null if disabled
+     */
+    private void deliverAll(
+            @Nonnull ChannelConsumers consumers,
+            @Nonnull Message message,
+            @Nullable SlowConsumerPolicy policy
+    ){
+
+        // Deliver it, a lone consumer is run directly to avoid the cost of setting up a parallel stream
+        ConsumerEntry[] entries = consumers.select(message);
+        if(entries.length == 1) this.deliver(entries[0], message, policy);
+        else if(entries.length > 1){
+            Arrays.stream(entries).parallel().forEach(entry -> this.deliver(entry, message, policy));
+        }
+    }
+
+    /**
+     * Delivers message to a single consumer and keeps track of its execution time
+     *
+     * @param entry   consumer entry
+     * @param message message
+     * @param policy  slow consumer policy, null if disabled
+     */
+    private void deliver(@Nonnull ConsumerEntry entry, @Nonnull Message message, @Nullable SlowConsumerPolicy policy){
+
+        // Isolated consumers run on their own executor, the lane already handed over a message that owns its payload
+        if(entry.isIsolated()){
+            ExecutorService executor = this.getIsolatedExecutor();
+            this.in_flight.increment();
+            try{
+                executor.execute(() -> {
+                    try{
+                        accept(entry, message);
+                    }finally{
+                        this.in_flight.decrement();
+                    }
+                });
+            }catch(RejectedExecutionException e){
+                this.in_flight.decrement();
+
+                // Isolated consumers have fallen too far behind, cancel the one that overflowed
+                if(executor.isShutdown()) throw e;
+                this.cancelIsolated(message.getChannel(), entry, policy);
+            }
+            return;
+        }
+
+        // Just run it if there's no policy
+        if(policy == null){
+            accept(entry, message);
+            return;
+        }
+
+        // Time it
+        long start = System.nanoTime();
+        try{
+            accept(entry, message);
+        }finally{
+            long elapsed = System.nanoTime() - start;
+
+            // Reset if consumer was fast enough, otherwise take action if consumer has been slow too many times
+            if(elapsed <= policy.getThresholdNanos()) entry.resetViolations();
+            else if(entry.recordViolation() >= policy.getMaxViolations()){
+                this.takeAction(message.getChannel(), entry, policy, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Runs consumer and records it. A consumer that throws is reported, so it doesn't keep the message from other
+     * consumers or the rest of its batch from anyone
+     *
+     * @param entry   consumer entry
+     * @param message message
+     */
+    private static void accept(@Nonnull ConsumerEntry entry, @Nonnull Message message){
+        Object event = Events.beginDispatch();
+        try{
+            entry.getConsumer().accept(message);
+        }catch(RuntimeException e){
+            System.err.println("Consumer failed on a message on '" + message.getChannel() + "': " + e);
+            e.printStackTrace();
+        }finally{
+            Events.endDispatch(event, message.getChannel());
+        }
+    }
+
+    /**
+     * Takes action against slow consumer
+     *
+     * @param channel channel name
+     * @param entry   consumer entry
+     * @param policy  slow consumer policy
+     * @param elapsed execution time of the accept call that triggered the action in nanoseconds
+     */
+    private void takeAction(
+            @Nonnull String channel,
+            @Nonnull ConsumerEntry entry,
+            @Nonnull SlowConsumerPolicy policy,
+            @Nonnegative long elapsed
+    ){
+        switch(policy.getAction()){
+        case ISOLATE:
+
+            // Only report once
+            if(!entry.isolate()) return;
+            break;
+
+        case CANCEL:
+
+            // Only report once
+            if(entry.getSubscription().isCanceled()) return;
+            entry.getSubscription().cancel();
+            break;
+
+        default:
+            throw new IllegalStateException("Unknown action " + policy.getAction());
+        }
+
+        // Report it
+        policy.getListener().onSlowConsumer(channel, entry.getSubscription(), policy.getAction(), elapsed);
+    }
+
+    /**
+     * Cancels isolated consumer whose messages don't fit the isolated executor anymore
+     *
+     * @param channel channel name
+     * @param entry   consumer entry
+     * @param policy  slow consumer policy, null if it was disabled since the consumer was isolated
+     */
+    private void cancelIsolated(
+            @Nonnull String channel,
+            @Nonnull ConsumerEntry entry,
+            @Nullable SlowConsumerPolicy policy
+    ){
+
+        // Only report once
+        if(entry.getSubscription().isCanceled()) return;
+        entry.getSubscription().cancel();
+        if(policy != null){
+            policy.getListener().onSlowConsumer(channel, entry.getSubscription(), SlowConsumerPolicy.Action.CANCEL, 0);
+        }
+    }
+
+    /**
+     * Returns executor for isolated consumers, creates it if it doesn't exist yet. Its queue is bounded, so consumers
+     * that can't keep up even on their own are canceled rather than piling up messages
+     *
+     * @return executor
+     */
+    @Nonnull
+    private ExecutorService getIsolatedExecutor(){
+        ExecutorService executor = this.isolated_executor;
+        if(executor != null) return executor;
+        synchronized(this){
+            if(this.isolated_executor == null){
+                this.isolated_executor = new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(ISOLATED_CAPACITY),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "JedisPubSubManager-isolated");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                );
+            }
+            return this.isolated_executor;
+        }
+    }
+
+    @Override
+    public void close(){
+
+        // Start recording close
+        Object event = Events.beginLifecycle();
+
+        // Stop intake
+        this.stopIntake(Long.MAX_VALUE);
+
+        // Shut down isolated consumers and lanes, queued work still runs
+        this.shutdownExecutors();
+
+        // Record it
+        Events.endLifecycle(event, this.endpoint, "close");
+    }
+
+    /**
+     * Closes the manager and waits for deliveries that are still running or queued, so consumers finish the messages
+     * that were already received. The connection gets the same time to close, and deliveries that don't finish in time
+     * are abandoned
+     *
+     * @param drain_timeout maximum time to wait for deliveries
+     * @return number of deliveries that were still running or queued when the timeout ran out
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnegative
+    public long close(@Nonnull Duration drain_timeout) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(drain_timeout, "drain_timeout");
+        if(drain_timeout.isNegative()) throw new IllegalArgumentException("drain_timeout must not be negative");
+
+        // Start recording close
+        Object event = Events.beginLifecycle();
+        long deadline = System.nanoTime() + drain_timeout.toNanos();
+
+        // Stop intake, nothing new is queued once the connection is closed. A reading thread that is still waiting for
+        // room on a lane by the deadline has its message counted as in flight
+        this.stopIntake(Math.max(deadline - System.nanoTime(), 0));
+        List<ExecutorService> executors = this.shutdownExecutors();
+
+        // Wait for deliveries to drain
+        long remaining = this.in_flight.sum();
+        try{
+            while(remaining > 0 && System.nanoTime() - deadline < 0){
+                Thread.sleep(1);
+                remaining = this.in_flight.sum();
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        // Abandon the rest
+        if(remaining > 0){
+            this.lanes.abandon();
+            for(ExecutorService executor : executors) executor.shutdownNow();
+        }
+
+        // Record it
+        Events.endLifecycle(event, this.endpoint, "close");
+        return Math.max(remaining, 0);
+    }
+
+    /**
+     * Closes the connection and waits for it, then closes the publisher connection
+     *
+     * @param timeout_nanos maximum time to wait for the connection to close in nanoseconds
+     */
+    private void stopIntake(@Nonnegative long timeout_nanos){
+
+        // Stop probing
+        synchronized(this){
+            if(this.prober != null) this.prober.shutdownNow();
+            this.prober = null;
+        }
+
+        // Close the connection
+        this.closing = true;
+        if(this.closed_cdl.getCount() != 0) this.connection.close();
+
+        // Wait for connection to close
+        try{
+            this.closed_cdl.await(timeout_nanos, TimeUnit.NANOSECONDS);
+        }catch(InterruptedException e){
+            throw new RuntimeException(e);
+        }
+
+        // Close publisher connection
+        synchronized(this.publisher_lock){
+            if(this.publisher != null) this.publisher.close();
+            this.publisher = null;
+        }
+    }
+
+    /**
+     * Shuts down executors of isolated consumers and lanes, work that is already queued still runs
+     *
+     * @return executors
+     */
+    @Nonnull
+    private List<ExecutorService> shutdownExecutors(){
+        List<ExecutorService> executors = new ArrayList<>(this.lanes.shutdown());
+        synchronized(this){
+            if(this.isolated_executor != null) executors.add(this.isolated_executor);
+        }
+        for(ExecutorService executor : executors) executor.shutdown();
+        return executors;
+    }
+
+    /** Listener of events on the subscriber connection */
+    private final class Listener implements SubscriberConnection.Listener{
+
+        @Override
+        public void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload){
+
+            // Quietly acknowledge default channel name
+            if(channel.equals(DEFAULT_CHANNEL_NAME)){
+                message_cdl.countDown();
+                return;
+            }
+
+            // Consumers already received messages this manager published, others get them without the tag
+            Message message = new Message(channel, payload, owned_payloads);
+            long sender = Origin.read(payload);
+            if(sender == origin) return;
+            if(sender != Origin.NONE) message = Origin.strip(message);
+
+            // Dispatch it
+            dispatch(consumer_map, unsubscribing, channel, track(message));
+        }
+
+        @Override
+        public void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload){
+
+            // Server sends a copy per matching pattern, so only consumers of this pattern receive it. Patterns are not
+            // matched locally so they receive messages this manager published as well
+            Message message = new Message(channel, payload, owned_payloads);
+            if(Origin.read(payload) != Origin.NONE) message = Origin.strip(message);
+            dispatch(pattern_map, pattern_unsubscribing, pattern, track(message));
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull String channel){
+            confirmations.confirm(channel);
+        }
+
+        @Override
+        public void onPSubscribe(@Nonnull String pattern){
+            pattern_confirmations.confirm(pattern);
+        }
+
+        @Override
+        public void onUnsubscribe(@Nonnull String channel){
+            unsubscribing.computeIfPresent(channel, (key, count) -> count > 1 ? count - 1 : null);
+        }
+
+        @Override
+        public void onPUnsubscribe(@Nonnull String pattern){
+            pattern_unsubscribing.computeIfPresent(pattern, (key, count) -> count > 1 ? count - 1 : null);
+        }
+
+        @Override
+        public void onPong(@Nonnull String token){
+
+            // Ignore replies to pings of other managers and late replies
+            if(!token.equals(ping_token)) return;
+            long round_trip = System.nanoTime() - ping_sent;
+            ping_token = null;
+            LivenessProbe probe = liveness_probe;
+            if(probe != null) probe.recordPong(round_trip);
+        }
+
+        @Override
+        public void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos){
+
+            // Ping and unsubscribes of the previous connection will never be answered
+            ping_token = null;
+            unsubscribing.clear();
+            pattern_unsubscribing.clear();
+            JedisPubSubManager.this.endpoint = endpoint;
+            FailoverListener listener = failover_listener;
+            if(listener != null) listener.onFailover(endpoint, elapsed_nanos);
+        }
+
+        @Override
+        public void onClosed(){
+
+            // Nothing will be acknowledged anymore
+            JedisConnectionException exception = new JedisConnectionException("Subscriber connection is closed");
+            confirmations.failAll(exception);
+            pattern_confirmations.failAll(exception);
+            closed_cdl.countDown();
+
+            // Let the application know unless it closed the manager
+            DisconnectListener listener = disconnect_listener;
+            if(closing || listener == null) return;
+            try{
+                listener.onDisconnect(endpoint, stalled);
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
         }
     }
 }
@@ -0,0 +1,291 @@
+package com.ansill.redis;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Subscriber connection that blocks a thread in Jedis' subscribe method. Jedis' binary subscriber doesn't understand
+ * PING replies, so pings subscribe to the initial channel again instead, which the server acknowledges in order just
+ * like a PING
+ */
+final class JedisSubscriberConnection implements SubscriberConnection{
+
+    /** Logger */
+    @Nonnull
+    private static final Logger LOGGER = Logger.getLogger(JedisSubscriberConnection.class.getName());
+
+    /** Connection */
+    @Nonnull
+    private final Jedis connection;
+
+    /** Client of the connection, writes are synchronized on it */
+    @Nonnull
+    private final Client client;
+
+    /** PubSub object */
+    @Nonnull
+    private final PubSub pubsub;
+
+    /** Channel that was subscribed initially, pings subscribe to it again */
+    @Nonnull
+    private final String channel;
+
+    /** Tokens of pings that have not been acknowledged, in the order they were sent */
+    @Nonnull
+    private final Queue<String> pings = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates connection and starts the blocking subscription in another thread
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @param channel  channel to subscribe initially
+     * @param listener listener of events on the connection
+     */
+    JedisSubscriberConnection(
+            @Nonnull String hostname,
+            @Nonnegative int port,
+            @Nonnull String channel,
+            @Nonnull Listener listener
+    ){
+
+        // Create new exclusive connection
+        this.connection = new SubscriberJedis(hostname, port);
+        this.client = this.connection.getClient();
+        this.channel = channel;
+
+        // Ping it (test the connection)
+        this.connection.ping("Hello!");
+
+        // Create pubsub
+        this.pubsub = new PubSub(listener, channel, this.pings);
+
+        // Start the blocking subscription in another thread
+        new Thread(() -> {
+            try{
+
+                // Subscribe to channel - method will block until unsubscribe() is called
+                this.connection.subscribe(this.pubsub, SafeEncoder.encode(channel));
+
+            }catch(JedisConnectionException e){
+
+                // Connection was lost or aborted, the listener hears about it below
+                LOGGER.log(Level.FINE, "Subscriber connection to " + hostname + ":" + port + " is lost", e);
+
+            }finally{
+
+                // Close the connection
+                this.connection.close();
+
+                // Notify that subscription is closed
+                listener.onClosed();
+            }
+        }).start();
+    }
+
+    @Override
+    public void subscribe(@Nonnull String... channels){
+        synchronized(this.client){
+            this.pubsub.subscribe(SafeEncoder.encodeMany(channels));
+        }
+    }
+
+    @Override
+    public void unsubscribe(@Nonnull String... channels){
+        synchronized(this.client){
+            this.pubsub.unsubscribe(SafeEncoder.encodeMany(channels));
+        }
+    }
+
+    @Override
+    public void psubscribe(@Nonnull String... patterns){
+        synchronized(this.client){
+            this.pubsub.psubscribe(SafeEncoder.encodeMany(patterns));
+        }
+    }
+
+    @Override
+    public void punsubscribe(@Nonnull String... patterns){
+        synchronized(this.client){
+            this.pubsub.punsubscribe(SafeEncoder.encodeMany(patterns));
+        }
+    }
+
+    @Override
+    public void ping(@Nonnull String token){
+        synchronized(this.client){
+            this.pings.add(token);
+            try{
+                this.pubsub.subscribe(SafeEncoder.encode(this.channel));
+            }catch(RuntimeException e){
+                this.pings.remove(token);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean reusesBuffers(){
+
+        // Jedis reads every payload into an array of its own
+        return false;
+    }
+
+    @Override
+    public void abort(){
+
+        // Close the socket without the client's lock, a writer may be stuck on it. The subscribe loop fails and closes
+        // the rest
+        try{
+            this.client.getSocket().close();
+        }catch(IOException | RuntimeException ignored){
+            // Already closed
+        }
+    }
+
+    @Override
+    public void close(){
+        synchronized(this.client){
+
+            // Unsubscribe everything if subscription has started, otherwise drop the connection. Patterns go first so
+            // the subscription count only drops to zero on the final reply
+            if(this.pubsub.isSubscribed()){
+                this.pubsub.punsubscribe();
+                this.pubsub.unsubscribe();
+            }else this.connection.disconnect();
+        }
+    }
+
+    /** Jedis with client that can be written to from other threads while it's blocked in subscribe */
+    private static final class SubscriberJedis extends Jedis{
+
+        /**
+         * Creates connection
+         *
+         * @param hostname hostname of the server
+         * @param port     port of the server
+         */
+        private SubscriberJedis(@Nonnull String hostname, @Nonnegative int port){
+            super(hostname, port);
+            this.client = new SubscriberClient(hostname, port);
+        }
+    }
+
+    /**
+     * Client whose flush is synchronized. The subscribe loop flushes the output stream before every read, which would
+     * otherwise race with commands written by other threads and lose them
+     */
+    private static final class SubscriberClient extends Client{
+
+        /**
+         * Creates client
+         *
+         * @param hostname hostname of the server
+         * @param port     port of the server
+         */
+        private SubscriberClient(@Nonnull String hostname, @Nonnegative int port){
+            super(hostname, port);
+        }
+
+        @Override
+        protected synchronized void flush(){
+            super.flush();
+        }
+    }
+
+    /** Customized BinaryJedisPubSub class, payloads are passed on without being decoded */
+    private static final class PubSub extends BinaryJedisPubSub{
+
+        /** Listener */
+        @Nonnull
+        private final Listener listener;
+
+        /** Channel that was subscribed initially */
+        @Nonnull
+        private final String channel;
+
+        /** Tokens of pings that have not been acknowledged */
+        @Nonnull
+        private final Queue<String> pings;
+
+        /** Flag whether the initial subscription has been acknowledged, only accessed on the subscribe thread */
+        private boolean started = false;
+
+        /**
+         * PubSub constructor
+         *
+         * @param listener listener of events on the connection
+         * @param channel  channel that was subscribed initially
+         * @param pings    tokens of pings that have not been acknowledged
+         */
+        private PubSub(@Nonnull Listener listener, @Nonnull String channel, @Nonnull Queue<String> pings){
+            this.listener = listener;
+            this.channel = channel;
+            this.pings = pings;
+        }
+
+        @Override
+        public void onMessage(byte[] channel, byte[] message){
+
+            // If null, ignore
+            if(channel == null || message == null) return;
+
+            // Pass it on
+            this.listener.onMessage(SafeEncoder.encode(channel), ByteBuffer.wrap(message));
+        }
+
+        @Override
+        public void onPMessage(byte[] pattern, byte[] channel, byte[] message){
+
+            // If null, ignore
+            if(pattern == null || channel == null || message == null) return;
+
+            // Pass it on
+            this.listener.onPMessage(SafeEncoder.encode(pattern), SafeEncoder.encode(channel), ByteBuffer.wrap(message));
+        }
+
+        @Override
+        public void onSubscribe(byte[] channel, int count){
+            if(channel == null) return;
+            String name = SafeEncoder.encode(channel);
+
+            // Acknowledgments of the initial channel after the first one answer pings
+            if(name.equals(this.channel)){
+                String token = this.started ? this.pings.poll() : null;
+                this.started = true;
+                if(token != null){
+                    this.listener.onPong(token);
+                    return;
+                }
+            }
+            this.listener.onSubscribe(name);
+        }
+
+        @Override
+        public void onPSubscribe(byte[] pattern, int count){
+            if(pattern != null) this.listener.onPSubscribe(SafeEncoder.encode(pattern));
+        }
+
+        @Override
+        public void onUnsubscribe(byte[] channel, int count){
+            if(channel != null) this.listener.onUnsubscribe(SafeEncoder.encode(channel));
+        }
+
+        @Override
+        public void onPUnsubscribe(byte[] pattern, int count){
+            if(pattern != null) this.listener.onPUnsubscribe(SafeEncoder.encode(pattern));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch lanes of a manager, one per priority class. High priority channels have a thread of their own, normal and
+ * low priority channels share a pool that always takes normal channels first, and a low priority channel steps aside
+ * after its current message once a normal one is waiting. Messages of a channel are delivered one at a time in the
+ * order they arrived, while different channels are delivered in parallel. Lanes never make the caller wait, a message
+ * that finds its lane full is dropped and counted
+ */
+final class Lanes{
+
+    /** Maximum number of messages waiting in a lane */
+    static final int CAPACITY = 10_000;
+
+    /** Time that an idle thread is kept in milliseconds */
+    private static final long KEEP_ALIVE = 60_000;
+
+    /** Maximum number of messages of a channel delivered in one turn, before other channels of the lane go */
+    private static final int TURN_SIZE = 64;
+
+    /** Receiver of messages that come out of the lanes */
+    @Nonnull
+    private final Delivery delivery;
+
+    /** Number of deliveries that have been accepted but not completed, shared with the owner */
+    @Nonnull
+    private final LongAdder in_flight;
+
+    /** Lane of high priority channels */
+    @Nonnull
+    private final ThreadPoolExecutor high;
+
+    /** Pool of normal and low priority channels */
+    @Nonnull
+    private final ThreadPoolExecutor shared;
+
+    /** Number of messages waiting or running by priority class */
+    @Nonnull
+    private final AtomicIntegerArray waiting = new AtomicIntegerArray(Priority.values().length);
+
+    /** Order of turns, so channels of the same class take turns in the order they got messages */
+    @Nonnull
+    private final AtomicLong turns = new AtomicLong(0);
+
+    /** Number of messages dropped because their lane was full */
+    @Nonnull
+    private final LongAdder dropped = new LongAdder();
+
+    /** Flag whether waiting messages are abandoned */
+    private volatile boolean abandoned = false;
+
+    /**
+     * Creates lanes, threads are started once messages arrive and go away while lanes are idle
+     *
+     * @param delivery  receiver of messages that come out of the lanes
+     * @param in_flight number of deliveries that have been accepted but not completed
+     * @param threads   number of threads of normal and low priority channels
+     */
+    Lanes(@Nonnull Delivery delivery, @Nonnull LongAdder in_flight, @Nonnegative int threads){
+        this.delivery = delivery;
+        this.in_flight = in_flight;
+        this.high = new ThreadPoolExecutor(
+                1,
+                1,
+                KEEP_ALIVE,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "JedisPubSubManager-lane-high");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MAX_PRIORITY);
+                    return thread;
+                }
+        );
+        this.high.allowCoreThreadTimeOut(true);
+        AtomicInteger count = new AtomicInteger(0);
+        this.shared = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE,
+                TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "JedisPubSubManager-lane-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        this.shared.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hands message to the lane of the channel
+     *
+     * @param consumers consumers of the channel or pattern
+     * @param message   message that can outlive the call
+     * @return true if it was accepted, false if it was dropped because the lane is full or shut down
+     */
+    boolean offer(@Nonnull ChannelConsumers consumers, @Nonnull Message message){
+
+        // Nothing is taken once lanes are shut down
+        int lane = consumers.getPriority().ordinal();
+        ThreadPoolExecutor executor = this.getExecutor(consumers.getPriority());
+        if(executor.isShutdown()) return false;
+
+        // Shed it if the lane is full
+        if(this.waiting.incrementAndGet(lane) > CAPACITY){
+            this.waiting.decrementAndGet(lane);
+            this.dropped.increment();
+            return false;
+        }
+
+        // Queue it, the channel takes a turn if it's not waiting for one already
+        this.in_flight.increment();
+        if(consumers.post(message) && !this.schedule(consumers)){
+
+            // Shut down in between, nobody will deliver what's waiting
+            do{
+                consumers.poll();
+                this.waiting.decrementAndGet(lane);
+                this.in_flight.decrement();
+            }while(consumers.finish());
+        }
+        return true;
+    }
+
+    /**
+     * Queues a turn of the channel
+     *
+     * @param consumers consumers of the channel or pattern
+     * @return true if it's queued, false if lanes are shut down
+     */
+    private boolean schedule(@Nonnull ChannelConsumers consumers){
+        try{
+            Priority priority = consumers.getPriority();
+            this.getExecutor(priority).execute(new Turn(consumers, priority, this.turns.getAndIncrement()));
+            return true;
+        }catch(RejectedExecutionException e){
+            return false;
+        }
+    }
+
+    /**
+     * Returns executor of priority class
+     *
+     * @param priority priority class
+     * @return executor
+     */
+    @Nonnull
+    private ThreadPoolExecutor getExecutor(@Nonnull Priority priority){
+        return priority == Priority.HIGH ? this.high : this.shared;
+    }
+
+    /**
+     * Sets number of threads of normal and low priority channels
+     *
+     * @param threads number of threads
+     */
+    synchronized void setThreads(@Nonnegative int threads){
+
+        // Maximum may never be below core size
+        if(threads > this.shared.getMaximumPoolSize()){
+            this.shared.setMaximumPoolSize(threads);
+            this.shared.setCorePoolSize(threads);
+        }else{
+            this.shared.setCorePoolSize(threads);
+            this.shared.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Returns number of messages dropped because their lane was full
+     *
+     * @return number of dropped messages
+     */
+    @Nonnegative
+    long getDropped(){
+        return this.dropped.sum();
+    }
+
+    /**
+     * Stops taking messages, messages that are already waiting are still delivered
+     *
+     * @return executors of the lanes
+     */
+    @Nonnull
+    List<ExecutorService> shutdown(){
+        this.high.shutdown();
+        this.shared.shutdown();
+        return Arrays.asList(this.high, this.shared);
+    }
+
+    /** Stops taking messages and abandons messages that are waiting, running consumers are interrupted */
+    void abandon(){
+        this.abandoned = true;
+        this.high.shutdownNow();
+        this.shared.shutdownNow();
+    }
+
+    /** Receiver of messages that come out of the lanes */
+    @FunctionalInterface
+    interface Delivery{
+
+        /**
+         * Called on a lane thread for each message, one message of a channel at a time
+         *
+         * @param consumers consumers of the channel or pattern
+         * @param message   message
+         */
+        void deliver(@Nonnull ChannelConsumers consumers, @Nonnull Message message);
+    }
+
+    /** Turn of a channel, delivers its waiting messages up to the turn size */
+    private final class Turn implements Runnable, Comparable<Turn>{
+
+        /** Consumers of the channel or pattern */
+        @Nonnull
+        private final ChannelConsumers consumers;
+
+        /** Priority class of the channel */
+        @Nonnull
+        private final Priority priority;
+
+        /** Order of the turn */
+        private final long sequence;
+
+        /**
+         * Creates turn
+         *
+         * @param consumers consumers of the channel or pattern
+         * @param priority  priority class of the channel
+         * @param sequence  order of the turn
+         */
+        private Turn(@Nonnull ChannelConsumers consumers, @Nonnull Priority priority, long sequence){
+            this.consumers = consumers;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run(){
+            int lane = this.priority.ordinal();
+            for(int delivered = 1; !abandoned; delivered++){
+
+                // Deliver the oldest message
+                Message message = this.consumers.poll();
+                try{
+                    delivery.deliver(this.consumers, message);
+                }catch(RuntimeException e){
+                    e.printStackTrace();
+                }finally{
+                    waiting.decrementAndGet(lane);
+                    in_flight.decrement();
+                }
+
+                // Done once it's empty, let other channels go once the turn is used up or a more urgent channel is
+                // waiting. Lanes that are shutting down take no new turns, so the rest is delivered in this one
+                if(!this.consumers.finish()) return;
+                if((delivered >= TURN_SIZE || this.isOvertaken()) && schedule(this.consumers)) return;
+            }
+        }
+
+        /**
+         * Checks if a turn of a more urgent class is waiting for a thread of the pool
+         *
+         * @return true if this turn should step aside
+         */
+        private boolean isOvertaken(){
+            if(this.priority != Priority.LOW) return false;
+            Runnable next = shared.getQueue().peek();
+            return next instanceof Turn && ((Turn) next).priority.compareTo(this.priority) < 0;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Turn other){
+            int order = this.priority.compareTo(other.priority);
+            return order != 0 ? order : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
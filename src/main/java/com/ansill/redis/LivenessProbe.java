@@ -0,0 +1,166 @@
+package com.ansill.redis;
+
+import com.ansill.validation.Validation;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/**
+ * Probe that sends PING over the subscriber connection to find connections that stopped responding without being
+ * closed, such as half-open TCP connections. A connection that doesn't reply within the timeout is dropped, managers
+ * that follow a master through Redis Sentinel reconnect while other managers close. Round trip times of the replies
+ * are kept as statistics
+ */
+public final class LivenessProbe{
+
+    /** Time between pings in nanoseconds */
+    @Nonnegative
+    private final long interval_nanos;
+
+    /** Time to wait for a reply in nanoseconds */
+    @Nonnegative
+    private final long timeout_nanos;
+
+    /** Number of replies, guarded by this */
+    @Nonnegative
+    private long pongs = 0;
+
+    /** Number of stalled connections, guarded by this */
+    @Nonnegative
+    private long stalls = 0;
+
+    /** Round trip time of the latest reply in nanoseconds, guarded by this */
+    @Nonnegative
+    private long last_nanos = 0;
+
+    /** Shortest round trip time in nanoseconds, guarded by this */
+    @Nonnegative
+    private long min_nanos = 0;
+
+    /** Longest round trip time in nanoseconds, guarded by this */
+    @Nonnegative
+    private long max_nanos = 0;
+
+    /** Sum of round trip times in nanoseconds, guarded by this */
+    @Nonnegative
+    private long total_nanos = 0;
+
+    /**
+     * Creates liveness probe
+     *
+     * @param interval time between pings
+     * @param timeout  time to wait for a reply before the connection is considered stalled
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public LivenessProbe(@Nonnull Duration interval, @Nonnull Duration timeout) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(interval, "interval");
+        Validation.assertNonnull(timeout, "timeout");
+        if(interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("interval must be positive");
+        if(timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("timeout must be positive");
+
+        // Assign it
+        this.interval_nanos = interval.toNanos();
+        this.timeout_nanos = timeout.toNanos();
+    }
+
+    /**
+     * Returns time between pings in nanoseconds
+     *
+     * @return interval in nanoseconds
+     */
+    @Nonnegative
+    long getIntervalNanos(){
+        return this.interval_nanos;
+    }
+
+    /**
+     * Returns time to wait for a reply in nanoseconds
+     *
+     * @return timeout in nanoseconds
+     */
+    @Nonnegative
+    long getTimeoutNanos(){
+        return this.timeout_nanos;
+    }
+
+    /**
+     * Records a reply
+     *
+     * @param round_trip_nanos round trip time in nanoseconds
+     */
+    synchronized void recordPong(@Nonnegative long round_trip_nanos){
+        if(this.pongs == 0 || round_trip_nanos < this.min_nanos) this.min_nanos = round_trip_nanos;
+        if(round_trip_nanos > this.max_nanos) this.max_nanos = round_trip_nanos;
+        this.last_nanos = round_trip_nanos;
+        this.total_nanos += round_trip_nanos;
+        this.pongs++;
+    }
+
+    /** Records a stalled connection */
+    synchronized void recordStall(){
+        this.stalls++;
+    }
+
+    /**
+     * Returns number of replies
+     *
+     * @return number of replies
+     */
+    @Nonnegative
+    public synchronized long getPongCount(){
+        return this.pongs;
+    }
+
+    /**
+     * Returns number of connections that were dropped because they didn't reply in time
+     *
+     * @return number of stalls
+     */
+    @Nonnegative
+    public synchronized long getStallCount(){
+        return this.stalls;
+    }
+
+    /**
+     * Returns round trip time of the latest reply
+     *
+     * @return round trip time in nanoseconds, zero if there was no reply yet
+     */
+    @Nonnegative
+    public synchronized long getLastRoundTripNanos(){
+        return this.last_nanos;
+    }
+
+    /**
+     * Returns shortest round trip time
+     *
+     * @return round trip time in nanoseconds, zero if there was no reply yet
+     */
+    @Nonnegative
+    public synchronized long getMinRoundTripNanos(){
+        return this.min_nanos;
+    }
+
+    /**
+     * Returns longest round trip time
+     *
+     * @return round trip time in nanoseconds, zero if there was no reply yet
+     */
+    @Nonnegative
+    public synchronized long getMaxRoundTripNanos(){
+        return this.max_nanos;
+    }
+
+    /**
+     * Returns mean round trip time
+     *
+     * @return round trip time in nanoseconds, zero if there was no reply yet
+     */
+    @Nonnegative
+    public synchronized long getMeanRoundTripNanos(){
+        return this.pongs == 0 ? 0 : this.total_nanos / this.pongs;
+    }
+}
@@ -0,0 +1,172 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message received on a channel. The payload may be a view over a buffer that is reused once dispatch returns, so the
+ * message has to be copied before it is handed to another thread. Text is decoded at most once per message, and the
+ * layers that look at the payload on the way to consumers share a single view of it rather than allocating their own
+ */
+final class Message{
+
+    /** Channel name */
+    @Nonnull
+    private final String channel;
+
+    /** Payload */
+    @Nonnull
+    private final ByteBuffer payload;
+
+    /** Flag whether the payload belongs to the message alone, so it can outlive the dispatch without a copy */
+    private final boolean owned;
+
+    /** Decoded text, null until it's decoded. Racing threads decode the same text so it's not synchronized */
+    @Nullable
+    private String text;
+
+    /**
+     * Creates message whose payload may be reused once dispatch returns
+     *
+     * @param channel channel name
+     * @param payload payload, its position and limit must not be changed while the message is in use
+     */
+    Message(@Nonnull String channel, @Nonnull ByteBuffer payload){
+        this(channel, payload, false, null);
+    }
+
+    /**
+     * Creates message
+     *
+     * @param channel channel name
+     * @param payload payload, its position and limit must not be changed while the message is in use
+     * @param owned   true if nothing else writes to the payload, so it can outlive the dispatch
+     */
+    Message(@Nonnull String channel, @Nonnull ByteBuffer payload, boolean owned){
+        this(channel, payload, owned, null);
+    }
+
+    /**
+     * Creates message
+     *
+     * @param channel channel name
+     * @param payload payload
+     * @param owned   true if nothing else writes to the payload
+     * @param text    decoded text, null if not decoded yet
+     */
+    private Message(@Nonnull String channel, @Nonnull ByteBuffer payload, boolean owned, @Nullable String text){
+        this.channel = channel;
+        this.payload = payload;
+        this.owned = owned;
+        this.text = text;
+    }
+
+    /**
+     * Returns channel name
+     *
+     * @return channel name
+     */
+    @Nonnull
+    String getChannel(){
+        return this.channel;
+    }
+
+    /**
+     * Returns size of payload
+     *
+     * @return size in bytes
+     */
+    @Nonnegative
+    int getSize(){
+        return this.payload.remaining();
+    }
+
+    /**
+     * Returns read-only slice of payload that belongs to the caller
+     *
+     * @return payload
+     */
+    @Nonnull
+    ByteBuffer getPayload(){
+        return this.payload.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns payload without copying the buffer. It's shared by every caller, so only absolute reads may be used on
+     * it and its position and limit must not be changed
+     *
+     * @return payload
+     */
+    @Nonnull
+    ByteBuffer view(){
+        return this.payload;
+    }
+
+    /**
+     * Returns message whose payload starts further in, for removing headers
+     *
+     * @param length number of bytes to skip
+     * @return message without the skipped bytes
+     */
+    @Nonnull
+    Message skip(@Nonnegative int length){
+        ByteBuffer payload = this.payload.duplicate();
+        payload.position(payload.position() + length);
+        return new Message(this.channel, payload, this.owned, null);
+    }
+
+    /**
+     * Returns message whose payload is a range of this one, owned if this one is
+     *
+     * @param offset offset of range in the payload buffer
+     * @param length length of range
+     * @return message with the range as payload
+     */
+    @Nonnull
+    Message slice(@Nonnegative int offset, @Nonnegative int length){
+        ByteBuffer payload = this.payload.duplicate();
+        payload.limit(offset + length).position(offset);
+        return new Message(this.channel, payload, this.owned, null);
+    }
+
+    /**
+     * Returns payload decoded as UTF-8
+     *
+     * @return text
+     */
+    @Nonnull
+    String getText(){
+        String text = this.text;
+        if(text != null) return text;
+
+        // Decode it
+        ByteBuffer payload = this.payload;
+        if(payload.hasArray()){
+            text = new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(),
+                    StandardCharsets.UTF_8
+            );
+        }else{
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        this.text = text;
+        return text;
+    }
+
+    /**
+     * Copies message so it can outlive the dispatch, messages that already own their payload are not copied
+     *
+     * @return message that owns its payload
+     */
+    @Nonnull
+    Message copy(){
+        if(this.owned) return this;
+        byte[] bytes = new byte[this.payload.remaining()];
+        this.payload.duplicate().get(bytes);
+        return new Message(this.channel, ByteBuffer.wrap(bytes), true, this.text);
+    }
+}
@@ -0,0 +1,379 @@
+package com.ansill.redis;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscriber connection that speaks the pub/sub subset of RESP over a non-blocking socket channel served by an event
+ * loop, so many connections can share a few threads. The listener is called on the loop thread, so it must never block
+ * or every other connection of the loop stalls with it
+ */
+final class NioSubscriberConnection implements SubscriberConnection, EventLoop.Handler, PubSubFrameDecoder.Handler{
+
+    /** Token of the PING that follows the final unsubscribes on close, its reply is the last one the server sends */
+    private static final String CLOSE_TOKEN = "NioSubscriberConnection-close";
+
+    /** Socket channel */
+    @Nonnull
+    private final SocketChannel channel;
+
+    /** Event loop that serves this connection */
+    @Nonnull
+    private final EventLoop loop;
+
+    /** Listener */
+    @Nonnull
+    private final Listener listener;
+
+    /** Commands waiting to be written, guarded by itself */
+    @Nonnull
+    private final Queue<ByteBuffer> write_queue = new ArrayDeque<>();
+
+    /** Closing flag, set once the final unsubscribes are sent */
+    @Nonnull
+    private final AtomicBoolean closing = new AtomicBoolean(false);
+
+    /** Closed flag */
+    @Nonnull
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /** Selection key, set on the loop thread */
+    @Nullable
+    private volatile SelectionKey key = null;
+
+    /** Frame decoder, only decodes on the loop thread */
+    @Nonnull
+    private final PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+
+    /**
+     * Connects to the server and subscribes to the initial channel
+     *
+     * @param hostname hostname of the server
+     * @param port     port of the server
+     * @param channel  channel to subscribe initially
+     * @param group    event loop group
+     * @param listener listener of events on the connection
+     * @throws JedisConnectionException thrown if connection cannot be established
+     */
+    NioSubscriberConnection(
+            @Nonnull String hostname,
+            @Nonnegative int port,
+            @Nonnull String channel,
+            @Nonnull EventLoopGroup group,
+            @Nonnull Listener listener
+    ) throws JedisConnectionException{
+        this.loop = group.next();
+        this.listener = listener;
+
+        // Connect it
+        SocketChannel socket_channel = null;
+        try{
+            socket_channel = SocketChannel.open();
+            socket_channel.socket().connect(new InetSocketAddress(hostname, port), Protocol.DEFAULT_TIMEOUT);
+            socket_channel.socket().setTcpNoDelay(true);
+            socket_channel.socket().setKeepAlive(true);
+            socket_channel.configureBlocking(false);
+        }catch(IOException | UnresolvedAddressException e){
+            closeQuietly(socket_channel);
+            throw new JedisConnectionException(e);
+        }
+        this.channel = socket_channel;
+
+        // Register it
+        this.loop.register(this.channel, SelectionKey.OP_READ, this);
+
+        // Subscribe to initial channel
+        this.subscribe(channel);
+    }
+
+    @Override
+    public void subscribe(@Nonnull String... channels){
+        for(String channel : channels) this.decoder.register(channel);
+        this.write(command("SUBSCRIBE", channels));
+    }
+
+    @Override
+    public void unsubscribe(@Nonnull String... channels){
+        this.write(command("UNSUBSCRIBE", channels));
+        for(String channel : channels) this.decoder.unregister(channel);
+    }
+
+    @Override
+    public void psubscribe(@Nonnull String... patterns){
+        for(String pattern : patterns) this.decoder.registerPattern(pattern);
+        this.write(command("PSUBSCRIBE", patterns));
+    }
+
+    @Override
+    public void punsubscribe(@Nonnull String... patterns){
+        this.write(command("PUNSUBSCRIBE", patterns));
+        for(String pattern : patterns) this.decoder.unregisterPattern(pattern);
+    }
+
+    @Override
+    public void ping(@Nonnull String token){
+        this.write(command("PING", token));
+    }
+
+    @Override
+    public void close(){
+
+        // Unsubscribe everything like Jedis does and drop the connection once the server has answered. Replies come in
+        // order, so the reply to the PING means every unsubscribe has been acknowledged
+        if(this.closing.getAndSet(true)) return;
+        try{
+            this.write(command("PUNSUBSCRIBE"));
+            this.write(command("UNSUBSCRIBE"));
+            this.write(command("PING", CLOSE_TOKEN));
+        }catch(JedisConnectionException e){
+            this.abort();
+        }
+    }
+
+    @Override
+    public void abort(){
+
+        // Aborting never waits for the server
+        this.loop.execute(this::terminate);
+    }
+
+    @Override
+    public void onReady(@Nonnull SelectionKey key){
+        if(key.isWritable()){
+            synchronized(this.write_queue){
+                this.flush();
+            }
+        }
+        if(key.isValid() && key.isReadable()) this.read();
+    }
+
+    @Override
+    public void onRegistered(@Nonnull SelectionKey key){
+
+        // Flush anything that was queued in the meantime
+        synchronized(this.write_queue){
+            this.key = key;
+            this.flush();
+        }
+    }
+
+    @Override
+    public void onClosed(){
+        this.terminate();
+    }
+
+    /**
+     * Writes command, or queues it if socket is not ready to take it. Like Jedis, the command has been handed to the
+     * socket by the time this method returns unless the socket's send buffer is full
+     *
+     * @param command encoded command
+     */
+    private void write(@Nonnull ByteBuffer command){
+        if(this.closed.get()) throw new JedisConnectionException("Connection is closed");
+        synchronized(this.write_queue){
+            this.write_queue.add(command);
+            if(this.flush()) return;
+        }
+        this.loop.execute(() -> {
+            synchronized(this.write_queue){
+                this.flush();
+            }
+        });
+    }
+
+    /**
+     * Writes queued commands, must be run while holding the write queue's lock
+     *
+     * @return true if everything is written, false if socket needs to be waited on
+     */
+    private boolean flush(){
+
+        // Not registered yet or already closed
+        SelectionKey key = this.key;
+        if(key == null || !key.isValid()) return false;
+
+        try{
+
+            // Write as much as socket will take
+            ByteBuffer buffer;
+            while((buffer = this.write_queue.peek()) != null){
+                this.channel.write(buffer);
+
+                // Wait for socket to become writable again
+                if(buffer.hasRemaining()){
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return false;
+                }
+                this.write_queue.poll();
+            }
+
+            // Everything is written
+            if(key.interestOps() != SelectionKey.OP_READ) key.interestOps(SelectionKey.OP_READ);
+            return true;
+
+        }catch(IOException | CancelledKeyException e){
+
+            // Broken, or closed by the loop thread in the meantime
+            this.abort();
+            return false;
+        }
+    }
+
+    @Override
+    public void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload){
+        try{
+            this.listener.onMessage(channel, payload);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload){
+        try{
+            this.listener.onPMessage(pattern, channel, payload);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onSubscribe(@Nonnull String channel){
+        try{
+            this.listener.onSubscribe(channel);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onPSubscribe(@Nonnull String pattern){
+        try{
+            this.listener.onPSubscribe(pattern);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onUnsubscribe(@Nonnull String channel){
+        try{
+            this.listener.onUnsubscribe(channel);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onPUnsubscribe(@Nonnull String pattern){
+        try{
+            this.listener.onPUnsubscribe(pattern);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onPong(@Nonnull String token){
+
+        // Server is done with the connection once the PING that followed the final unsubscribes is answered
+        if(this.closing.get() && token.equals(CLOSE_TOKEN)){
+            this.terminate();
+            return;
+        }
+        try{
+            this.listener.onPong(token);
+        }catch(RuntimeException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onError(@Nonnull String error){
+        System.err.println("Redis error on subscriber connection: " + error);
+    }
+
+    /** Reads and decodes frames, must be run on the loop thread */
+    private void read(){
+
+        // Read it
+        try{
+            if(this.channel.read(this.decoder.buffer()) < 0){
+                this.terminate();
+                return;
+            }
+        }catch(IOException e){
+            this.terminate();
+            return;
+        }
+
+        // Decode complete frames, drop the connection if stream is broken
+        try{
+            this.decoder.decode(this);
+        }catch(IllegalStateException e){
+            e.printStackTrace();
+            this.terminate();
+        }
+    }
+
+    /** Closes the connection, must be run on the loop thread */
+    private void terminate(){
+        if(!this.closed.compareAndSet(false, true)) return;
+        if(this.key != null) this.key.cancel();
+        closeQuietly(this.channel);
+        this.listener.onClosed();
+    }
+
+    /**
+     * Encodes command in RESP
+     *
+     * @param name      command name
+     * @param arguments arguments
+     * @return encoded command
+     */
+    @Nonnull
+    private static ByteBuffer command(@Nonnull String name, @Nonnull String... arguments){
+        byte[][] parts = new byte[arguments.length + 1][];
+        parts[0] = name.getBytes(StandardCharsets.US_ASCII);
+        for(int i = 0; i < arguments.length; i++) parts[i + 1] = arguments[i].getBytes(StandardCharsets.UTF_8);
+        int size = 16;
+        for(byte[] part : parts) size += part.length + 16;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(("*" + parts.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for(byte[] part : parts){
+            buffer.put(("$" + part.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            buffer.put(part);
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Closes socket channel without throwing
+     *
+     * @param channel socket channel
+     */
+    private static void closeQuietly(@Nullable SocketChannel channel){
+        if(channel == null) return;
+        try{
+            channel.close();
+        }catch(IOException ignored){
+        }
+    }
+}
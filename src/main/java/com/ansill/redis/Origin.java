@@ -0,0 +1,66 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/**
+ * Origin tag of messages published through {@link JedisPubSubManager#publish(String, byte[])}. The tag is a marker
+ * header followed by the id of the publishing manager as an 8-byte big-endian integer, so a manager can recognize the
+ * echo of its own messages that its consumers already received locally
+ */
+final class Origin{
+
+    /** Marker header, starts with a NUL byte so it's unlikely to show up at the start of text messages */
+    @Nonnull
+    private static final byte[] MAGIC = {0, 'J', 'P', 'S', 'M', 'O', 1};
+
+    /** Size of the header */
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+
+    /** Id of messages without origin tag, never used by a manager */
+    static final long NONE = 0;
+
+    /** Prevents instantiation */
+    private Origin(){
+    }
+
+    /**
+     * Tags payload with origin
+     *
+     * @param origin  id of the publishing manager
+     * @param payload payload
+     * @return tagged payload
+     */
+    @Nonnull
+    static byte[] tag(long origin, @Nonnull byte[] payload){
+        byte[] tagged = new byte[HEADER_SIZE + payload.length];
+        System.arraycopy(MAGIC, 0, tagged, 0, MAGIC.length);
+        for(int i = 0; i < 8; i++) tagged[MAGIC.length + i] = (byte) (origin >>> (56 - 8 * i));
+        System.arraycopy(payload, 0, tagged, HEADER_SIZE, payload.length);
+        return tagged;
+    }
+
+    /**
+     * Reads origin of payload
+     *
+     * @param payload payload
+     * @return id of the publishing manager, or {@link #NONE} if payload is not tagged
+     */
+    static long read(@Nonnull ByteBuffer payload){
+        int start = payload.position();
+        if(payload.remaining() < HEADER_SIZE) return NONE;
+        for(int i = 0; i < MAGIC.length; i++) if(payload.get(start + i) != MAGIC[i]) return NONE;
+        return payload.getLong(start + MAGIC.length);
+    }
+
+    /**
+     * Removes origin tag from message
+     *
+     * @param message message whose payload is tagged
+     * @return message without the tag
+     */
+    @Nonnull
+    static Message strip(@Nonnull Message message){
+        return message.skip(HEADER_SIZE);
+    }
+}
@@ -0,0 +1,190 @@
+package com.ansill.redis;
+
+import com.ansill.validation.Validation;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compressor of payloads to publish. Payloads at or above the size threshold are deflated and prefixed by a marker
+ * header that {@link JedisPubSubManager} recognizes and inflates before dispatch, smaller payloads are published as
+ * they are. Compressed payloads are only readable by managers, so only compress channels whose subscribers all use it
+ */
+public final class PayloadCompressor{
+
+    /** Marker header, starts with a NUL byte so it's unlikely to show up at the start of text messages */
+    @Nonnull
+    static final byte[] MAGIC = {0, 'J', 'P', 'S', 'M', 'Z', 1};
+
+    /** Size of the header, marker followed by the uncompressed size as a 4-byte big-endian integer */
+    static final int HEADER_SIZE = MAGIC.length + 4;
+
+    /** Payloads smaller than this are not compressed */
+    @Nonnegative
+    private final int threshold;
+
+    /** Deflater, guarded by this */
+    @Nonnull
+    private final Deflater deflater;
+
+    /** Reusable output buffer, guarded by this */
+    @Nonnull
+    private byte[] buffer = new byte[0];
+
+    /** Total size of compressed payloads before compression, guarded by this */
+    @Nonnegative
+    private long uncompressed_bytes = 0;
+
+    /** Total size of compressed payloads after compression, guarded by this */
+    @Nonnegative
+    private long compressed_bytes = 0;
+
+    /** Total time spent compressing in nanoseconds, including payloads that didn't pay off, guarded by this */
+    @Nonnegative
+    private long compression_nanos = 0;
+
+    /**
+     * Creates compressor with the default compression level
+     *
+     * @param threshold payloads smaller than this number of bytes are not compressed
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public PayloadCompressor(@Nonnegative int threshold) throws IllegalArgumentException{
+        this(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates compressor
+     *
+     * @param threshold payloads smaller than this number of bytes are not compressed
+     * @param level     compression level from 1 (fastest) to 9 (smallest), or -1 for the default
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public PayloadCompressor(@Nonnegative int threshold, int level) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNaturalNumber(threshold, "threshold");
+        if(level != Deflater.DEFAULT_COMPRESSION && (level < 1 || level > 9)){
+            throw new IllegalArgumentException("level must be between 1 and 9, or -1");
+        }
+
+        // Assign it
+        this.threshold = threshold;
+        this.deflater = new Deflater(level);
+    }
+
+    /**
+     * Compresses payload if it's large enough and compression makes it smaller
+     *
+     * @param payload payload
+     * @return compressed payload, or the payload itself if it was not compressed
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    @Nonnull
+    public byte[] compress(@Nonnull byte[] payload) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(payload, "payload");
+
+        // Payloads that already start with the marker are always compressed so they can't be mistaken for one
+        boolean marked = startsWithMagic(payload);
+        if(payload.length < this.threshold && !marked) return payload;
+
+        synchronized(this){
+
+            // Start recording
+            Object event = Events.beginCompression();
+            long start = System.nanoTime();
+
+            // Size output for incompressible input, it's grown if deflate needs more anyway
+            if(this.buffer.length < HEADER_SIZE + payload.length + 64){
+                this.buffer = new byte[HEADER_SIZE + payload.length + 64];
+            }
+            byte[] buffer = this.buffer;
+
+            // Deflate it after the header
+            Deflater deflater = this.deflater;
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            int size = HEADER_SIZE;
+            while(!deflater.finished()){
+                if(size == buffer.length) this.buffer = buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            this.compression_nanos += System.nanoTime() - start;
+
+            // Publish it as it is if compression didn't pay off
+            if(size >= payload.length && !marked){
+                Events.endCompression(event, null, "skip", payload.length, payload.length);
+                return payload;
+            }
+
+            // Write header
+            System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+            buffer[MAGIC.length] = (byte) (payload.length >>> 24);
+            buffer[MAGIC.length + 1] = (byte) (payload.length >>> 16);
+            buffer[MAGIC.length + 2] = (byte) (payload.length >>> 8);
+            buffer[MAGIC.length + 3] = (byte) payload.length;
+
+            // Record it
+            this.uncompressed_bytes += payload.length;
+            this.compressed_bytes += size;
+            Events.endCompression(event, null, "compress", payload.length, size);
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /**
+     * Returns total size of compressed payloads before compression
+     *
+     * @return size in bytes
+     */
+    @Nonnegative
+    public synchronized long getUncompressedBytes(){
+        return this.uncompressed_bytes;
+    }
+
+    /**
+     * Returns total size of compressed payloads after compression
+     *
+     * @return size in bytes
+     */
+    @Nonnegative
+    public synchronized long getCompressedBytes(){
+        return this.compressed_bytes;
+    }
+
+    /**
+     * Returns total time spent compressing
+     *
+     * @return time in nanoseconds
+     */
+    @Nonnegative
+    public synchronized long getCompressionNanos(){
+        return this.compression_nanos;
+    }
+
+    /**
+     * Returns ratio of compressed size to uncompressed size of compressed payloads
+     *
+     * @return ratio, 1 if nothing was compressed yet
+     */
+    public synchronized double getRatio(){
+        return this.uncompressed_bytes == 0 ? 1 : (double) this.compressed_bytes / this.uncompressed_bytes;
+    }
+
+    /**
+     * Checks if payload starts with the marker
+     *
+     * @param payload payload
+     * @return true if it does
+     */
+    private static boolean startsWithMagic(@Nonnull byte[] payload){
+        if(payload.length < MAGIC.length) return false;
+        for(int i = 0; i < MAGIC.length; i++) if(payload[i] != MAGIC[i]) return false;
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package com.ansill.redis;
+
+/**
+ * Priority class of a channel. Channels of each class are dispatched on their own lane, so consumers of a busy channel
+ * only hold up channels of the same class or below. Messages that find their lane full are dropped
+ */
+public enum Priority{
+
+    /** Latency-critical channels such as control channels, dispatched on a thread of their own */
+    HIGH,
+
+    /** Default for channels, dispatched on a shared pool of threads ahead of low priority channels */
+    NORMAL,
+
+    /** Bulk channels, dispatched on the shared pool once no normal priority channel is waiting */
+    LOW
+}
@@ -0,0 +1,474 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decoder of RESP push frames on a subscriber connection. Frames are parsed in place in a reusable direct buffer,
+ * channel names are resolved against the subscribed set through a probe key and payloads are handed out as a
+ * read-only view over the buffer, so a message on a subscribed channel is decoded without allocating. Once the header
+ * of an incomplete frame tells its size, the frame is left alone until it's complete, so a large frame that arrives
+ * over many reads is neither parsed nor moved again on every read
+ */
+final class PubSubFrameDecoder{
+
+    /** Initial size of read buffer */
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /** Largest bulk string accepted, same as the largest one Redis accepts */
+    private static final long MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    /** Marker for incomplete number */
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+
+    /** Kind of message frame */
+    private static final byte[] MESSAGE = "message".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of pattern message frame */
+    private static final byte[] PMESSAGE = "pmessage".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of subscribe acknowledgment frame */
+    private static final byte[] SUBSCRIBE = "subscribe".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of pattern subscribe acknowledgment frame */
+    private static final byte[] PSUBSCRIBE = "psubscribe".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of unsubscribe acknowledgment frame */
+    private static final byte[] UNSUBSCRIBE = "unsubscribe".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of pattern unsubscribe acknowledgment frame */
+    private static final byte[] PUNSUBSCRIBE = "punsubscribe".getBytes(StandardCharsets.US_ASCII);
+
+    /** Kind of PING reply frame */
+    private static final byte[] PONG = "pong".getBytes(StandardCharsets.US_ASCII);
+
+    /** Subscribed channels by their name bytes */
+    @Nonnull
+    private final Map<ChannelKey,String> channels = new ConcurrentHashMap<>();
+
+    /** Subscribed patterns by their bytes */
+    @Nonnull
+    private final Map<ChannelKey,String> patterns = new ConcurrentHashMap<>();
+
+    /** Probe key, only accessed on the decoding thread */
+    @Nonnull
+    private final ChannelKey probe = ChannelKey.probe();
+
+    /** Read buffer, in write mode between decode calls */
+    @Nonnull
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+
+    /** Read-only view over the read buffer that payloads are handed out through */
+    @Nonnull
+    private ByteBuffer view = this.buffer.asReadOnlyBuffer();
+
+    /** Number of bytes that the frame at the start of the read buffer needs before it's decoded again */
+    @Nonnegative
+    private int needed = 0;
+
+    /** End of the incomplete bulk string of the frame being decoded, zero if it's not known */
+    @Nonnegative
+    private int frame_end = 0;
+
+    /**
+     * Adds channel to the subscribed set
+     *
+     * @param channel channel name
+     */
+    void register(@Nonnull String channel){
+        this.channels.putIfAbsent(ChannelKey.of(channel), channel);
+    }
+
+    /**
+     * Removes channel from the subscribed set
+     *
+     * @param channel channel name
+     */
+    void unregister(@Nonnull String channel){
+        this.channels.remove(ChannelKey.of(channel));
+    }
+
+    /**
+     * Adds pattern to the subscribed set
+     *
+     * @param pattern pattern
+     */
+    void registerPattern(@Nonnull String pattern){
+        this.patterns.putIfAbsent(ChannelKey.of(pattern), pattern);
+    }
+
+    /**
+     * Removes pattern from the subscribed set
+     *
+     * @param pattern pattern
+     */
+    void unregisterPattern(@Nonnull String pattern){
+        this.patterns.remove(ChannelKey.of(pattern));
+    }
+
+    /**
+     * Returns buffer to read socket into
+     *
+     * @return read buffer in write mode
+     */
+    @Nonnull
+    ByteBuffer buffer(){
+        return this.buffer;
+    }
+
+    /**
+     * Decodes every complete frame in the read buffer and leaves the remainder for the next call
+     *
+     * @param handler handler of decoded frames
+     * @throws IllegalStateException thrown if stream is not valid RESP
+     */
+    void decode(@Nonnull Handler handler){
+
+        // Decode complete frames, unless the frame that's waiting is still incomplete
+        ByteBuffer buffer = this.buffer;
+        if(buffer.position() >= this.needed){
+            buffer.flip();
+            this.needed = 0;
+            try{
+                while(buffer.hasRemaining()){
+                    int start = buffer.position();
+                    this.frame_end = 0;
+                    if(!this.decodeFrame(handler)){
+                        if(this.frame_end != 0) this.needed = this.frame_end - start;
+                        buffer.position(start);
+                        break;
+                    }
+                }
+            }finally{
+
+                // Move the remainder to the front, unless it's already there
+                if(buffer.position() != 0) buffer.compact();
+                else buffer.position(buffer.limit()).limit(buffer.capacity());
+            }
+        }
+
+        // Grow if the frame doesn't fit, straight to its size if it's known
+        if(!buffer.hasRemaining() || this.needed > buffer.capacity()){
+            int capacity = buffer.capacity() * 2;
+            while(capacity < this.needed) capacity *= 2;
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            this.buffer = grown;
+            this.view = grown.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Decodes a single frame
+     *
+     * @param handler handler of decoded frames
+     * @return true if frame was complete, false if more bytes are needed
+     */
+    private boolean decodeFrame(@Nonnull Handler handler){
+        ByteBuffer buffer = this.buffer;
+        byte type = buffer.get();
+        switch(type){
+        case '*':
+
+            // Read kind
+            long count = this.readNumber();
+            if(count == INCOMPLETE) return false;
+            if(count <= 0) return true;
+            int kind_length = this.readBulk();
+            if(kind_length < 0) return false;
+            int kind_offset = buffer.position() - kind_length - 2;
+
+            // Message
+            if(count == 3 && equals(buffer, kind_offset, kind_length, MESSAGE)){
+                int channel_length = this.readBulk();
+                if(channel_length < 0) return false;
+                int channel_offset = buffer.position() - channel_length - 2;
+                int payload_length = this.readBulk();
+                if(payload_length < 0) return false;
+                int payload_offset = buffer.position() - payload_length - 2;
+
+                // Pass it on
+                String channel = this.resolve(this.channels, channel_offset, channel_length);
+                handler.onMessage(channel, this.slice(payload_offset, payload_length));
+                return true;
+            }
+
+            // Pattern message, channel name is only known by the server so it's resolved against subscribed channels
+            // in case it's subscribed to directly as well
+            if(count == 4 && equals(buffer, kind_offset, kind_length, PMESSAGE)){
+                int pattern_length = this.readBulk();
+                if(pattern_length < 0) return false;
+                int pattern_offset = buffer.position() - pattern_length - 2;
+                int channel_length = this.readBulk();
+                if(channel_length < 0) return false;
+                int channel_offset = buffer.position() - channel_length - 2;
+                int payload_length = this.readBulk();
+                if(payload_length < 0) return false;
+                int payload_offset = buffer.position() - payload_length - 2;
+
+                // Pass it on
+                String pattern = this.resolve(this.patterns, pattern_offset, pattern_length);
+                String channel = this.resolve(this.channels, channel_offset, channel_length);
+                handler.onPMessage(pattern, channel, this.slice(payload_offset, payload_length));
+                return true;
+            }
+
+            // Subscribe acknowledgment
+            boolean subscribe = equals(buffer, kind_offset, kind_length, SUBSCRIBE);
+            if(count == 3 && (subscribe || equals(buffer, kind_offset, kind_length, PSUBSCRIBE))){
+                int name_length = this.readBulk();
+                if(name_length < 0) return false;
+                int name_offset = buffer.position() - name_length - 2;
+                if(!this.skipElement()) return false;
+
+                // Pass it on
+                if(subscribe) handler.onSubscribe(this.resolve(this.channels, name_offset, name_length));
+                else handler.onPSubscribe(this.resolve(this.patterns, name_offset, name_length));
+                return true;
+            }
+
+            // Unsubscribe acknowledgment, name is usually gone from the subscribed set by now
+            boolean unsubscribe = equals(buffer, kind_offset, kind_length, UNSUBSCRIBE);
+            if(count == 3 && (unsubscribe || equals(buffer, kind_offset, kind_length, PUNSUBSCRIBE))){
+                int name_length = this.readBulk();
+                if(name_length < 0) return false;
+                int name_offset = buffer.position() - name_length - 2;
+                if(!this.skipElement()) return false;
+
+                // Pass it on
+                if(unsubscribe) handler.onUnsubscribe(this.resolve(this.channels, name_offset, name_length));
+                else handler.onPUnsubscribe(this.resolve(this.patterns, name_offset, name_length));
+                return true;
+            }
+
+            // PING reply
+            if(count == 2 && equals(buffer, kind_offset, kind_length, PONG)){
+                int token_length = this.readBulk();
+                if(token_length < 0) return false;
+                int token_offset = buffer.position() - token_length - 2;
+                handler.onPong(string(buffer, token_offset, token_length));
+                return true;
+            }
+
+            // Anything else, skip it
+            for(long i = 1; i < count; i++) if(!this.skipElement()) return false;
+            return true;
+
+        case '-':
+        case '+':
+            int line_start = buffer.position();
+            int line_end = this.findLine();
+            if(line_end < 0) return false;
+            if(type == '-') handler.onError(string(buffer, line_start, line_end - line_start));
+            return true;
+
+        default:
+            throw new IllegalStateException("Unexpected RESP type '" + (char) type + "'");
+        }
+    }
+
+    /**
+     * Resolves name, allocates only if name is not in the subscribed set
+     *
+     * @param names  subscribed set
+     * @param offset offset of name bytes
+     * @param length number of name bytes
+     * @return name
+     */
+    @Nonnull
+    private String resolve(@Nonnull Map<ChannelKey,String> names, @Nonnegative int offset, @Nonnegative int length){
+        String name = names.get(this.probe.set(this.buffer, offset, length));
+        return name != null ? name : string(this.buffer, offset, length);
+    }
+
+    /**
+     * Points the read-only view at range of the read buffer
+     *
+     * @param offset offset of range
+     * @param length length of range
+     * @return view
+     */
+    @Nonnull
+    private ByteBuffer slice(@Nonnegative int offset, @Nonnegative int length){
+        ByteBuffer view = this.view;
+        view.clear();
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    /**
+     * Reads bulk string and moves past it
+     *
+     * @return length of bulk string, or -1 if it's incomplete
+     */
+    private int readBulk(){
+        ByteBuffer buffer = this.buffer;
+        if(!buffer.hasRemaining()) return -1;
+        byte type = buffer.get();
+        if(type != '$') throw new IllegalStateException("Unexpected RESP type '" + (char) type + "'");
+        long length = this.readNumber();
+        if(length == INCOMPLETE) return -1;
+        if(length < 0) return 0;
+        if(length > MAX_BULK_LENGTH) throw new IllegalStateException("RESP bulk string is too long");
+        if(buffer.remaining() < length + 2){
+            this.frame_end = (int) (buffer.position() + length + 2);
+            return -1;
+        }
+        buffer.position(buffer.position() + (int) length + 2);
+        return (int) length;
+    }
+
+    /**
+     * Moves past array element
+     *
+     * @return true if element was complete
+     */
+    private boolean skipElement(){
+        ByteBuffer buffer = this.buffer;
+        if(!buffer.hasRemaining()) return false;
+        byte type = buffer.get(buffer.position());
+        switch(type){
+        case '$':
+            return this.readBulk() >= 0;
+        case ':':
+            buffer.get();
+            return this.readNumber() != INCOMPLETE;
+        default:
+            throw new IllegalStateException("Unexpected RESP type '" + (char) type + "'");
+        }
+    }
+
+    /**
+     * Reads number terminated by CRLF
+     *
+     * @return number or {@link #INCOMPLETE} if line is incomplete
+     */
+    private long readNumber(){
+        ByteBuffer buffer = this.buffer;
+        int start = buffer.position();
+        int end = this.findLine();
+        if(end < 0) return INCOMPLETE;
+        boolean negative = end > start && buffer.get(start) == '-';
+        long number = 0;
+        for(int i = negative ? start + 1 : start; i < end; i++){
+            byte digit = buffer.get(i);
+            if(digit < '0' || digit > '9') throw new IllegalStateException("Invalid RESP number");
+            number = number * 10 + (digit - '0');
+        }
+        return negative ? -number : number;
+    }
+
+    /**
+     * Finds end of line and moves past its CRLF
+     *
+     * @return offset of CR, or -1 if line is incomplete
+     */
+    private int findLine(){
+        ByteBuffer buffer = this.buffer;
+        for(int i = buffer.position(); i < buffer.limit() - 1; i++){
+            if(buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'){
+                buffer.position(i + 2);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares range of buffer with bytes
+     *
+     * @param buffer buffer
+     * @param offset offset of range
+     * @param length length of range
+     * @param bytes  bytes
+     * @return true if they're equal
+     */
+    private static boolean equals(@Nonnull ByteBuffer buffer, int offset, int length, @Nonnull byte[] bytes){
+        if(length != bytes.length) return false;
+        for(int i = 0; i < length; i++) if(buffer.get(offset + i) != bytes[i]) return false;
+        return true;
+    }
+
+    /**
+     * Decodes range of buffer as UTF-8
+     *
+     * @param buffer buffer
+     * @param offset offset of range
+     * @param length length of range
+     * @return string
+     */
+    @Nonnull
+    private static String string(@Nonnull ByteBuffer buffer, int offset, int length){
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) bytes[i] = buffer.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Handler of decoded frames */
+    interface Handler{
+
+        /**
+         * Called when a message is decoded
+         *
+         * @param channel channel name
+         * @param payload read-only view of payload, only valid until this method returns
+         */
+        void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload);
+
+        /**
+         * Called when a pattern message is decoded
+         *
+         * @param pattern pattern that matched the channel
+         * @param channel channel name
+         * @param payload read-only view of payload, only valid until this method returns
+         */
+        void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload);
+
+        /**
+         * Called when a subscribe acknowledgment is decoded
+         *
+         * @param channel channel name
+         */
+        void onSubscribe(@Nonnull String channel);
+
+        /**
+         * Called when a pattern subscribe acknowledgment is decoded
+         *
+         * @param pattern pattern
+         */
+        void onPSubscribe(@Nonnull String pattern);
+
+        /**
+         * Called when an unsubscribe acknowledgment is decoded
+         *
+         * @param channel channel name
+         */
+        void onUnsubscribe(@Nonnull String channel);
+
+        /**
+         * Called when a pattern unsubscribe acknowledgment is decoded
+         *
+         * @param pattern pattern
+         */
+        void onPUnsubscribe(@Nonnull String pattern);
+
+        /**
+         * Called when a PING reply is decoded
+         *
+         * @param token token of the PING
+         */
+        void onPong(@Nonnull String token);
+
+        /**
+         * Called when an error reply is decoded
+         *
+         * @param error error message
+         */
+        void onError(@Nonnull String error);
+    }
+}
@@ -0,0 +1,661 @@
+package com.ansill.redis;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Subscriber connection to the master of a group monitored by Redis Sentinel. Sentinels are watched for master
+ * switches, and when the master switches or the connection drops, the connection is moved to the current master and
+ * every channel and pattern is subscribed again in batches
+ */
+final class SentinelSubscriberConnection implements SubscriberConnection{
+
+    /** Channel that sentinels announce master switches on */
+    @Nonnull
+    private static final String SWITCH_MASTER_CHANNEL = "+switch-master";
+
+    /** Maximum number of channels per resubscribe command */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Delay between attempts to reach the master or a sentinel in milliseconds */
+    private static final long RETRY_DELAY = 250;
+
+    /** Name of the monitored master */
+    @Nonnull
+    private final String master_name;
+
+    /** Sentinels */
+    @Nonnull
+    private final List<HostAndPort> sentinels;
+
+    /** Transport that connects to the master */
+    @Nonnull
+    private final Transport transport;
+
+    /** Channel that is always subscribed */
+    @Nonnull
+    private final String channel;
+
+    /** Listener */
+    @Nonnull
+    private final Listener listener;
+
+    /** Lock that guards the connection and the subscribed sets */
+    @Nonnull
+    private final Object lock = new Object();
+
+    /** Subscribed channels, guarded by lock */
+    @Nonnull
+    private final Set<String> channels = new LinkedHashSet<>();
+
+    /** Subscribed patterns, guarded by lock */
+    @Nonnull
+    private final Set<String> patterns = new LinkedHashSet<>();
+
+    /** Executor that moves the connection, one move at a time */
+    @Nonnull
+    private final ScheduledExecutorService executor;
+
+    /** Watchers of sentinels */
+    @Nonnull
+    private final List<Watcher> watchers = new ArrayList<>();
+
+    /** Start of failover in nanoseconds, zero if there's no failover in progress */
+    @Nonnull
+    private final AtomicLong failover_start = new AtomicLong(0);
+
+    /** Closed flag */
+    @Nonnull
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /** Flag of closed notification */
+    @Nonnull
+    private final AtomicBoolean notified = new AtomicBoolean(false);
+
+    /** Connection to the master, null while it's being moved, guarded by lock */
+    @Nullable
+    private SubscriberConnection connection;
+
+    /** Address of the master, guarded by lock */
+    @Nonnull
+    private HostAndPort master;
+
+    /** Generation of the connection, events of older connections are ignored, only changed under lock */
+    private volatile int generation = 0;
+
+    /** Flag whether connections of the transport reuse payload buffers, every connection uses the same transport */
+    private final boolean reuses_buffers;
+
+    /**
+     * Connects to the master and starts watching the sentinels
+     *
+     * @param master_name name of the monitored master
+     * @param sentinels   sentinels
+     * @param master      address of the master
+     * @param transport   transport that connects to the master
+     * @param channel     channel to subscribe initially
+     * @param listener    listener of events on the connection
+     * @throws JedisConnectionException thrown if connection cannot be established
+     */
+    SentinelSubscriberConnection(
+            @Nonnull String master_name,
+            @Nonnull List<HostAndPort> sentinels,
+            @Nonnull HostAndPort master,
+            @Nonnull Transport transport,
+            @Nonnull String channel,
+            @Nonnull Listener listener
+    ) throws JedisConnectionException{
+        this.master_name = master_name;
+        this.sentinels = sentinels;
+        this.transport = transport;
+        this.channel = channel;
+        this.listener = listener;
+        this.master = master;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "JedisPubSubManager-failover");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Connect to the master
+        SubscriberConnection connection;
+        try{
+            connection = transport.connect(master.getHost(), master.getPort(), channel, new Relay(0));
+        }catch(RuntimeException e){
+            this.executor.shutdownNow();
+            throw e;
+        }
+        this.reuses_buffers = connection.reusesBuffers();
+        synchronized(this.lock){
+            this.connection = connection;
+        }
+
+        // Start watching
+        for(HostAndPort sentinel : sentinels){
+            Watcher watcher = new Watcher(sentinel);
+            this.watchers.add(watcher);
+            Thread thread = new Thread(watcher, "JedisPubSubManager-sentinel-" + sentinel);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Asks sentinels for the address of the master
+     *
+     * @param master_name name of the monitored master
+     * @param sentinels   sentinels
+     * @return address of the master
+     * @throws JedisConnectionException thrown if no sentinel knows the master
+     */
+    @Nonnull
+    static HostAndPort resolve(@Nonnull String master_name, @Nonnull List<HostAndPort> sentinels)
+    throws JedisConnectionException{
+        for(HostAndPort sentinel : sentinels){
+            try(Jedis jedis = new Jedis(sentinel.getHost(), sentinel.getPort())){
+                List<String> address = jedis.sentinelGetMasterAddrByName(master_name);
+                if(address != null && address.size() == 2){
+                    return new HostAndPort(address.get(0), Integer.parseInt(address.get(1)));
+                }
+            }catch(JedisException | NumberFormatException ignored){
+                // Try next one
+            }
+        }
+        throw new JedisConnectionException("No sentinel knows master '" + master_name + "'");
+    }
+
+    @Override
+    public void subscribe(@Nonnull String... channels){
+        synchronized(this.lock){
+            this.channels.addAll(Arrays.asList(channels));
+            if(this.connection != null) this.send(() -> this.connection.subscribe(channels));
+        }
+    }
+
+    @Override
+    public void unsubscribe(@Nonnull String... channels){
+        synchronized(this.lock){
+            this.channels.removeAll(Arrays.asList(channels));
+            if(this.connection != null) this.send(() -> this.connection.unsubscribe(channels));
+        }
+    }
+
+    @Override
+    public void psubscribe(@Nonnull String... patterns){
+        synchronized(this.lock){
+            this.patterns.addAll(Arrays.asList(patterns));
+            if(this.connection != null) this.send(() -> this.connection.psubscribe(patterns));
+        }
+    }
+
+    @Override
+    public void punsubscribe(@Nonnull String... patterns){
+        synchronized(this.lock){
+            this.patterns.removeAll(Arrays.asList(patterns));
+            if(this.connection != null) this.send(() -> this.connection.punsubscribe(patterns));
+        }
+    }
+
+    @Override
+    public void ping(@Nonnull String token){
+        synchronized(this.lock){
+            if(this.connection != null) this.send(() -> this.connection.ping(token));
+        }
+    }
+
+    @Override
+    public boolean reusesBuffers(){
+        return this.reuses_buffers;
+    }
+
+    @Override
+    public void abort(){
+
+        // Drop the connection to the master, which moves the connection to wherever the master is now
+        SubscriberConnection connection;
+        synchronized(this.lock){
+            connection = this.connection;
+        }
+        if(connection != null) connection.abort();
+    }
+
+    @Override
+    public void close(){
+        if(!this.closed.compareAndSet(false, true)) return;
+
+        // Stop watching
+        this.watchers.forEach(Watcher::close);
+        this.executor.shutdownNow();
+
+        // Close the connection, or notify right away if there's none
+        SubscriberConnection connection;
+        synchronized(this.lock){
+            connection = this.connection;
+            this.connection = null;
+        }
+        if(connection == null){
+            this.notifyClosed();
+            return;
+        }
+        try{
+            connection.close();
+        }catch(JedisException e){
+            // Connection is already broken and will notify once it's done
+        }
+    }
+
+    /**
+     * Sends command over the connection, a connection that is failing will be replaced and the command will be
+     * replayed by the resubscription, so failures are ignored
+     *
+     * @param command command
+     */
+    private void send(@Nonnull Runnable command){
+        try{
+            command.run();
+        }catch(JedisConnectionException ignored){
+            // Replayed after failover
+        }
+    }
+
+    /**
+     * Starts failover timer if it's not already running
+     */
+    private void startFailover(){
+        this.failover_start.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Schedules a move of the connection
+     *
+     * @param task  task that moves the connection
+     * @param delay delay in milliseconds
+     */
+    private void schedule(@Nonnull Runnable task, @Nonnegative long delay){
+        try{
+            this.executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }catch(RejectedExecutionException ignored){
+            // Closed
+        }
+    }
+
+    /** Moves the connection to wherever sentinels say the master is, retries until it succeeds */
+    private void recover(){
+        HostAndPort master;
+        try{
+            master = resolve(this.master_name, this.sentinels);
+        }catch(JedisConnectionException e){
+            synchronized(this.lock){
+                master = this.master;
+            }
+        }
+        if(!this.moveTo(master)) this.schedule(this::recover, RETRY_DELAY);
+    }
+
+    /**
+     * Moves the connection to the master and subscribes everything again, must be run on the executor. The lock is only
+     * held to swap connections, so subscriptions can change while the new connection is set up and are caught up with
+     * once it's swapped in
+     *
+     * @param master address of the master
+     * @return true if connection is on the master, false if it could not be moved
+     */
+    private boolean moveTo(@Nonnull HostAndPort master){
+
+        // Drop the old connection, its callbacks are ignored from now on
+        Object event;
+        SubscriberConnection old;
+        Relay relay;
+        synchronized(this.lock){
+
+            // Nothing to do if closed or already there
+            if(this.closed.get()) return true;
+            if(this.connection != null && this.master.equals(master)) return true;
+
+            // Start recording failover
+            this.startFailover();
+            event = Events.beginLifecycle();
+            old = this.connection;
+            this.connection = null;
+            relay = new Relay(++this.generation);
+        }
+        if(old != null) closeQuietly(old);
+
+        // Connect to the master and wait for it to acknowledge the initial channel
+        SubscriberConnection connection = null;
+        try{
+            connection = this.transport.connect(master.getHost(), master.getPort(), this.channel, relay);
+            if(!relay.subscribed.await(Protocol.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)){
+                throw new JedisConnectionException("Master did not acknowledge the subscription");
+            }
+
+            // Subscribe everything again in batches
+            Set<String> channels;
+            Set<String> patterns;
+            synchronized(this.lock){
+                channels = new LinkedHashSet<>(this.channels);
+                patterns = new LinkedHashSet<>(this.patterns);
+            }
+            for(String[] batch : batches(channels)) connection.subscribe(batch);
+            for(String[] batch : batches(patterns)) connection.psubscribe(batch);
+
+            // Swap it in, catching up with whatever changed in the meantime
+            synchronized(this.lock){
+                if(this.closed.get()){
+                    closeQuietly(connection);
+                    return true;
+                }
+                catchUp(channels, this.channels, connection::subscribe, connection::unsubscribe);
+                catchUp(patterns, this.patterns, connection::psubscribe, connection::punsubscribe);
+                this.connection = connection;
+                this.master = master;
+            }
+            Events.endLifecycle(event, master.toString(), "failover");
+
+        }catch(InterruptedException e){
+            this.abandon(connection);
+            Thread.currentThread().interrupt();
+            return false;
+        }catch(JedisException e){
+            this.abandon(connection);
+            return false;
+        }
+
+        // Report it
+        long start = this.failover_start.getAndSet(0);
+        if(start != 0) this.listener.onFailover(master.toString(), System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Abandons connection of a failed move, making sure its callbacks are ignored
+     *
+     * @param connection connection, null if it was never created
+     */
+    private void abandon(@Nullable SubscriberConnection connection){
+        synchronized(this.lock){
+            this.generation++;
+        }
+        if(connection != null) closeQuietly(connection);
+    }
+
+    /**
+     * Sends commands for names that were added or removed since the snapshot
+     *
+     * @param snapshot    names that were sent
+     * @param current     names that should be subscribed now
+     * @param subscribe   subscribe command
+     * @param unsubscribe unsubscribe command
+     */
+    private static void catchUp(
+            @Nonnull Set<String> snapshot,
+            @Nonnull Set<String> current,
+            @Nonnull Consumer<String[]> subscribe,
+            @Nonnull Consumer<String[]> unsubscribe
+    ){
+        List<String> added = new ArrayList<>();
+        for(String name : current) if(!snapshot.contains(name)) added.add(name);
+        List<String> removed = new ArrayList<>();
+        for(String name : snapshot) if(!current.contains(name)) removed.add(name);
+        if(!added.isEmpty()) subscribe.accept(added.toArray(new String[0]));
+        if(!removed.isEmpty()) unsubscribe.accept(removed.toArray(new String[0]));
+    }
+
+    /**
+     * Handles closed connection. Doesn't take the lock since it may be called on a thread that a move is waiting on
+     *
+     * @param generation generation of the connection
+     */
+    private void onConnectionClosed(int generation){
+
+        // Ignore older connections
+        if(generation != this.generation) return;
+
+        // Notify if closing, otherwise find the master
+        if(this.closed.get()){
+            this.notifyClosed();
+            return;
+        }
+        this.startFailover();
+        this.schedule(() -> {
+            synchronized(this.lock){
+                if(generation != this.generation) return;
+                this.connection = null;
+            }
+            this.recover();
+        }, 0);
+    }
+
+    /** Notifies listener that the connection is closed, only once */
+    private void notifyClosed(){
+        if(this.notified.compareAndSet(false, true)) this.listener.onClosed();
+    }
+
+    /**
+     * Closes connection without throwing
+     *
+     * @param connection connection
+     */
+    private static void closeQuietly(@Nonnull SubscriberConnection connection){
+        try{
+            connection.close();
+        }catch(JedisException ignored){
+            // Already broken
+        }
+    }
+
+    /**
+     * Splits names into batches
+     *
+     * @param names names
+     * @return batches
+     */
+    @Nonnull
+    private static List<String[]> batches(@Nonnull Set<String> names){
+        List<String[]> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>(Math.min(names.size(), BATCH_SIZE));
+        for(String name : names){
+            batch.add(name);
+            if(batch.size() == BATCH_SIZE){
+                batches.add(batch.toArray(new String[0]));
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()) batches.add(batch.toArray(new String[0]));
+        return batches;
+    }
+
+    /** Transport that connects to a server */
+    @FunctionalInterface
+    interface Transport{
+
+        /**
+         * Creates connection and subscribes to the initial channel
+         *
+         * @param hostname hostname of the server
+         * @param port     port of the server
+         * @param channel  channel to subscribe initially
+         * @param listener listener of events on the connection
+         * @return connection
+         * @throws JedisConnectionException thrown if connection cannot be established
+         */
+        @Nonnull
+        SubscriberConnection connect(
+                @Nonnull String hostname,
+                @Nonnegative int port,
+                @Nonnull String channel,
+                @Nonnull Listener listener
+        ) throws JedisConnectionException;
+    }
+
+    /** Listener of a single connection to the master that relays its events */
+    private final class Relay implements Listener{
+
+        /** Generation of the connection */
+        private final int generation;
+
+        /** CDL for acknowledgment of the initial channel */
+        @Nonnull
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        /**
+         * Creates relay
+         *
+         * @param generation generation of the connection
+         */
+        private Relay(int generation){
+            this.generation = generation;
+        }
+
+        /**
+         * Checks if the connection is the current one. An old connection keeps delivering until its unsubscribe is
+         * acknowledged, and a demoted master still receives replicated messages, so its events would be duplicates
+         * delivered from another thread
+         *
+         * @return true if events of the connection should be relayed
+         */
+        private boolean isCurrent(){
+            return this.generation == SentinelSubscriberConnection.this.generation;
+        }
+
+        @Override
+        public void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload){
+            if(this.isCurrent()) listener.onMessage(channel, payload);
+        }
+
+        @Override
+        public void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload){
+            if(this.isCurrent()) listener.onPMessage(pattern, channel, payload);
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull String channel){
+            if(!this.isCurrent()) return;
+            if(channel.equals(SentinelSubscriberConnection.this.channel)) this.subscribed.countDown();
+            listener.onSubscribe(channel);
+        }
+
+        @Override
+        public void onPSubscribe(@Nonnull String pattern){
+            if(this.isCurrent()) listener.onPSubscribe(pattern);
+        }
+
+        @Override
+        public void onUnsubscribe(@Nonnull String channel){
+            if(this.isCurrent()) listener.onUnsubscribe(channel);
+        }
+
+        @Override
+        public void onPUnsubscribe(@Nonnull String pattern){
+            if(this.isCurrent()) listener.onPUnsubscribe(pattern);
+        }
+
+        @Override
+        public void onPong(@Nonnull String token){
+            if(this.isCurrent()) listener.onPong(token);
+        }
+
+        @Override
+        public void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos){
+            if(this.isCurrent()) listener.onFailover(endpoint, elapsed_nanos);
+        }
+
+        @Override
+        public void onClosed(){
+            onConnectionClosed(this.generation);
+        }
+    }
+
+    /** Watcher of master switches on a single sentinel, reconnects until closed */
+    private final class Watcher extends JedisPubSub implements Runnable{
+
+        /** Address of the sentinel */
+        @Nonnull
+        private final HostAndPort sentinel;
+
+        /** Current connection to the sentinel */
+        @Nullable
+        private volatile Jedis jedis = null;
+
+        /**
+         * Creates watcher
+         *
+         * @param sentinel address of the sentinel
+         */
+        private Watcher(@Nonnull HostAndPort sentinel){
+            this.sentinel = sentinel;
+        }
+
+        @Override
+        public void run(){
+            while(!closed.get()){
+                try(Jedis jedis = new Jedis(this.sentinel.getHost(), this.sentinel.getPort())){
+                    this.jedis = jedis;
+                    if(closed.get()) return;
+
+                    // Block until connection is lost
+                    jedis.subscribe(this, SWITCH_MASTER_CHANNEL);
+
+                }catch(JedisException e){
+                    // Reconnect below
+                }
+
+                // Wait a bit before reconnecting
+                try{
+                    Thread.sleep(RETRY_DELAY);
+                }catch(InterruptedException e){
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message){
+
+            // Format is "<master name> <old ip> <old port> <new ip> <new port>"
+            String[] parts = message == null ? new String[0] : message.split(" ");
+            if(parts.length != 5 || !parts[0].equals(master_name)) return;
+
+            // Move to the new master
+            HostAndPort master;
+            try{
+                master = new HostAndPort(parts[3], Integer.parseInt(parts[4]));
+            }catch(NumberFormatException e){
+                return;
+            }
+            startFailover();
+            schedule(() -> {
+                if(!moveTo(master)) schedule(SentinelSubscriberConnection.this::recover, RETRY_DELAY);
+            }, 0);
+        }
+
+        /** Stops watching */
+        private void close(){
+            Jedis jedis = this.jedis;
+            if(jedis != null) jedis.disconnect();
+        }
+    }
+}
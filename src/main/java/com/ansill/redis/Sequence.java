@@ -0,0 +1,104 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/**
+ * Sequence stamp of published payloads. The stamp is a marker header followed by the id of the publisher and the
+ * sequence number of the first message in the payload as 8-byte big-endian integers, then the number of messages in
+ * the payload as a 4-byte big-endian integer. Sequence numbers count messages per publisher and channel, so a
+ * subscriber can tell how many messages it missed
+ */
+final class Sequence{
+
+    /** Marker header, starts with a NUL byte so it's unlikely to show up at the start of text messages */
+    @Nonnull
+    private static final byte[] MAGIC = {0, 'J', 'P', 'S', 'M', 'S', 1};
+
+    /** Offset of publisher id */
+    private static final int PUBLISHER_OFFSET = MAGIC.length;
+
+    /** Offset of sequence number */
+    private static final int SEQUENCE_OFFSET = PUBLISHER_OFFSET + 8;
+
+    /** Offset of message count */
+    private static final int COUNT_OFFSET = SEQUENCE_OFFSET + 8;
+
+    /** Size of the header */
+    private static final int HEADER_SIZE = COUNT_OFFSET + 4;
+
+    /** Prevents instantiation */
+    private Sequence(){
+    }
+
+    /**
+     * Stamps payload with sequence
+     *
+     * @param publisher id of the publisher
+     * @param sequence  sequence number of the first message in the payload
+     * @param count     number of messages in the payload
+     * @param payload   payload
+     * @return stamped payload
+     */
+    @Nonnull
+    static byte[] stamp(long publisher, @Nonnegative long sequence, @Nonnegative int count, @Nonnull byte[] payload){
+        ByteBuffer stamped = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        stamped.put(MAGIC).putLong(publisher).putLong(sequence).putInt(count).put(payload);
+        return stamped.array();
+    }
+
+    /**
+     * Checks if payload is stamped
+     *
+     * @param payload payload
+     * @return true if payload starts with a stamp
+     */
+    static boolean isStamped(@Nonnull ByteBuffer payload){
+        int start = payload.position();
+        if(payload.remaining() < HEADER_SIZE) return false;
+        for(int i = 0; i < MAGIC.length; i++) if(payload.get(start + i) != MAGIC[i]) return false;
+        return true;
+    }
+
+    /**
+     * Reads publisher id of stamped payload
+     *
+     * @param payload stamped payload
+     * @return id of the publisher
+     */
+    static long publisher(@Nonnull ByteBuffer payload){
+        return payload.getLong(payload.position() + PUBLISHER_OFFSET);
+    }
+
+    /**
+     * Reads sequence number of stamped payload
+     *
+     * @param payload stamped payload
+     * @return sequence number of the first message in the payload
+     */
+    static long sequence(@Nonnull ByteBuffer payload){
+        return payload.getLong(payload.position() + SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Reads message count of stamped payload
+     *
+     * @param payload stamped payload
+     * @return number of messages in the payload
+     */
+    static int count(@Nonnull ByteBuffer payload){
+        return payload.getInt(payload.position() + COUNT_OFFSET);
+    }
+
+    /**
+     * Removes stamp from message
+     *
+     * @param message message whose payload is stamped
+     * @return message without the stamp
+     */
+    @Nonnull
+    static Message strip(@Nonnull Message message){
+        return message.skip(HEADER_SIZE);
+    }
+}
@@ -0,0 +1,140 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracker of sequence numbers per channel and publisher. A sequence number beyond the expected one counts the messages
+ * in between as lost, while an earlier one is a copy that was already seen, such as a message that matched a pattern
+ * as well as a channel, and is not counted. Messages that the manager itself dropped are counted as lost as well
+ */
+final class SequenceTracker{
+
+    /** Maximum number of publishers remembered per channel, the least recently seen one is forgotten first */
+    private static final int MAX_PUBLISHERS = 1024;
+
+    /** Channels by name */
+    @Nonnull
+    private final Map<String,Channel> channels = new ConcurrentHashMap<>();
+
+    /** Number of lost messages on every channel */
+    @Nonnull
+    private final LongAdder lost = new LongAdder();
+
+    /**
+     * Tracks payload
+     *
+     * @param channel   channel name
+     * @param publisher id of the publisher
+     * @param sequence  sequence number of the first message in the payload
+     * @param count     number of messages in the payload
+     * @return number of messages lost right before the payload, zero if nothing was lost
+     */
+    @Nonnegative
+    long track(@Nonnull String channel, long publisher, long sequence, @Nonnegative int count){
+        long lost = this.channels.computeIfAbsent(channel, key -> new Channel()).track(publisher, sequence, count);
+        if(lost > 0) this.lost.add(lost);
+        return lost;
+    }
+
+    /**
+     * Counts messages that were dropped after they were received
+     *
+     * @param channel channel name
+     * @param count   number of dropped messages
+     */
+    void drop(@Nonnull String channel, @Nonnegative int count){
+        this.channels.computeIfAbsent(channel, key -> new Channel()).drop(count);
+        this.lost.add(count);
+    }
+
+    /**
+     * Returns number of lost messages on every channel
+     *
+     * @return number of lost messages
+     */
+    @Nonnegative
+    long getLost(){
+        return this.lost.sum();
+    }
+
+    /**
+     * Returns number of lost messages on channel
+     *
+     * @param channel channel name
+     * @return number of lost messages
+     */
+    @Nonnegative
+    long getLost(@Nonnull String channel){
+        Channel tracked = this.channels.get(channel);
+        return tracked == null ? 0 : tracked.getLost();
+    }
+
+    /** Sequences of a single channel */
+    private static final class Channel{
+
+        /** Next expected sequence number by publisher, in access order, guarded by this */
+        @Nonnull
+        private final Map<Long,Long> expected = new LinkedHashMap<Long,Long>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long,Long> eldest){
+                return this.size() > MAX_PUBLISHERS;
+            }
+        };
+
+        /** Number of lost messages, guarded by this */
+        @Nonnegative
+        private long lost = 0;
+
+        /**
+         * Tracks payload
+         *
+         * @param publisher id of the publisher
+         * @param sequence  sequence number of the first message in the payload
+         * @param count     number of messages in the payload
+         * @return number of messages lost right before the payload
+         */
+        @Nonnegative
+        private synchronized long track(long publisher, long sequence, @Nonnegative int count){
+
+            // First payload of a publisher starts the count
+            Long expected = this.expected.get(publisher);
+            if(expected == null){
+                this.expected.put(publisher, sequence + count);
+                return 0;
+            }
+
+            // Copies were already seen
+            if(sequence < expected) return 0;
+
+            // Anything skipped is lost
+            this.expected.put(publisher, sequence + count);
+            long lost = sequence - expected;
+            this.lost += lost;
+            return lost;
+        }
+
+        /**
+         * Counts messages that were dropped after they were received
+         *
+         * @param count number of dropped messages
+         */
+        private synchronized void drop(@Nonnegative int count){
+            this.lost += count;
+        }
+
+        /**
+         * Returns number of lost messages
+         *
+         * @return number of lost messages
+         */
+        @Nonnegative
+        private synchronized long getLost(){
+            return this.lost;
+        }
+    }
+}
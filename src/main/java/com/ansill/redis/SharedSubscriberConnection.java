@@ -0,0 +1,455 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Subscriber connection shared by every manager in the JVM that connects to the same endpoint. Each manager gets a
+ * view that behaves like a connection of its own, while channels and patterns are reference-counted across views so
+ * the server is subscribed once per channel and every message is received once and fanned out to the views
+ */
+final class SharedSubscriberConnection{
+
+    /** Shared connections by key, completed once they are connected, guarded by itself */
+    @Nonnull
+    private static final Map<Object,CompletableFuture<SharedSubscriberConnection>> REGISTRY = new HashMap<>();
+
+    /** Registry key */
+    @Nonnull
+    private final Object key;
+
+    /** Channel that the connection was created with, every view receives its messages */
+    @Nonnull
+    private final String initial_channel;
+
+    /** Underlying connection */
+    @Nonnull
+    private final SubscriberConnection connection;
+
+    /** Views of the connection, mutated while holding this */
+    @Nonnull
+    private final List<View> views = new CopyOnWriteArrayList<>();
+
+    /** Subscribed channels, mutated while holding this */
+    @Nonnull
+    private final Map<String,Subscribers> channels = new ConcurrentHashMap<>();
+
+    /** Subscribed patterns, mutated while holding this */
+    @Nonnull
+    private final Map<String,Subscribers> patterns = new ConcurrentHashMap<>();
+
+    /** Flag whether the underlying connection is closed, guarded by this */
+    private boolean closed = false;
+
+    /**
+     * Creates shared connection
+     *
+     * @param key     registry key
+     * @param channel channel to subscribe initially
+     * @param factory factory of the underlying connection
+     */
+    private SharedSubscriberConnection(
+            @Nonnull Object key,
+            @Nonnull String channel,
+            @Nonnull SubscriberConnection.Factory factory
+    ){
+        this.key = key;
+        this.initial_channel = channel;
+        this.connection = factory.create(channel, new Relay());
+    }
+
+    /**
+     * Returns a view of the shared connection of the key, creates the connection if there's none yet. Callers that want
+     * a key that is being connected wait for it, while other keys are not held up
+     *
+     * @param key      registry key, connections are shared between callers with equal keys
+     * @param factory  factory of the underlying connection
+     * @param channel  channel to subscribe initially
+     * @param listener listener of events on the view
+     * @return view
+     */
+    @Nonnull
+    static SubscriberConnection acquire(
+            @Nonnull Object key,
+            @Nonnull SubscriberConnection.Factory factory,
+            @Nonnull String channel,
+            @Nonnull SubscriberConnection.Listener listener
+    ){
+        while(true){
+
+            // Find the connection of the key, or claim the key to create it
+            CompletableFuture<SharedSubscriberConnection> entry;
+            boolean creating = false;
+            synchronized(REGISTRY){
+                entry = REGISTRY.get(key);
+                if(entry == null){
+                    entry = new CompletableFuture<>();
+                    REGISTRY.put(key, entry);
+                    creating = true;
+                }
+            }
+
+            // Connect outside of the registry, others that want the key wait for the outcome
+            SharedSubscriberConnection shared;
+            if(creating){
+                try{
+                    shared = new SharedSubscriberConnection(key, channel, factory);
+                }catch(RuntimeException e){
+                    synchronized(REGISTRY){
+                        REGISTRY.remove(key, entry);
+                    }
+                    entry.completeExceptionally(e);
+                    throw e;
+                }
+                entry.complete(shared);
+            }else{
+                try{
+                    shared = entry.join();
+                }catch(CompletionException | CancellationException e){
+
+                    // Whoever claimed it failed to connect, try it ourselves
+                    continue;
+                }
+            }
+
+            // Attach to it unless it closed in the meantime
+            View view = new View(shared, listener);
+            synchronized(shared){
+                if(!shared.closed){
+                    shared.views.add(view);
+                    return view;
+                }
+            }
+            synchronized(REGISTRY){
+                REGISTRY.remove(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Subscribes view to channels or patterns, the server is only subscribed to names that no view had yet
+     *
+     * @param view    view
+     * @param pattern true if names are patterns
+     * @param names   channel names or patterns
+     */
+    private void subscribe(@Nonnull View view, boolean pattern, @Nonnull String... names){
+        List<String> acknowledged = new ArrayList<>();
+        synchronized(this){
+
+            // Find out what the server still needs to hear about, views wait while any acknowledgment is outstanding
+            Map<String,Subscribers> map = pattern ? this.patterns : this.channels;
+            List<String> missing = new ArrayList<>();
+            for(String name : names){
+                Subscribers subscribers = map.computeIfAbsent(name, key -> new Subscribers());
+                boolean first = subscribers.views.isEmpty();
+                subscribers.views.add(view);
+                if(first) missing.add(name);
+                if(first || subscribers.outstanding != 0) subscribers.waiting.add(view);
+                else acknowledged.add(name);
+            }
+
+            // Subscribe what's missing
+            if(!missing.isEmpty()){
+                String[] array = missing.toArray(new String[0]);
+                try{
+                    if(pattern) this.connection.psubscribe(array);
+                    else this.connection.subscribe(array);
+                }catch(RuntimeException e){
+
+                    // Nothing was subscribed
+                    for(String name : names){
+                        Subscribers subscribers = map.get(name);
+                        subscribers.views.remove(view);
+                        subscribers.waiting.remove(view);
+                        if(subscribers.views.isEmpty() && subscribers.outstanding == 0) map.remove(name);
+                    }
+                    throw e;
+                }
+                for(String name : missing) map.get(name).outstanding++;
+            }
+        }
+
+        // Names that are already subscribed are acknowledged right away, outside of the lock since listeners complete
+        // futures
+        for(String name : acknowledged){
+            if(pattern) view.listener.onPSubscribe(name);
+            else view.listener.onSubscribe(name);
+        }
+    }
+
+    /**
+     * Unsubscribes view from channels or patterns, the server is only unsubscribed from names that no view has anymore.
+     * The view stops receiving messages of the names right away, so names that other views still have are
+     * acknowledged right away as well, the rest once the server acknowledges them
+     *
+     * @param view    view
+     * @param pattern true if names are patterns
+     * @param names   channel names or patterns
+     */
+    private void unsubscribe(@Nonnull View view, boolean pattern, @Nonnull String... names){
+        List<String> acknowledged = new ArrayList<>();
+        synchronized(this){
+
+            // Find out what nobody needs anymore
+            Map<String,Subscribers> map = pattern ? this.patterns : this.channels;
+            List<String> unused = new ArrayList<>();
+            for(String name : names){
+                Subscribers subscribers = map.get(name);
+                if(subscribers == null || !subscribers.views.remove(view)) continue;
+                subscribers.waiting.remove(view);
+                if(!subscribers.views.isEmpty()){
+                    acknowledged.add(name);
+                    continue;
+                }
+                unused.add(name);
+                if(subscribers.outstanding == 0) map.remove(name);
+            }
+
+            // Unsubscribe it
+            if(!unused.isEmpty() && !this.closed){
+                String[] array = unused.toArray(new String[0]);
+                if(pattern) this.connection.punsubscribe(array);
+                else this.connection.unsubscribe(array);
+            }
+        }
+
+        // Acknowledge outside of the lock like subscriptions
+        for(String name : acknowledged){
+            if(pattern) view.listener.onPUnsubscribe(name);
+            else view.listener.onUnsubscribe(name);
+        }
+    }
+
+    /**
+     * Detaches view, closes the underlying connection once no view is left. A view that aborts only drops itself, but
+     * the connection is no longer handed out since it may be dead, and it's dropped once the last view is gone
+     *
+     * @param view  view
+     * @param abort true if the view aborts
+     */
+    private void release(@Nonnull View view, boolean abort){
+
+        // Hold the registry so nobody picks up a connection that is about to close
+        boolean last;
+        synchronized(REGISTRY){
+            synchronized(this){
+                if(!this.views.remove(view)) return;
+
+                // Close it once nobody uses it, otherwise unsubscribe what only this view needed
+                last = this.views.isEmpty();
+                if(last) this.closed = true;
+                if(last || abort) this.unregister();
+                if(!last){
+                    try{
+                        this.unsubscribe(view, false, this.channels.keySet().toArray(new String[0]));
+                        this.unsubscribe(view, true, this.patterns.keySet().toArray(new String[0]));
+                    }catch(RuntimeException e){
+                        if(!abort) throw e;
+                    }
+                }
+            }
+        }
+
+        // View is closed as far as its manager is concerned
+        view.listener.onClosed();
+        if(!last) return;
+        if(abort) this.connection.abort();
+        else this.connection.close();
+    }
+
+    /** Removes the connection from the registry if it's still there, the caller holds the registry */
+    private void unregister(){
+        CompletableFuture<SharedSubscriberConnection> entry = REGISTRY.get(this.key);
+        if(entry != null && entry.getNow(null) == this) REGISTRY.remove(this.key);
+    }
+
+    /**
+     * Handles acknowledgment, views that waited for it are notified once every outstanding command is acknowledged
+     *
+     * @param pattern true if name is a pattern
+     * @param name    channel name or pattern
+     */
+    private void acknowledge(boolean pattern, @Nonnull String name){
+        List<View> notified;
+        synchronized(this){
+            Map<String,Subscribers> map = pattern ? this.patterns : this.channels;
+            Subscribers subscribers = map.get(name);
+            if(subscribers == null || subscribers.outstanding == 0) return;
+            if(--subscribers.outstanding != 0) return;
+            notified = new ArrayList<>(subscribers.waiting);
+            subscribers.waiting.clear();
+            if(subscribers.views.isEmpty()) map.remove(name);
+        }
+
+        // Notify outside of the lock since listeners complete futures
+        for(View view : notified){
+            if(pattern) view.listener.onPSubscribe(name);
+            else view.listener.onSubscribe(name);
+        }
+    }
+
+    /** Views subscribed to a channel or pattern */
+    private static final class Subscribers{
+
+        /** Views that subscribed, iterated without the lock on every message */
+        @Nonnull
+        final List<View> views = new CopyOnWriteArrayList<>();
+
+        /** Views that wait for acknowledgment, guarded by the shared connection */
+        @Nonnull
+        final List<View> waiting = new ArrayList<>();
+
+        /** Number of subscribe commands not yet acknowledged, guarded by the shared connection */
+        @Nonnegative
+        int outstanding = 0;
+    }
+
+    /** View of the shared connection that a single manager uses */
+    private static final class View implements SubscriberConnection{
+
+        /** Shared connection */
+        @Nonnull
+        private final SharedSubscriberConnection shared;
+
+        /** Listener of the manager */
+        @Nonnull
+        private final SubscriberConnection.Listener listener;
+
+        /**
+         * Creates view
+         *
+         * @param shared   shared connection
+         * @param listener listener of the manager
+         */
+        private View(@Nonnull SharedSubscriberConnection shared, @Nonnull SubscriberConnection.Listener listener){
+            this.shared = shared;
+            this.listener = listener;
+        }
+
+        @Override
+        public void subscribe(@Nonnull String... channels){
+            this.shared.subscribe(this, false, channels);
+        }
+
+        @Override
+        public void unsubscribe(@Nonnull String... channels){
+            this.shared.unsubscribe(this, false, channels);
+        }
+
+        @Override
+        public void psubscribe(@Nonnull String... patterns){
+            this.shared.subscribe(this, true, patterns);
+        }
+
+        @Override
+        public void punsubscribe(@Nonnull String... patterns){
+            this.shared.unsubscribe(this, true, patterns);
+        }
+
+        @Override
+        public void ping(@Nonnull String token){
+            this.shared.connection.ping(token);
+        }
+
+        @Override
+        public void close(){
+            this.shared.release(this, false);
+        }
+
+        @Override
+        public boolean reusesBuffers(){
+            return this.shared.connection.reusesBuffers();
+        }
+
+        @Override
+        public void abort(){
+            this.shared.release(this, true);
+        }
+    }
+
+    /** Listener of the underlying connection that fans events out to the views */
+    private final class Relay implements SubscriberConnection.Listener{
+
+        @Override
+        public void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload){
+
+            // Every view receives messages of the initial channel
+            if(channel.equals(initial_channel)){
+                for(View view : views) view.listener.onMessage(channel, payload);
+                return;
+            }
+
+            // Pass it on to views that subscribed to it
+            Subscribers subscribers = channels.get(channel);
+            if(subscribers != null) for(View view : subscribers.views) view.listener.onMessage(channel, payload);
+        }
+
+        @Override
+        public void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload){
+            Subscribers subscribers = patterns.get(pattern);
+            if(subscribers == null) return;
+            for(View view : subscribers.views) view.listener.onPMessage(pattern, channel, payload);
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull String channel){
+            acknowledge(false, channel);
+        }
+
+        @Override
+        public void onPSubscribe(@Nonnull String pattern){
+            acknowledge(true, pattern);
+        }
+
+        @Override
+        public void onUnsubscribe(@Nonnull String channel){
+
+            // Views that dropped the channel are waiting for it, the rest ignore it
+            for(View view : views) view.listener.onUnsubscribe(channel);
+        }
+
+        @Override
+        public void onPUnsubscribe(@Nonnull String pattern){
+            for(View view : views) view.listener.onPUnsubscribe(pattern);
+        }
+
+        @Override
+        public void onPong(@Nonnull String token){
+
+            // Views recognize their own tokens
+            for(View view : views) view.listener.onPong(token);
+        }
+
+        @Override
+        public void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos){
+            for(View view : views) view.listener.onFailover(endpoint, elapsed_nanos);
+        }
+
+        @Override
+        public void onClosed(){
+
+            // Nobody can use it anymore
+            List<View> detached;
+            synchronized(REGISTRY){
+                synchronized(SharedSubscriberConnection.this){
+                    closed = true;
+                    detached = new ArrayList<>(views);
+                    views.clear();
+                    unregister();
+                }
+            }
+            for(View view : detached) view.listener.onClosed();
+        }
+    }
+}
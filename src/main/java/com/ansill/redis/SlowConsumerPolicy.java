@@ -0,0 +1,130 @@
+package com.ansill.redis;
+
+import com.ansill.validation.Validation;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/** Policy that decides what happens to consumers that take too long to accept messages */
+public final class SlowConsumerPolicy{
+
+    /** Execution time threshold in nanoseconds */
+    @Nonnegative
+    private final long threshold_nanos;
+
+    /** Number of consecutive violations before the action is taken */
+    @Nonnegative
+    private final int max_violations;
+
+    /** Action to take */
+    @Nonnull
+    private final Action action;
+
+    /** Listener that gets notified when action is taken */
+    @Nonnull
+    private final Listener listener;
+
+    /**
+     * Creates slow consumer policy
+     *
+     * @param threshold      maximum execution time of a single accept call before it counts as a violation
+     * @param max_violations number of consecutive violations before the action is taken
+     * @param action         action to take on slow consumer
+     * @param listener       listener that gets notified when action is taken
+     * @throws IllegalArgumentException thrown if any of parameters is invalid
+     */
+    public SlowConsumerPolicy(
+            @Nonnull Duration threshold,
+            @Nonnegative int max_violations,
+            @Nonnull Action action,
+            @Nonnull Listener listener
+    ) throws IllegalArgumentException{
+
+        // Assert parameters
+        Validation.assertNonnull(threshold, "threshold");
+        Validation.assertNaturalNumber(max_violations, "max_violations");
+        Validation.assertNonnull(action, "action");
+        Validation.assertNonnull(listener, "listener");
+        if(threshold.isNegative() || threshold.isZero()){
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+
+        // Assign it
+        this.threshold_nanos = threshold.toNanos();
+        this.max_violations = max_violations;
+        this.action = action;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns execution time threshold in nanoseconds
+     *
+     * @return threshold in nanoseconds
+     */
+    @Nonnegative
+    long getThresholdNanos(){
+        return this.threshold_nanos;
+    }
+
+    /**
+     * Returns number of consecutive violations before the action is taken
+     *
+     * @return number of violations
+     */
+    @Nonnegative
+    int getMaxViolations(){
+        return this.max_violations;
+    }
+
+    /**
+     * Returns action to take
+     *
+     * @return action
+     */
+    @Nonnull
+    Action getAction(){
+        return this.action;
+    }
+
+    /**
+     * Returns listener
+     *
+     * @return listener
+     */
+    @Nonnull
+    Listener getListener(){
+        return this.listener;
+    }
+
+    /** Action taken against slow consumer */
+    public enum Action{
+
+        /** Moves consumer to its own executor so it no longer delays other consumers */
+        ISOLATE,
+
+        /** Cancels the consumer's subscription */
+        CANCEL
+    }
+
+    /** Listener that gets notified when action is taken against slow consumer */
+    @FunctionalInterface
+    public interface Listener{
+
+        /**
+         * Called when action is taken against slow consumer
+         *
+         * @param channel       channel name
+         * @param subscription  subscription of the slow consumer
+         * @param action        action that was taken
+         * @param elapsed_nanos execution time of the accept call that triggered the action in nanoseconds, zero if an
+         *                      isolated consumer was canceled because too many messages were waiting for it
+         */
+        void onSlowConsumer(
+                @Nonnull String channel,
+                @Nonnull Subscription subscription,
+                @Nonnull Action action,
+                @Nonnegative long elapsed_nanos
+        );
+    }
+}
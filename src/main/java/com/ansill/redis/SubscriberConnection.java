@@ -0,0 +1,147 @@
+package com.ansill.redis;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/** Connection in subscribe mode that the manager sends SUBSCRIBE and UNSUBSCRIBE commands over */
+interface SubscriberConnection{
+
+    /**
+     * Subscribes to channels
+     *
+     * @param channels channel names
+     */
+    void subscribe(@Nonnull String... channels);
+
+    /**
+     * Unsubscribes from channels
+     *
+     * @param channels channel names
+     */
+    void unsubscribe(@Nonnull String... channels);
+
+    /**
+     * Subscribes to glob-style patterns
+     *
+     * @param patterns patterns
+     */
+    void psubscribe(@Nonnull String... patterns);
+
+    /**
+     * Unsubscribes from patterns
+     *
+     * @param patterns patterns
+     */
+    void punsubscribe(@Nonnull String... patterns);
+
+    /**
+     * Sends PING, {@link Listener#onPong(String)} will be called with the token once the server replies
+     *
+     * @param token token that the reply carries
+     */
+    void ping(@Nonnull String token);
+
+    /**
+     * Checks if payloads passed to the listener are views over buffers that are reused once the listener returns
+     *
+     * @return true if payloads are reused, false if every payload is a buffer of its own
+     */
+    default boolean reusesBuffers(){
+        return true;
+    }
+
+    /** Closes the connection, {@link Listener#onClosed()} will be called once the connection is closed */
+    void close();
+
+    /**
+     * Drops the connection without waiting for the server, for connections that stopped responding.
+     * {@link Listener#onClosed()} will be called once the connection is dropped
+     */
+    void abort();
+
+    /** Factory of subscriber connections */
+    @FunctionalInterface
+    interface Factory{
+
+        /**
+         * Creates connection and subscribes to the initial channel
+         *
+         * @param channel  channel to subscribe initially
+         * @param listener listener of events on the connection
+         * @return connection
+         */
+        @Nonnull
+        SubscriberConnection create(@Nonnull String channel, @Nonnull Listener listener);
+    }
+
+    /**
+     * Listener of events on the connection. Methods are called on the thread that reads the connection, which
+     * connections on an event loop share with each other, so they must never block
+     */
+    interface Listener{
+
+        /**
+         * Called when a message is received
+         *
+         * @param channel channel name
+         * @param payload payload, may be a view over a buffer that is reused once this method returns
+         */
+        void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload);
+
+        /**
+         * Called when a message is received through a pattern subscription, once per matching pattern
+         *
+         * @param pattern pattern that matched the channel
+         * @param channel channel name
+         * @param payload payload, may be a view over a buffer that is reused once this method returns
+         */
+        void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload);
+
+        /**
+         * Called when the server acknowledges a subscription to a channel
+         *
+         * @param channel channel name
+         */
+        void onSubscribe(@Nonnull String channel);
+
+        /**
+         * Called when the server acknowledges a subscription to a pattern
+         *
+         * @param pattern pattern
+         */
+        void onPSubscribe(@Nonnull String pattern);
+
+        /**
+         * Called when the server acknowledges unsubscribing from a channel, no message of the channel follows
+         *
+         * @param channel channel name
+         */
+        void onUnsubscribe(@Nonnull String channel);
+
+        /**
+         * Called when the server acknowledges unsubscribing from a pattern, no message of the pattern follows
+         *
+         * @param pattern pattern
+         */
+        void onPUnsubscribe(@Nonnull String pattern);
+
+        /**
+         * Called when the server replies to PING
+         *
+         * @param token token of the PING
+         */
+        void onPong(@Nonnull String token);
+
+        /**
+         * Called when the connection has moved to another server and every subscription has been sent again
+         *
+         * @param endpoint      endpoint of the server
+         * @param elapsed_nanos time since the failure was detected in nanoseconds
+         */
+        void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos);
+
+        /** Called once when the connection has been closed */
+        void onClosed();
+    }
+}
@@ -1,34 +1,52 @@
 package com.ansill.redis;
 
 import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-/** Subscription reference that allows users to unsubscribe later on */
+/**
+ * Subscription reference that allows users to unsubscribe later on. Cancellation is atomic, so racing cancels remove
+ * the consumer only once
+ */
 @SuppressWarnings("unused")
 public class Subscription implements AutoCloseable{
 
-    /** Runnable that closes the subscription */
+    /** Manager that owns the subscription */
     @Nonnull
-    private final Runnable closing_runnable;
+    private final JedisPubSubManager manager;
+
+    /** Channel name or pattern */
+    @Nonnull
+    private final String channel;
+
+    /** Flag whether channel is a pattern */
+    private final boolean pattern;
+
+    /** Id of the consumer in the channel */
+    private final int id;
 
     /** Cancellation flag */
-    private boolean is_canceled = false;
+    @Nonnull
+    private final AtomicBoolean canceled = new AtomicBoolean(false);
 
     /**
      * Subscription constructor
      *
-     * @param closing_runnable runner that runs at closing event
+     * @param manager manager that owns the subscription
+     * @param channel channel name or pattern
+     * @param pattern true if channel is a pattern
+     * @param id      id of the consumer in the channel
      */
-    Subscription(@Nonnull Runnable closing_runnable){
-        this.closing_runnable = closing_runnable;
+    Subscription(@Nonnull JedisPubSubManager manager, @Nonnull String channel, boolean pattern, int id){
+        this.manager = manager;
+        this.channel = channel;
+        this.pattern = pattern;
+        this.id = id;
     }
 
     /** Cancels the subscription */
     @SuppressWarnings("WeakerAccess")
     public void cancel(){
-        if(!is_canceled){
-            this.is_canceled = true;
-            this.closing_runnable.run();
-        }
+        if(this.claim()) this.manager.remove(this);
     }
 
     @Override
@@ -42,6 +60,53 @@ public class Subscription implements AutoCloseable{
      * @return true if canceled, false if it's not canceled
      */
     public boolean isCanceled(){
-        return this.is_canceled;
+        return this.canceled.get();
+    }
+
+    /**
+     * Marks the subscription as canceled without removing the consumer
+     *
+     * @return true if this call canceled it, false if it was already canceled
+     */
+    boolean claim(){
+        return this.canceled.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns manager that owns the subscription
+     *
+     * @return manager
+     */
+    @Nonnull
+    JedisPubSubManager getManager(){
+        return this.manager;
+    }
+
+    /**
+     * Returns channel name or pattern
+     *
+     * @return channel name or pattern
+     */
+    @Nonnull
+    String getChannel(){
+        return this.channel;
+    }
+
+    /**
+     * Checks if channel is a pattern
+     *
+     * @return true if channel is a pattern
+     */
+    boolean isPattern(){
+        return this.pattern;
+    }
+
+    /**
+     * Returns id of the consumer in the channel
+     *
+     * @return id
+     */
+    int getId(){
+        return this.id;
     }
 }
@@ -1,16 +1,24 @@
 package com.ansill.redis;
 
 import javax.annotation.Nonnull;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Class that keeps tracks of unique ids - supports ((2^32) - 1) many ids */
+/** Class that keeps tracks of unique ids - supports ((2^32) - 1) many ids, drawing and surrendering don't lock */
 class UniqueIdPool{
 
+    /** Maximum number of claimed ids */
+    private static final long CAPACITY = (1L << 32) - 1;
+
     /** Pool of claimed ids */
     @Nonnull
-    private final Set<Integer> pool = new HashSet<>();
+    private final Set<Integer> pool = ConcurrentHashMap.newKeySet();
+
+    /** Number of claimed and reserved ids, an id is reserved before it's claimed so the pool never overfills */
+    @Nonnull
+    private final AtomicLong claimed = new AtomicLong(0);
 
     /** Flipping counter */
     @Nonnull
@@ -26,10 +34,13 @@ class UniqueIdPool{
      * @return unique id
      */
     @SuppressWarnings("StatementWithEmptyBody")
-    synchronized int draw(){
+    int draw(){
 
-        // Throw if pool is full
-        if(this.pool.size() == Integer.MAX_VALUE) throw new RuntimeException("Pool is full");
+        // Reserve a place, throw if pool is full
+        if(this.claimed.incrementAndGet() > CAPACITY){
+            this.claimed.decrementAndGet();
+            throw new RuntimeException("Pool is full");
+        }
 
         // Declare id
         int id;
@@ -48,7 +59,9 @@ class UniqueIdPool{
      * @return true if id is valid, false if it has never been claimed
      */
     @SuppressWarnings("UnusedReturnValue")
-    synchronized boolean surrender(int id){
-        return this.pool.remove(id);
+    boolean surrender(int id){
+        if(!this.pool.remove(id)) return false;
+        this.claimed.decrementAndGet();
+        return true;
     }
 }
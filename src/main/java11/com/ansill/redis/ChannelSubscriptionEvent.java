@@ -0,0 +1,23 @@
+package com.ansill.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Event emitted when a channel is subscribed or unsubscribed on the connection */
+@Name("com.ansill.redis.ChannelSubscription")
+@Label("Channel Subscription")
+@Category({"Redis", "PubSub"})
+@Description("SUBSCRIBE or UNSUBSCRIBE sent by JedisPubSubManager")
+final class ChannelSubscriptionEvent extends Event{
+
+    /** Channel name */
+    @Label("Channel")
+    String channel;
+
+    /** True if subscribed, false if unsubscribed */
+    @Label("Subscribed")
+    boolean subscribed;
+}
@@ -0,0 +1,36 @@
+package com.ansill.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Event emitted when a payload has been compressed or decompressed */
+@Name("com.ansill.redis.Compression")
+@Label("Payload Compression")
+@Category({"Redis", "PubSub"})
+@Description("Time spent compressing a published payload or decompressing a received one")
+@StackTrace(false)
+final class CompressionEvent extends Event{
+
+    /** Channel name, only known when decompressing */
+    @Label("Channel")
+    String channel;
+
+    /** Operation */
+    @Label("Operation")
+    String operation;
+
+    /** Size of payload */
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    /** Size of compressed payload */
+    @Label("Compressed Size")
+    @DataAmount
+    int compressed_size;
+}
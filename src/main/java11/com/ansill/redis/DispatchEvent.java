@@ -0,0 +1,21 @@
+package com.ansill.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Event emitted when a single consumer has accepted a message */
+@Name("com.ansill.redis.Dispatch")
+@Label("Consumer Dispatch")
+@Category({"Redis", "PubSub"})
+@Description("Time spent by a single consumer accepting a message")
+@StackTrace(false)
+final class DispatchEvent extends Event{
+
+    /** Channel name */
+    @Label("Channel")
+    String channel;
+}
@@ -0,0 +1,161 @@
+package com.ansill.redis;
+
+import jdk.jfr.EventType;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/** Flight recorder event hooks that emit JDK Flight Recorder events */
+final class Events{
+
+    /** Message received event type */
+    @Nonnull
+    private static final EventType MESSAGE_RECEIVED = EventType.getEventType(MessageReceivedEvent.class);
+
+    /** Dispatch event type */
+    @Nonnull
+    private static final EventType DISPATCH = EventType.getEventType(DispatchEvent.class);
+
+    /** Channel subscription event type */
+    @Nonnull
+    private static final EventType CHANNEL_SUBSCRIPTION = EventType.getEventType(ChannelSubscriptionEvent.class);
+
+    /** Lifecycle event type */
+    @Nonnull
+    private static final EventType LIFECYCLE = EventType.getEventType(LifecycleEvent.class);
+
+    /** Compression event type */
+    @Nonnull
+    private static final EventType COMPRESSION = EventType.getEventType(CompressionEvent.class);
+
+    /** Prevents instantiation */
+    private Events(){
+    }
+
+    /**
+     * Records that a message was received
+     *
+     * @param channel channel name
+     * @param size    size of message in bytes
+     */
+    static void messageReceived(@Nonnull String channel, @Nonnegative int size){
+        if(!MESSAGE_RECEIVED.isEnabled()) return;
+        MessageReceivedEvent event = new MessageReceivedEvent();
+        event.channel = channel;
+        event.size = size;
+        event.commit();
+    }
+
+    /**
+     * Begins dispatch to a single consumer
+     *
+     * @return event token to pass to {@link #endDispatch(Object, String)}, may be null
+     */
+    @Nullable
+    static Object beginDispatch(){
+        if(!DISPATCH.isEnabled()) return null;
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends dispatch to a single consumer
+     *
+     * @param token   event token from {@link #beginDispatch()}
+     * @param channel channel name
+     */
+    static void endDispatch(@Nullable Object token, @Nonnull String channel){
+        if(token == null) return;
+        DispatchEvent event = (DispatchEvent) token;
+        event.end();
+        if(!event.shouldCommit()) return;
+        event.channel = channel;
+        event.commit();
+    }
+
+    /**
+     * Records that a channel was subscribed or unsubscribed on the connection
+     *
+     * @param channel    channel name
+     * @param subscribed true if subscribed, false if unsubscribed
+     */
+    static void channelSubscription(@Nonnull String channel, boolean subscribed){
+        if(!CHANNEL_SUBSCRIPTION.isEnabled()) return;
+        ChannelSubscriptionEvent event = new ChannelSubscriptionEvent();
+        event.channel = channel;
+        event.subscribed = subscribed;
+        event.commit();
+    }
+
+    /**
+     * Begins manager startup or close
+     *
+     * @return event token to pass to {@link #endLifecycle(Object, String, String)}, may be null
+     */
+    @Nullable
+    static Object beginLifecycle(){
+        if(!LIFECYCLE.isEnabled()) return null;
+        LifecycleEvent event = new LifecycleEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends manager startup or close
+     *
+     * @param token    event token from {@link #beginLifecycle()}
+     * @param endpoint endpoint of the manager
+     * @param phase    lifecycle phase
+     */
+    static void endLifecycle(@Nullable Object token, @Nonnull String endpoint, @Nonnull String phase){
+        if(token == null) return;
+        LifecycleEvent event = (LifecycleEvent) token;
+        event.end();
+        if(!event.shouldCommit()) return;
+        event.endpoint = endpoint;
+        event.phase = phase;
+        event.commit();
+    }
+
+    /**
+     * Begins compression or decompression of a payload
+     *
+     * @return event token to pass to {@link #endCompression(Object, String, String, int, int)}, may be null
+     */
+    @Nullable
+    static Object beginCompression(){
+        if(!COMPRESSION.isEnabled()) return null;
+        CompressionEvent event = new CompressionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends compression or decompression of a payload
+     *
+     * @param token           event token from {@link #beginCompression()}
+     * @param channel         channel name, null if not known
+     * @param operation       compress, decompress or skip if compression didn't pay off
+     * @param size            size of payload in bytes
+     * @param compressed_size size of compressed payload in bytes
+     */
+    static void endCompression(
+            @Nullable Object token,
+            @Nullable String channel,
+            @Nonnull String operation,
+            @Nonnegative int size,
+            @Nonnegative int compressed_size
+    ){
+        if(token == null) return;
+        CompressionEvent event = (CompressionEvent) token;
+        event.end();
+        if(!event.shouldCommit()) return;
+        event.channel = channel;
+        event.operation = operation;
+        event.size = size;
+        event.compressed_size = compressed_size;
+        event.commit();
+    }
+}
@@ -0,0 +1,23 @@
+package com.ansill.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Event emitted when the manager has started up or closed */
+@Name("com.ansill.redis.Lifecycle")
+@Label("Manager Lifecycle")
+@Category({"Redis", "PubSub"})
+@Description("Startup or close of JedisPubSubManager")
+final class LifecycleEvent extends Event{
+
+    /** Endpoint of the manager */
+    @Label("Endpoint")
+    String endpoint;
+
+    /** Lifecycle phase */
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,27 @@
+package com.ansill.redis;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Event emitted when the manager receives a message */
+@Name("com.ansill.redis.MessageReceived")
+@Label("Message Received")
+@Category({"Redis", "PubSub"})
+@Description("Message received by JedisPubSubManager")
+@StackTrace(false)
+final class MessageReceivedEvent extends Event{
+
+    /** Channel name */
+    @Label("Channel")
+    String channel;
+
+    /** Size of message */
+    @Label("Size")
+    @DataAmount
+    int size;
+}
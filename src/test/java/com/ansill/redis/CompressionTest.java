@@ -0,0 +1,136 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionTest{
+
+    static String document(int entries){
+        StringBuilder builder = new StringBuilder("[");
+        for(int i = 0; i < entries; i++){
+            if(i > 0) builder.append(',');
+            builder.append("{\"id\":").append(i).append(",\"name\":\"entry ").append(i).append("\",\"active\":true}");
+        }
+        return builder.append(']').toString();
+    }
+
+    static ByteBuffer direct(byte[] bytes){
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @DisplayName("Round trip test")
+    @Test
+    void roundTripTest(){
+        PayloadCompressor compressor = new PayloadCompressor(1024);
+        Decompressor decompressor = new Decompressor();
+
+        // Compress a document
+        byte[] document = document(5000).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compressor.compress(document);
+        assertTrue(compressed.length < document.length / 4);
+        assertEquals(document.length, compressor.getUncompressedBytes());
+        assertEquals(compressed.length, compressor.getCompressedBytes());
+        assertTrue(compressor.getRatio() < 0.25);
+        assertTrue(compressor.getCompressionNanos() > 0);
+
+        // Inflate it from both kinds of buffers
+        for(ByteBuffer payload : Arrays.asList(ByteBuffer.wrap(compressed), direct(compressed))){
+            Message message = decompressor.decompress(new Message("channel", payload));
+            assertEquals("channel", message.getChannel());
+            assertEquals(document.length, message.getSize());
+            assertEquals(document(5000), message.getText());
+        }
+
+        // Smaller documents reuse the buffers
+        byte[] smaller = document(100).getBytes(StandardCharsets.UTF_8);
+        Message message = decompressor.decompress(new Message("channel", ByteBuffer.wrap(compressor.compress(smaller))));
+        assertEquals(document(100), message.getText());
+    }
+
+    @DisplayName("Not compressed test")
+    @Test
+    void notCompressedTest(){
+        PayloadCompressor compressor = new PayloadCompressor(1024);
+        Decompressor decompressor = new Decompressor();
+
+        // Payloads below threshold are left alone
+        byte[] small = "hello".getBytes(StandardCharsets.UTF_8);
+        assertSame(small, compressor.compress(small));
+
+        // Payloads that don't compress are left alone
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        assertSame(random, compressor.compress(random));
+        assertEquals(1, compressor.getRatio());
+
+        // Plain messages are delivered as they are
+        Message plain = new Message("channel", ByteBuffer.wrap(random));
+        assertSame(plain, decompressor.decompress(plain));
+
+        // Payloads that look compressed are compressed anyway so they round trip
+        byte[] marked = Arrays.copyOf(PayloadCompressor.MAGIC, PayloadCompressor.HEADER_SIZE + 3);
+        byte[] compressed = compressor.compress(marked);
+        assertNotSame(marked, compressed);
+        Message message = decompressor.decompress(new Message("channel", ByteBuffer.wrap(compressed)));
+        byte[] bytes = new byte[message.getSize()];
+        message.getPayload().get(bytes);
+        assertArrayEquals(marked, bytes);
+
+        // Corrupt or truncated payloads are delivered as they are
+        byte[] document = compressor.compress(document(1000).getBytes(StandardCharsets.UTF_8));
+        Message truncated = new Message("channel", ByteBuffer.wrap(Arrays.copyOf(document, document.length - 10)));
+        assertSame(truncated, decompressor.decompress(truncated));
+        byte[] corrupt = document.clone();
+        corrupt[PayloadCompressor.HEADER_SIZE] ^= 0x55;
+        Message garbage = new Message("channel", ByteBuffer.wrap(corrupt));
+        assertSame(garbage, decompressor.decompress(garbage));
+        byte[] lying = document.clone();
+        lying[PayloadCompressor.HEADER_SIZE - 1]++;
+        Message wrong_size = new Message("channel", ByteBuffer.wrap(lying));
+        assertSame(wrong_size, decompressor.decompress(wrong_size));
+    }
+
+    @DisplayName("Forged size test")
+    @Test
+    void forgedSizeTest(){
+        PayloadCompressor compressor = new PayloadCompressor(1024);
+        Decompressor decompressor = new Decompressor();
+
+        // Tiny frame that claims the largest size is delivered as it is
+        byte[] forged = Arrays.copyOf(PayloadCompressor.MAGIC, PayloadCompressor.HEADER_SIZE + 8);
+        forged[PayloadCompressor.MAGIC.length] = 0x1F;
+        Message message = new Message("channel", ByteBuffer.wrap(forged));
+        assertSame(message, decompressor.decompress(message));
+
+        // Highly compressible payloads still inflate as the buffer grows
+        byte[] zeros = new byte[4 * 1024 * 1024];
+        byte[] compressed = compressor.compress(zeros);
+        assertTrue(compressed.length < zeros.length / 500);
+        Message inflated = decompressor.decompress(new Message("channel", ByteBuffer.wrap(compressed)));
+        byte[] bytes = new byte[inflated.getSize()];
+        inflated.getPayload().get(bytes);
+        assertArrayEquals(zeros, bytes);
+    }
+
+    @DisplayName("Invalid parameters test")
+    @Test
+    void invalidParametersTest(){
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCompressor(-1));
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCompressor(1024, 10));
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCompressor(1024, 0));
+    }
+}
@@ -0,0 +1,112 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class DispatchAllocationTest{
+
+    @DisplayName("Allocation per dispatched message benchmark")
+    @Tag("load")
+    @Test
+    void allocationBenchmark(){
+
+        // Allocation counter is HotSpot specific
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        try(ServerUtility.Server server = ServerUtility.getServer()){
+
+            // Get manager whose listener can be fed directly
+            AtomicReference<SubscriberConnection.Listener> listener = new AtomicReference<>();
+            try(JedisPubSubManager manager = new JedisPubSubManager(
+                    server.getHostname(),
+                    server.getPort(),
+                    (channel, inner_listener) -> {
+                        listener.set(inner_listener);
+                        return new JedisSubscriberConnection(
+                                server.getHostname(),
+                                server.getPort(),
+                                channel,
+                                inner_listener
+                        );
+                    }
+            )){
+                assertNotNull(listener.get());
+
+                // Binary consumer that touches every payload byte
+                long[] sum = new long[1];
+                AtomicInteger count = new AtomicInteger();
+                manager.subscribeBinary("benchmark", payload -> {
+                    for(int i = payload.position(); i < payload.limit(); i++) sum[0] += payload.get(i);
+                    count.incrementAndGet();
+                });
+
+                // Payload that is reused like a transport's read buffer would be
+                ByteBuffer payload = ByteBuffer.wrap(new byte[128]);
+
+                // Warm up
+                feed(listener.get(), payload, 200_000, count);
+
+                // Measure it on every thread since the lanes may move the channel between threads, escape analysis
+                // may hide some allocations in a loop like this, so a transport thread may see a little more
+                int messages = 500_000;
+                long[] threads = bean.getAllThreadIds();
+                long before = sum(allocations.getThreadAllocatedBytes(threads));
+                feed(listener.get(), payload, messages, count);
+                long allocated = sum(allocations.getThreadAllocatedBytes(threads)) - before;
+                double per_message = (double) allocated / messages;
+                System.out.println("Dispatch allocated " + allocated + " bytes for " + messages + " messages, " +
+                                   per_message + " bytes per message (checksum " + sum[0] + ")");
+
+                // Every message reached the consumer, and only the message, its hand-off to the lane and the
+                // consumer's buffer were allocated
+                assertEquals(700_000, count.get());
+                assertEquals(0, manager.getDroppedMessageCount());
+                assertTrue(per_message < 192, "Dispatch allocated " + per_message + " bytes per message");
+            }
+        }
+    }
+
+    private static void feed(
+            @Nonnull SubscriberConnection.Listener listener,
+            @Nonnull ByteBuffer payload,
+            int messages,
+            @Nonnull AtomicInteger count
+    ){
+
+        // Feed it in chunks that fit in the lane so nothing is dropped
+        for(int sent = 0; sent < messages; ){
+            int chunk = Math.min(1000, messages - sent);
+            int expected = count.get() + chunk;
+            for(int i = 0; i < chunk; i++) listener.onMessage("benchmark", payload);
+            sent += chunk;
+            awaitCount(count, expected);
+        }
+    }
+
+    private static long sum(@Nonnull long[] values){
+        long sum = 0;
+        for(long value : values) if(value > 0) sum += value;
+        return sum;
+    }
+
+    private static void awaitCount(@Nonnull AtomicInteger count, int expected){
+        long deadline = System.currentTimeMillis() + 30_000;
+        while(count.get() < expected && System.currentTimeMillis() < deadline) Thread.yield();
+    }
+}
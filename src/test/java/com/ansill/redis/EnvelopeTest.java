@@ -0,0 +1,74 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EnvelopeTest{
+
+    static List<String> unpack(byte[] payload){
+        List<String> messages = new ArrayList<>();
+        Message message = new Message("channel", ByteBuffer.wrap(payload));
+        if(!Envelope.unpack(message, unpacked -> messages.add(unpacked.getText()))) return null;
+        return messages;
+    }
+
+    @DisplayName("Round trip test")
+    @Test
+    void roundTripTest(){
+
+        // Pack messages, including an empty one, into a small envelope so it has to grow
+        Envelope envelope = new Envelope(8);
+        List<String> expected = Arrays.asList("first", "", "third\r\n", "\u00e9t\u00e9");
+        for(String message : expected) envelope.add(message.getBytes(StandardCharsets.UTF_8));
+        assertEquals(expected.size(), envelope.getCount());
+
+        // Unpack it
+        byte[] bytes = envelope.toBytes();
+        assertEquals(envelope.getSize(), bytes.length);
+        assertEquals(expected, unpack(bytes));
+
+        // Unpack it from a direct buffer with an offset like the decoder hands out
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        direct.position(3);
+        direct.put(bytes);
+        direct.position(3);
+        List<String> messages = new ArrayList<>();
+        assertTrue(Envelope.unpack(
+                new Message("channel", direct.asReadOnlyBuffer()),
+                unpacked -> messages.add(unpacked.getText())
+        ));
+        assertEquals(expected, messages);
+    }
+
+    @DisplayName("Not an envelope test")
+    @Test
+    void notEnvelopeTest(){
+
+        // Plain messages
+        assertNull(unpack("hello".getBytes(StandardCharsets.UTF_8)));
+        assertNull(unpack(new byte[0]));
+
+        // Header with lengths that don't add up is delivered as it is
+        Envelope envelope = new Envelope(64);
+        envelope.add("message".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = envelope.toBytes();
+        assertNull(unpack(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertNull(unpack(Arrays.copyOf(bytes, bytes.length + 1)));
+        bytes[Envelope.HEADER_SIZE] = (byte) 0x80;
+        assertNull(unpack(bytes));
+
+        // Empty envelope holds no messages
+        assertEquals(new ArrayList<String>(), unpack(new Envelope(0).toBytes()));
+        assertNull(unpack(Arrays.copyOf(new Envelope(0).toBytes(), Envelope.HEADER_SIZE - 1)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventLoopTest{
+
+    @DisplayName("Failing task on close test")
+    @Test
+    void failingTaskOnCloseTest() throws IOException, InterruptedException{
+
+        // Get loop and a channel that can be made ready
+        EventLoop loop = new EventLoop("EventLoopTest");
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        CountDownLatch ran = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+
+        // Once ready, close the loop and queue tasks so they are left for the final run
+        loop.register(pipe.source(), SelectionKey.OP_READ, new EventLoop.Handler(){
+            @Override
+            public void onRegistered(@Nonnull SelectionKey key){
+            }
+
+            @Override
+            public void onReady(@Nonnull SelectionKey key){
+                loop.close();
+                loop.execute(() -> {
+                    throw new IllegalStateException("Failing task");
+                });
+                loop.execute(ran::countDown);
+            }
+
+            @Override
+            public void onClosed(){
+                closed.countDown();
+            }
+        });
+        pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+
+        // Task after the failing one still runs, and the handler hears about the close
+        try{
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        }finally{
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+}
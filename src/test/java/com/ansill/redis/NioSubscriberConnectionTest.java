@@ -0,0 +1,43 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioSubscriberConnectionTest{
+
+    @DisplayName("Unsubscribe on close test")
+    @Test
+    void unsubscribeOnCloseTest() throws InterruptedException{
+        try(ServerUtility.Server server = ServerUtility.getServer(); EventLoopGroup group = new EventLoopGroup()){
+
+            // Connection with a channel and a pattern
+            SentinelRelayTest.Recorder recorder = new SentinelRelayTest.Recorder();
+            NioSubscriberConnection connection = new NioSubscriberConnection(
+                    server.getHostname(),
+                    server.getPort(),
+                    "initial",
+                    group,
+                    recorder
+            );
+            connection.subscribe("channel");
+            connection.psubscribe("pattern*");
+
+            // Server acknowledges every unsubscribe before the connection goes away
+            connection.close();
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!recorder.closed && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(recorder.closed);
+            assertEquals(
+                    new HashSet<>(Arrays.asList("initial", "channel", "pattern*")),
+                    new HashSet<>(recorder.unsubscribed)
+            );
+            assertTrue(recorder.pongs.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PubSubFrameDecoderTest{
+
+    static byte[] frame(String... elements){
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] header = ("*" + elements.length + "\r\n").getBytes(StandardCharsets.UTF_8);
+        stream.write(header, 0, header.length);
+        for(String element : elements){
+            byte[] bytes = element.startsWith(":") ?
+                           (element + "\r\n").getBytes(StandardCharsets.UTF_8) :
+                           ("$" + element.getBytes(StandardCharsets.UTF_8).length + "\r\n" + element + "\r\n").getBytes(
+                                   StandardCharsets.UTF_8);
+            stream.write(bytes, 0, bytes.length);
+        }
+        return stream.toByteArray();
+    }
+
+    static void feed(PubSubFrameDecoder decoder, byte[] bytes, int chunk, PubSubFrameDecoder.Handler handler){
+        for(int offset = 0; offset < bytes.length; offset += chunk){
+            int length = Math.min(chunk, bytes.length - offset);
+            int written = 0;
+            while(written < length){
+                ByteBuffer buffer = decoder.buffer();
+                int size = Math.min(buffer.remaining(), length - written);
+                buffer.put(bytes, offset + written, size);
+                written += size;
+                decoder.decode(handler);
+            }
+        }
+    }
+
+    static class Recorder implements PubSubFrameDecoder.Handler{
+
+        final List<String> channels = new ArrayList<>();
+
+        final List<String> messages = new ArrayList<>();
+
+        final List<String> errors = new ArrayList<>();
+
+        final List<String> acknowledgments = new ArrayList<>();
+
+        final List<String> pongs = new ArrayList<>();
+
+        @Override
+        public void onMessage(String channel, ByteBuffer payload){
+            assertTrue(payload.isReadOnly());
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            this.channels.add(channel);
+            this.messages.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, ByteBuffer payload){
+            this.onMessage(pattern + " " + channel, payload);
+        }
+
+        @Override
+        public void onSubscribe(String channel){
+            this.acknowledgments.add(channel);
+        }
+
+        @Override
+        public void onPSubscribe(String pattern){
+            this.acknowledgments.add("p " + pattern);
+        }
+
+        @Override
+        public void onUnsubscribe(String channel){
+            this.acknowledgments.add("u " + channel);
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern){
+            this.acknowledgments.add("pu " + pattern);
+        }
+
+        @Override
+        public void onPong(String token){
+            this.pongs.add(token);
+        }
+
+        @Override
+        public void onError(String error){
+            this.errors.add(error);
+        }
+    }
+
+    @DisplayName("Frames split at every byte test")
+    @Test
+    void splitFramesTest(){
+        PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+        String channel = new String("channel");
+        decoder.register(channel);
+
+        // Set up stream
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for(byte[] frame : new byte[][]{
+                frame("subscribe", "channel", ":1"),
+                frame("message", "channel", "hello!"),
+                frame("message", "other", ""),
+                "-ERR something\r\n".getBytes(StandardCharsets.UTF_8),
+                frame("message", "channel", "\u00e9t\u00e9 \r\n"),
+                frame("psubscribe", "chan*", ":2"),
+                frame("pmessage", "chan*", "channel", "pattern!"),
+                frame("pong", "token"),
+                frame("pong", ""),
+                frame("unsubscribe", "channel", ":1"),
+                frame("punsubscribe", "chan*", ":0")
+        }){
+            stream.write(frame, 0, frame.length);
+        }
+
+        // Feed it a byte at a time
+        Recorder recorder = new Recorder();
+        feed(decoder, stream.toByteArray(), 1, recorder);
+
+        // Assert it
+        assertEquals(4, recorder.messages.size());
+        assertEquals("hello!", recorder.messages.get(0));
+        assertEquals("", recorder.messages.get(1));
+        assertEquals("\u00e9t\u00e9 \r\n", recorder.messages.get(2));
+        assertSame(channel, recorder.channels.get(0));
+        assertEquals("other", recorder.channels.get(1));
+        assertEquals("pattern!", recorder.messages.get(3));
+        assertEquals("chan* channel", recorder.channels.get(3));
+        assertEquals(4, recorder.acknowledgments.size());
+        assertSame(channel, recorder.acknowledgments.get(0));
+        assertEquals("p chan*", recorder.acknowledgments.get(1));
+        assertEquals("u channel", recorder.acknowledgments.get(2));
+        assertEquals("pu chan*", recorder.acknowledgments.get(3));
+        assertEquals(1, recorder.errors.size());
+        assertEquals("ERR something", recorder.errors.get(0));
+        assertEquals(2, recorder.pongs.size());
+        assertEquals("token", recorder.pongs.get(0));
+        assertEquals("", recorder.pongs.get(1));
+    }
+
+    @DisplayName("Frame larger than buffer test")
+    @Test
+    void largeFrameTest(){
+        PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+        decoder.register("channel");
+
+        // Set up a message that doesn't fit the initial buffer
+        StringBuilder builder = new StringBuilder();
+        while(builder.length() < 100_000) builder.append(Math.random());
+        String message = builder.toString();
+
+        // Feed it
+        Recorder recorder = new Recorder();
+        feed(decoder, frame("message", "channel", message), 4096, recorder);
+
+        // Assert it
+        assertEquals(1, recorder.messages.size());
+        assertEquals(message, recorder.messages.get(0));
+    }
+
+    @DisplayName("Waiting frame test")
+    @Test
+    void waitingFrameTest(){
+        PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+        decoder.register("channel");
+
+        // Feed the header of a frame that is much larger than the buffer
+        StringBuilder builder = new StringBuilder();
+        while(builder.length() < 1_000_000) builder.append(Math.random());
+        String message = builder.toString();
+        byte[] frame = frame("message", "channel", message);
+        Recorder recorder = new Recorder();
+        feed(decoder, Arrays.copyOf(frame, 1024), 1024, recorder);
+
+        // Buffer is grown to the size of the frame right away, and the rest of the frame completes it
+        assertTrue(decoder.buffer().capacity() >= frame.length);
+        assertTrue(recorder.messages.isEmpty());
+        feed(decoder, Arrays.copyOfRange(frame, 1024, frame.length), 4096, recorder);
+        assertEquals(Collections.singletonList(message), recorder.messages);
+    }
+
+    @DisplayName("Invalid stream test")
+    @Test
+    void invalidStreamTest(){
+        PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+        decoder.buffer().put("?what\r\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalStateException.class, () -> decoder.decode(new Recorder()));
+    }
+
+    @DisplayName("Allocation per message benchmark")
+    @Tag("load")
+    @Test
+    void allocationBenchmark(){
+
+        // Allocation counter is HotSpot specific
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        // Set up decoder and a batch of frames on subscribed channels
+        PubSubFrameDecoder decoder = new PubSubFrameDecoder();
+        String[] channels = new String[16];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for(int i = 0; i < channels.length; i++){
+            channels[i] = "channel" + i;
+            decoder.register(channels[i]);
+        }
+        StringBuilder payload = new StringBuilder();
+        while(payload.length() < 128) payload.append('x');
+        int batch = 1000;
+        for(int i = 0; i < batch; i++){
+            byte[] frame = frame("message", channels[i % channels.length], payload.toString());
+            stream.write(frame, 0, frame.length);
+        }
+        byte[] bytes = stream.toByteArray();
+
+        // Handler that touches every payload byte without allocating
+        long[] sum = new long[1];
+        PubSubFrameDecoder.Handler handler = new PubSubFrameDecoder.Handler(){
+            @Override
+            public void onMessage(String channel, ByteBuffer message){
+                for(int i = message.position(); i < message.limit(); i++) sum[0] += message.get(i);
+                sum[0] += channel.length();
+            }
+
+            @Override
+            public void onPMessage(String pattern, String channel, ByteBuffer message){
+                this.onMessage(channel, message);
+            }
+
+            @Override
+            public void onSubscribe(String channel){
+            }
+
+            @Override
+            public void onPSubscribe(String pattern){
+            }
+
+            @Override
+            public void onUnsubscribe(String channel){
+            }
+
+            @Override
+            public void onPUnsubscribe(String pattern){
+            }
+
+            @Override
+            public void onPong(String token){
+            }
+
+            @Override
+            public void onError(String error){
+                throw new IllegalStateException(error);
+            }
+        };
+
+        // Warm up
+        for(int i = 0; i < 200; i++) feed(decoder, bytes, 1500, handler);
+
+        // Measure it
+        int rounds = 500;
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < rounds; i++) feed(decoder, bytes, 1500, handler);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        double per_message = (double) allocated / ((long) rounds * batch);
+        System.out.println("PubSubFrameDecoder allocated " + allocated + " bytes for " + ((long) rounds * batch) +
+                           " messages, " + per_message + " bytes per message (checksum " + sum[0] + ")");
+
+        // Assert it
+        assertTrue(per_message < 1, "Decoder allocated " + per_message + " bytes per message");
+    }
+}
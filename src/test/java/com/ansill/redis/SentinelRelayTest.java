@@ -0,0 +1,227 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.HostAndPort;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SentinelRelayTest{
+
+    static ByteBuffer payload(String text){
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @DisplayName("Old connection test")
+    @Test
+    void oldConnectionTest() throws InterruptedException{
+
+        // Transport that remembers the listener of every connection and acknowledges the initial channel
+        List<SubscriberConnection.Listener> listeners = new CopyOnWriteArrayList<>();
+        SentinelSubscriberConnection.Transport transport = (hostname, port, channel, listener) -> {
+            listeners.add(listener);
+            listener.onSubscribe(channel);
+            return new FakeConnection(listener);
+        };
+
+        // Sentinel that can't be reached, so the connection stays on the same master
+        Recorder recorder = new Recorder();
+        SentinelSubscriberConnection connection = new SentinelSubscriberConnection(
+                "mymaster",
+                Collections.singletonList(new HostAndPort("localhost", 1)),
+                new HostAndPort("localhost", 6379),
+                transport,
+                "initial",
+                recorder
+        );
+        try{
+
+            // Drop the connection and wait for it to move
+            connection.abort();
+            long deadline = System.currentTimeMillis() + 5000;
+            while(recorder.failovers.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(1, recorder.failovers.size());
+            assertEquals(2, listeners.size());
+
+            // Old connection still delivers until its unsubscribe is acknowledged, but nothing gets through
+            listeners.get(0).onMessage("channel", payload("old"));
+            listeners.get(0).onPMessage("pattern", "channel", payload("old"));
+            listeners.get(0).onPong("old");
+            listeners.get(1).onMessage("channel", payload("new"));
+            assertEquals(Collections.singletonList("channel:new"), recorder.messages);
+            assertTrue(recorder.pongs.isEmpty());
+
+        }finally{
+            connection.close();
+        }
+        assertTrue(recorder.closed);
+    }
+
+    @DisplayName("Subscribe during move test")
+    @Test
+    void subscribeDuringMoveTest() throws InterruptedException{
+
+        // Transport whose second connection hangs until it's let go
+        List<FakeConnection> connections = new CopyOnWriteArrayList<>();
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch connect = new CountDownLatch(1);
+        SentinelSubscriberConnection.Transport transport = (hostname, port, channel, listener) -> {
+            if(!connections.isEmpty()){
+                connecting.countDown();
+                try{
+                    connect.await();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            }
+            FakeConnection connection = new FakeConnection(listener);
+            connections.add(connection);
+            listener.onSubscribe(channel);
+            return connection;
+        };
+        Recorder recorder = new Recorder();
+        SentinelSubscriberConnection connection = new SentinelSubscriberConnection(
+                "mymaster",
+                Collections.singletonList(new HostAndPort("localhost", 1)),
+                new HostAndPort("localhost", 6379),
+                transport,
+                "initial",
+                recorder
+        );
+        try{
+            connection.subscribe("before");
+
+            // Subscribing doesn't wait for the move
+            connection.abort();
+            assertTrue(connecting.await(5, TimeUnit.SECONDS));
+            connection.subscribe("during");
+            connect.countDown();
+
+            // New connection catches up once it's swapped in
+            long deadline = System.currentTimeMillis() + 5000;
+            while(recorder.failovers.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(1, recorder.failovers.size());
+            assertEquals(Arrays.asList("before", "during"), connections.get(1).subscribed);
+
+        }finally{
+            connection.close();
+        }
+    }
+
+    static final class FakeConnection implements SubscriberConnection{
+
+        final Listener listener;
+
+        volatile boolean closed = false;
+
+        final List<String> subscribed = new CopyOnWriteArrayList<>();
+
+        final List<String> unsubscribed = new CopyOnWriteArrayList<>();
+
+        FakeConnection(Listener listener){
+            this.listener = listener;
+        }
+
+        @Override
+        public void subscribe(@Nonnull String... channels){
+            this.subscribed.addAll(Arrays.asList(channels));
+        }
+
+        @Override
+        public void unsubscribe(@Nonnull String... channels){
+            this.unsubscribed.addAll(Arrays.asList(channels));
+        }
+
+        @Override
+        public void psubscribe(@Nonnull String... patterns){
+        }
+
+        @Override
+        public void punsubscribe(@Nonnull String... patterns){
+        }
+
+        @Override
+        public void ping(@Nonnull String token){
+        }
+
+        @Override
+        public synchronized void close(){
+            if(this.closed) return;
+            this.closed = true;
+            this.listener.onClosed();
+        }
+
+        @Override
+        public void abort(){
+            this.close();
+        }
+    }
+
+    static final class Recorder implements SubscriberConnection.Listener{
+
+        final List<String> messages = new CopyOnWriteArrayList<>();
+
+        final List<String> pongs = new CopyOnWriteArrayList<>();
+
+        final List<String> failovers = new CopyOnWriteArrayList<>();
+
+        final List<String> unsubscribed = new CopyOnWriteArrayList<>();
+
+        volatile boolean closed = false;
+
+        @Override
+        public void onMessage(@Nonnull String channel, @Nonnull ByteBuffer payload){
+            this.messages.add(channel + ":" + StandardCharsets.UTF_8.decode(payload));
+        }
+
+        @Override
+        public void onPMessage(@Nonnull String pattern, @Nonnull String channel, @Nonnull ByteBuffer payload){
+            this.messages.add(pattern + ":" + channel + ":" + StandardCharsets.UTF_8.decode(payload));
+        }
+
+        @Override
+        public void onSubscribe(@Nonnull String channel){
+        }
+
+        @Override
+        public void onPSubscribe(@Nonnull String pattern){
+        }
+
+        @Override
+        public void onUnsubscribe(@Nonnull String channel){
+            this.unsubscribed.add(channel);
+        }
+
+        @Override
+        public void onPUnsubscribe(@Nonnull String pattern){
+            this.unsubscribed.add(pattern);
+        }
+
+        @Override
+        public void onPong(@Nonnull String token){
+            this.pongs.add(token);
+        }
+
+        @Override
+        public void onFailover(@Nonnull String endpoint, @Nonnegative long elapsed_nanos){
+            this.failovers.add(endpoint);
+        }
+
+        @Override
+        public void onClosed(){
+            this.closed = true;
+        }
+    }
+}
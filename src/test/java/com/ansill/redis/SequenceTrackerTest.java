@@ -0,0 +1,60 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceTrackerTest{
+
+    @DisplayName("Stamp round trip test")
+    @Test
+    void stampTest(){
+        byte[] stamped = Sequence.stamp(-42, 1234567890123L, 7, "hello".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer payload = ByteBuffer.wrap(stamped);
+        assertTrue(Sequence.isStamped(payload));
+        assertEquals(-42, Sequence.publisher(payload));
+        assertEquals(1234567890123L, Sequence.sequence(payload));
+        assertEquals(7, Sequence.count(payload));
+        assertEquals("hello", Sequence.strip(new Message("channel", payload)).getText());
+
+        // Plain and short payloads are not stamped
+        assertFalse(Sequence.isStamped(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8))));
+        assertFalse(Sequence.isStamped(ByteBuffer.wrap(new byte[]{0, 'J', 'P', 'S', 'M', 'S', 1})));
+    }
+
+    @DisplayName("Gap detection test")
+    @Test
+    void gapTest(){
+        SequenceTracker tracker = new SequenceTracker();
+
+        // First payload of a publisher starts the count, wherever it is
+        assertEquals(0, tracker.track("channel", 1, 100, 1));
+        assertEquals(0, tracker.track("channel", 1, 101, 4));
+        assertEquals(0, tracker.track("channel", 1, 105, 1));
+
+        // Skipped messages are lost
+        assertEquals(3, tracker.track("channel", 1, 109, 1));
+        assertEquals(3, tracker.getLost("channel"));
+
+        // Copies are not
+        assertEquals(0, tracker.track("channel", 1, 109, 1));
+        assertEquals(0, tracker.track("channel", 1, 102, 1));
+        assertEquals(0, tracker.track("channel", 1, 110, 1));
+
+        // Publishers and channels are tracked separately
+        assertEquals(0, tracker.track("channel", 2, 0, 1));
+        assertEquals(0, tracker.track("channel", 2, 1, 1));
+        assertEquals(0, tracker.track("other", 1, 0, 1));
+        assertEquals(10, tracker.track("other", 1, 11, 1));
+        assertEquals(3, tracker.getLost("channel"));
+        assertEquals(10, tracker.getLost("other"));
+        assertEquals(0, tracker.getLost("unknown"));
+        assertEquals(13, tracker.getLost());
+    }
+}
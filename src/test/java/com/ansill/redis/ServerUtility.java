@@ -1,10 +1,12 @@
 package com.ansill.redis;
 
 import redis.clients.jedis.Jedis;
+import redis.embedded.RedisSentinel;
 import redis.embedded.RedisServer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.util.HashSet;
@@ -21,7 +23,21 @@ public final class ServerUtility{
     public static Server getServer(){
 
         // Return new instance
-        return new Server();
+        return new Server(null);
+    }
+
+    @Nonnull
+    public static Server getReplica(@Nonnull Server master){
+
+        // Return new instance that replicates the master
+        return new Server(master.getPort());
+    }
+
+    @Nonnull
+    public static Sentinel getSentinel(@Nonnull Server master, @Nonnull String master_name){
+
+        // Return new instance that monitors the master
+        return new Sentinel(master.getPort(), master_name);
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -53,8 +69,8 @@ public final class ServerUtility{
     }
 
     private static boolean isPortOpen(@Nonnegative int port){
-        try(ServerSocket ignored = new ServerSocket(port)){
-            return true;
+        try(ServerSocket socket = new ServerSocket(port)){
+            return socket.isBound();
         }catch(IOException e){
             return false;
         }
@@ -71,14 +87,16 @@ public final class ServerUtility{
         private final Jedis pubsub_conn;
         private boolean running = true;
 
-        private Server(){
+        private Server(@Nullable Integer master_port){
 
             // Find a port
             this.port = getNextOpenPort(6379);
 
             // Start it up
             try{
-                this.server = new RedisServer(port);
+                this.server = master_port == null ?
+                              new RedisServer(port) :
+                              RedisServer.builder().port(port).slaveOf("localhost", master_port).build();
                 this.server.start();
             }catch(IOException e){
                 // Wrap it
@@ -114,4 +132,52 @@ public final class ServerUtility{
         }
     }
 
+    public final static class Sentinel implements AutoCloseable{
+
+        @Nonnull
+        private final RedisSentinel sentinel;
+        @Nonnegative
+        private final int port;
+        private boolean running = true;
+
+        private Sentinel(@Nonnegative int master_port, @Nonnull String master_name){
+
+            // Find a port
+            this.port = getNextOpenPort(26379);
+
+            // Start it up with short timeouts so failover happens quickly
+            this.sentinel = RedisSentinel.builder()
+                                         .port(port)
+                                         .masterPort(master_port)
+                                         .masterName(master_name)
+                                         .quorumSize(1)
+                                         .downAfterMilliseconds(500L)
+                                         .failoverTimeout(1000L)
+                                         .build();
+            this.sentinel.start();
+        }
+
+        @Nonnull
+        public String getHostname(){
+            return "localhost";
+        }
+
+        public int getPort(){
+            return this.port;
+        }
+
+        @Nonnull
+        public Jedis getConnection(){
+            return new Jedis("localhost", this.port);
+        }
+
+        @Override
+        public void close(){
+            if(this.running){
+                this.sentinel.stop();
+                unreservePort(this.port);
+            }
+            this.running = false;
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package com.ansill.redis;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedSubscriberConnectionTest{
+
+    @DisplayName("Connect outside of registry test")
+    @Test
+    void connectOutsideOfRegistryTest() throws Exception{
+
+        // Factory that hangs until it's let go
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch connect = new CountDownLatch(1);
+        SubscriberConnection.Factory slow = (channel, listener) -> {
+            connecting.countDown();
+            try{
+                connect.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            return new SentinelRelayTest.FakeConnection(listener);
+        };
+        Object slow_key = new Object();
+        CompletableFuture<SubscriberConnection> pending = CompletableFuture.supplyAsync(
+                () -> SharedSubscriberConnection.acquire(slow_key, slow, "initial", new SentinelRelayTest.Recorder())
+        );
+        assertTrue(connecting.await(5, TimeUnit.SECONDS));
+
+        // Another key is not held up while the first one connects, and the first one gets through once it's let go
+        SubscriberConnection other = SharedSubscriberConnection.acquire(
+                new Object(),
+                (channel, listener) -> new SentinelRelayTest.FakeConnection(listener),
+                "initial",
+                new SentinelRelayTest.Recorder()
+        );
+        assertFalse(pending.isDone());
+        connect.countDown();
+        SubscriberConnection view = pending.get(5, TimeUnit.SECONDS);
+        assertNotNull(view);
+        other.close();
+        view.close();
+    }
+
+    @DisplayName("Abort view test")
+    @Test
+    void abortViewTest(){
+
+        // Factory that remembers its connections
+        List<SentinelRelayTest.FakeConnection> connections = new CopyOnWriteArrayList<>();
+        SubscriberConnection.Factory factory = (channel, listener) -> {
+            SentinelRelayTest.FakeConnection connection = new SentinelRelayTest.FakeConnection(listener);
+            connections.add(connection);
+            return connection;
+        };
+        Object key = new Object();
+        SentinelRelayTest.Recorder first = new SentinelRelayTest.Recorder();
+        SentinelRelayTest.Recorder second = new SentinelRelayTest.Recorder();
+        SubscriberConnection first_view = SharedSubscriberConnection.acquire(key, factory, "initial", first);
+        SubscriberConnection second_view = SharedSubscriberConnection.acquire(key, factory, "initial", second);
+        assertEquals(1, connections.size());
+
+        // Aborting one view leaves the other one running
+        first_view.abort();
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+        connections.get(0).listener.onMessage("initial", SentinelRelayTest.payload("hello"));
+        assertTrue(first.messages.isEmpty());
+        assertEquals(Collections.singletonList("initial:hello"), second.messages);
+
+        // Connection is suspect, so newcomers get a new one
+        SentinelRelayTest.Recorder third = new SentinelRelayTest.Recorder();
+        SubscriberConnection third_view = SharedSubscriberConnection.acquire(key, factory, "initial", third);
+        assertEquals(2, connections.size());
+
+        // Connection is dropped once the last view aborts
+        second_view.abort();
+        assertTrue(second.closed);
+        assertTrue(connections.get(0).closed);
+        assertFalse(connections.get(1).closed);
+        third_view.close();
+        assertTrue(connections.get(1).closed);
+    }
+
+    @DisplayName("Unsubscribe acknowledgment test")
+    @Test
+    void unsubscribeAcknowledgmentTest(){
+
+        // Two views on the same channel
+        List<SentinelRelayTest.FakeConnection> connections = new CopyOnWriteArrayList<>();
+        SubscriberConnection.Factory factory = (channel, listener) -> {
+            SentinelRelayTest.FakeConnection connection = new SentinelRelayTest.FakeConnection(listener);
+            connections.add(connection);
+            return connection;
+        };
+        Object key = new Object();
+        SentinelRelayTest.Recorder first = new SentinelRelayTest.Recorder();
+        SentinelRelayTest.Recorder second = new SentinelRelayTest.Recorder();
+        SubscriberConnection first_view = SharedSubscriberConnection.acquire(key, factory, "initial", first);
+        SubscriberConnection second_view = SharedSubscriberConnection.acquire(key, factory, "initial", second);
+        first_view.subscribe("channel");
+        second_view.subscribe("channel");
+
+        // Channel that the other view still has is acknowledged right away without bothering the server
+        first_view.unsubscribe("channel");
+        assertEquals(Collections.singletonList("channel"), first.unsubscribed);
+        assertTrue(second.unsubscribed.isEmpty());
+        assertTrue(connections.get(0).unsubscribed.isEmpty());
+
+        // Last one waits for the server
+        second_view.unsubscribe("channel");
+        assertEquals(Collections.singletonList("channel"), connections.get(0).unsubscribed);
+        assertTrue(second.unsubscribed.isEmpty());
+        connections.get(0).listener.onUnsubscribe("channel");
+        assertEquals(Collections.singletonList("channel"), second.unsubscribed);
+        first_view.close();
+        second_view.close();
+    }
+}
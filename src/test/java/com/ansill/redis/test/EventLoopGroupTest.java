@@ -0,0 +1,457 @@
+package com.ansill.redis.test;
+
+import com.ansill.redis.BatchingPublisher;
+import com.ansill.redis.Channel;
+import com.ansill.redis.EventLoopGroup;
+import com.ansill.redis.JedisPubSubManager;
+import com.ansill.redis.LivenessProbe;
+import com.ansill.redis.PayloadCompressor;
+import com.ansill.redis.ServerUtility;
+import com.ansill.redis.Subscription;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("unused")
+class EventLoopGroupTest{
+
+    private static ServerUtility.Server SERVER;
+
+    private static EventLoopGroup GROUP;
+
+    @BeforeAll
+    static void setUp(){
+        SERVER = ServerUtility.getServer();
+        GROUP = new EventLoopGroup(2);
+    }
+
+    @AfterAll
+    static void tearDown(){
+        GROUP.close();
+        SERVER.close();
+    }
+
+    static String genString(){
+        return (Math.random() + "").replace(".", "");
+    }
+
+    @DisplayName("Connection to nonexistent server test")
+    @Test
+    void testNonexistentServer(){
+        assertThrows(JedisConnectionException.class, () -> new JedisPubSubManager("nonexistent", 1, GROUP));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @DisplayName("Initializing with null group test")
+    @Test
+    void invalidGroupTest(){
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), null)
+        );
+    }
+
+    @DisplayName("Simple subscription test")
+    @RepeatedTest(3)
+    void simpleSubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Create channel object
+            Channel<String> channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to something
+            Subscription subscription = manager.subscribe(channel_name, channel::enqueue);
+
+            // Set up expected messages, one of them larger than the initial read buffer
+            String message_one = "hello!";
+            StringBuilder builder = new StringBuilder();
+            while(builder.length() < 100_000) builder.append(genString());
+            String message_two = builder.toString();
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message_one);
+                connection.publish(channel_name, message_two);
+            }
+
+            // Check the channel
+            String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertEquals(message_one, incoming);
+
+            // Check the channel
+            incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                              .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertEquals(message_two, incoming);
+            subscription.close();
+
+            // Assuming that subscription has ended, try publish again
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, genString());
+            }
+
+            // Channel should not retrieve anything
+            assertEquals(Optional.empty(), channel.poll(500, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @DisplayName("Many managers on one group test")
+    @Test
+    void manyManagersTest() throws InterruptedException, TimeoutException{
+
+        // Set up channel name and message
+        String channel_name = "channel" + genString();
+        String message = "hello!" + genString();
+
+        // Set up managers
+        List<JedisPubSubManager> managers = new ArrayList<>();
+        List<Channel<String>> channels = new ArrayList<>();
+        try{
+            for(int i = 0; i < 20; i++){
+                JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP);
+                managers.add(manager);
+                Channel<String> channel = new Channel<>();
+                channels.add(channel);
+                manager.subscribe(channel_name, channel::enqueue);
+            }
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
+
+            // Every manager should receive it
+            for(Channel<String> channel : channels){
+                assertEquals(
+                        message,
+                        channel.poll(500, TimeUnit.MILLISECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"))
+                );
+            }
+
+        }finally{
+            managers.forEach(JedisPubSubManager::close);
+        }
+    }
+
+    @DisplayName("Binary subscription test")
+    @Test
+    void binarySubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Create channel object
+            Channel<byte[]> channel = new Channel<>();
+
+            // Set up channel name and a payload that is not valid UTF-8
+            String channel_name = "channel" + genString();
+            byte[] message = new byte[]{0, (byte) 0xff, (byte) 0xfe, '\r', '\n', 42};
+
+            // Subscribe to something, payload is copied since it may not outlive the call
+            manager.subscribeBinary(channel_name, payload -> {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                channel.enqueue(bytes);
+            });
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name.getBytes(StandardCharsets.UTF_8), message);
+            }
+
+            // Check the channel
+            byte[] incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertArrayEquals(message, incoming);
+        }
+    }
+
+    @DisplayName("Batching publisher test")
+    @Test
+    void batchingPublisherTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Create channel objects
+            Channel<String> channel = new Channel<>();
+            Channel<byte[]> binary = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to something, payload is copied since it may not outlive the call
+            manager.subscribe(channel_name, channel::enqueue);
+            manager.subscribeBinary(channel_name, payload -> {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                binary.enqueue(bytes);
+            });
+
+            // Publish messages in batches small enough to be split
+            int amount = 500;
+            try(BatchingPublisher publisher = new BatchingPublisher(
+                    SERVER.getHostname(),
+                    SERVER.getPort(),
+                    1000,
+                    256,
+                    Duration.ofSeconds(10)
+            )){
+                for(int i = 0; i < amount; i++) publisher.publish(channel_name, "message" + i);
+            }
+
+            // Check the channels
+            for(int i = 0; i < amount; i++){
+                assertEquals("message" + i, channel.poll(500, TimeUnit.MILLISECONDS)
+                                                   .orElseThrow(() -> new TimeoutException("Timed Out!")));
+                assertArrayEquals(
+                        ("message" + i).getBytes(StandardCharsets.UTF_8),
+                        binary.poll(500, TimeUnit.MILLISECONDS)
+                              .orElseThrow(() -> new TimeoutException("Timed Out!"))
+                );
+            }
+        }
+    }
+
+    @DisplayName("Compressed batch test")
+    @Test
+    void compressedBatchTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Create channel object
+            Channel<String> channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to something
+            manager.subscribe(channel_name, channel::enqueue);
+
+            // Publish batches that are compressed as a whole
+            int amount = 1000;
+            PayloadCompressor compressor = new PayloadCompressor(1024);
+            try(BatchingPublisher publisher = new BatchingPublisher(
+                    SERVER.getHostname(),
+                    SERVER.getPort(),
+                    250,
+                    64 * 1024,
+                    Duration.ofSeconds(10)
+            )){
+                publisher.setCompressor(compressor);
+                for(int i = 0; i < amount; i++) publisher.publish(channel_name, "{\"message\":" + i + "}");
+            }
+            assertTrue(compressor.getRatio() < 0.5);
+
+            // Check the channel
+            for(int i = 0; i < amount; i++){
+                assertEquals("{\"message\":" + i + "}", channel.poll(500, TimeUnit.MILLISECONDS)
+                                                              .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+        }
+    }
+
+    @DisplayName("Shared connection test")
+    @Test
+    void sharedConnectionTest() throws InterruptedException, TimeoutException{
+
+        // Set up channel name and pattern
+        String channel_name = "channel" + genString();
+        String pattern = channel_name + "*";
+
+        // Get managers that share a connection
+        try(
+                JedisPubSubManager first = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort(), GROUP);
+                JedisPubSubManager second = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort(), GROUP)
+        ){
+
+            // Create channel objects
+            Channel<String> first_channel = new Channel<>();
+            Channel<String> second_channel = new Channel<>();
+
+            // Subscribe to the same pattern from both
+            first.psubscribe(
+                    pattern,
+                    (name, message) -> first_channel.enqueue(message)
+            );
+            second.psubscribe(
+                    pattern,
+                    (name, message) -> second_channel.enqueue(message)
+            );
+
+            // Server only sees one pattern subscription
+            try(Jedis connection = SERVER.getConnection()){
+                assertEquals(Long.valueOf(1), connection.pubsubNumPat());
+                connection.publish(channel_name, "hello");
+            }
+
+            // Both receive the message once
+            assertEquals("hello", first_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("hello", second_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+        }
+    }
+
+    @DisplayName("Liveness probe on shared connection test")
+    @Test
+    void sharedLivenessProbeTest() throws InterruptedException{
+
+        // Get managers that share a connection and probe both
+        try(
+                JedisPubSubManager first = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort(), GROUP);
+                JedisPubSubManager second = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort(), GROUP)
+        ){
+            LivenessProbe first_probe = new LivenessProbe(Duration.ofMillis(10), Duration.ofSeconds(1));
+            LivenessProbe second_probe = new LivenessProbe(Duration.ofMillis(10), Duration.ofSeconds(1));
+            first.setLivenessProbe(first_probe);
+            second.setLivenessProbe(second_probe);
+
+            // Both receive replies to their own pings
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while(System.nanoTime() < deadline && (first_probe.getPongCount() < 5 || second_probe.getPongCount() < 5)){
+                Thread.sleep(10);
+            }
+            assertTrue(first_probe.getPongCount() >= 5);
+            assertTrue(second_probe.getPongCount() >= 5);
+            assertTrue(first_probe.getMaxRoundTripNanos() > 0);
+
+            // Nothing stalled, and probing stops
+            first.setLivenessProbe(null);
+            long count = first_probe.getPongCount();
+            Thread.sleep(100);
+            assertTrue(first_probe.getPongCount() <= count + 1);
+            assertEquals(0, first_probe.getStallCount());
+            assertEquals(0, second_probe.getStallCount());
+        }
+    }
+
+    @DisplayName("Pattern subscription test")
+    @Test
+    void patternSubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Create channel objects
+            Channel<String> channel_wide = new Channel<>();
+            Channel<String> channel_narrow = new Channel<>();
+            Channel<String> channel_exact = new Channel<>();
+
+            // Set up channel names
+            String prefix = "tenant" + genString();
+            String channel_one = prefix + ".one";
+            String channel_two = prefix + ".two";
+
+            // Subscribe to overlapping patterns and one of the matching channels
+            Subscription subscription_wide = manager.psubscribe(
+                    prefix + ".*",
+                    (channel, message) -> channel_wide.enqueue(channel + ":" + message)
+            );
+            Subscription subscription_narrow = manager.psubscribe(
+                    prefix + ".o?e",
+                    (channel, message) -> channel_narrow.enqueue(channel + ":" + message)
+            );
+            Subscription subscription_exact = manager.subscribe(channel_one, channel_exact::enqueue);
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_one, "hello");
+                connection.publish(channel_two, "world");
+            }
+
+            // Check the channels
+            assertEquals(channel_one + ":hello", channel_wide.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(channel_two + ":world", channel_wide.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(channel_one + ":hello", channel_narrow.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("hello", channel_exact.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Nobody should receive anything twice
+            assertEquals(Optional.empty(), channel_wide.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(Optional.empty(), channel_narrow.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(Optional.empty(), channel_exact.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(3, manager.getSubscriptionCount());
+            subscription_exact.close();
+            subscription_narrow.close();
+            subscription_wide.close();
+
+            // Assert correct subscriptions
+            assertEquals(0, manager.getSubscriptionCount());
+
+            // Assuming that subscriptions have ended, try publish again
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_one, genString());
+            }
+
+            // Channel should not retrieve anything
+            assertEquals(Optional.empty(), channel_wide.poll(500, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @DisplayName("Confirmed subscription test")
+    @Test
+    void subscribeConfirmedTest() throws Exception{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort(), GROUP)){
+
+            // Pipeline many subscriptions and wait once
+            String prefix = "channel" + genString();
+            int count = 1000;
+            CountDownLatch received = new CountDownLatch(count);
+            List<CompletableFuture<Subscription>> futures = new ArrayList<>();
+            for(int i = 0; i < count; i++){
+                futures.add(manager.subscribeConfirmed(prefix + i, message -> received.countDown()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+            // Publish right away, nothing should be missed
+            try(Jedis connection = SERVER.getConnection()){
+                for(int i = 0; i < count; i++) connection.publish(prefix + i, "hello!");
+            }
+
+            // Assert it
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(count, manager.getSubscriptionCount());
+
+            // Subscribing to an acknowledged channel completes as well
+            Subscription subscription = manager.subscribeConfirmed(prefix + 0, message -> {
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(count + 1, manager.getSubscriptionCount());
+            subscription.close();
+
+            // Clean up
+            for(CompletableFuture<Subscription> future : futures) future.get().cancel();
+            assertEquals(0, manager.getSubscriptionCount());
+        }
+    }
+}
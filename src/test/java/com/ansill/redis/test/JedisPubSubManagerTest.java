@@ -1,8 +1,13 @@
 package com.ansill.redis.test;
 
+import com.ansill.redis.BatchingPublisher;
 import com.ansill.redis.Channel;
 import com.ansill.redis.JedisPubSubManager;
+import com.ansill.redis.LivenessProbe;
+import com.ansill.redis.PayloadCompressor;
+import com.ansill.redis.Priority;
 import com.ansill.redis.ServerUtility;
+import com.ansill.redis.SlowConsumerPolicy;
 import com.ansill.redis.Subscription;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -10,18 +15,34 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("unused")
 class JedisPubSubManagerTest{
@@ -94,32 +115,31 @@ class JedisPubSubManagerTest{
             String channel_name = "my_channel";
 
             // Subscribe to something
-            try(Subscription subscription = manager.subscribe(channel_name, channel::enqueue)){
+            manager.subscribe(channel_name, channel::enqueue);
 
-                // Set up expected message
-                String message_one = "hello!";
-                String message_two = "world!";
+            // Set up expected message
+            String message_one = "hello!";
+            String message_two = "world!";
 
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_name, message_one);
-                    connection.publish(channel_name, message_two);
-                }
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message_one);
+                connection.publish(channel_name, message_two);
+            }
 
-                // Check the channel
-                String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
-                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message_one, incoming);
+            // Assert it
+            assertEquals(message_one, incoming);
 
-                // Check the channel
-                incoming = channel.poll(500, TimeUnit.MILLISECONDS)
-                                  .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                              .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message_two, incoming);
-            }
+            // Assert it
+            assertEquals(message_two, incoming);
         }
     }
 
@@ -143,39 +163,36 @@ class JedisPubSubManagerTest{
             String channel_name = "channel:" + genString();
 
             // Subscribe to something
-            try(
-                    Subscription subscription_one = manager.subscribe(
-                            channel_name,
-                            message -> channel1.enqueue(fun1.apply(message))
-                    );
-                    Subscription subscription_two = manager.subscribe(
-                            channel_name,
-                            message -> channel2.enqueue(fun2.apply(message))
-                    )
-            ){
-
-                // Set up expected message
-                String message = "hello!";
-
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_name, message);
-                }
+            manager.subscribe(
+                    channel_name,
+                    message -> channel1.enqueue(fun1.apply(message))
+            );
+            manager.subscribe(
+                    channel_name,
+                    message -> channel2.enqueue(fun2.apply(message))
+            );
+
+            // Set up expected message
+            String message = "hello!";
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
 
-                // Check the channel
-                String incoming = channel1.poll(500, TimeUnit.MILLISECONDS)
-                                          .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            String incoming = channel1.poll(500, TimeUnit.MILLISECONDS)
+                                      .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(fun1.apply(message), incoming);
+            // Assert it
+            assertEquals(fun1.apply(message), incoming);
 
-                // Check the channel
-                incoming = channel2.poll(500, TimeUnit.MILLISECONDS)
-                                   .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            incoming = channel2.poll(500, TimeUnit.MILLISECONDS)
+                               .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(fun2.apply(message), incoming);
-            }
+            // Assert it
+            assertEquals(fun2.apply(message), incoming);
         }
     }
 
@@ -195,35 +212,32 @@ class JedisPubSubManagerTest{
             String channel_two_name = "channel" + genString();
 
             // Set up subscriptions
-            try(
-                    Subscription subscription_one = manager.subscribe(channel_one_name, channel_one::enqueue);
-                    Subscription subscription_two = manager.subscribe(channel_two_name, channel_two::enqueue)
-            ){
+            manager.subscribe(channel_one_name, channel_one::enqueue);
+            manager.subscribe(channel_two_name, channel_two::enqueue);
 
-                // Set up expected message
-                String message_one = "hello!" + genString();
-                String message_two = "hello!" + genString();
+            // Set up expected message
+            String message_one = "hello!" + genString();
+            String message_two = "hello!" + genString();
 
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_one_name, message_one);
-                    connection.publish(channel_two_name, message_two);
-                }
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_one_name, message_one);
+                connection.publish(channel_two_name, message_two);
+            }
 
-                // Check the channel
-                String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
-                                             .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
+                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message_one, incoming);
+            // Assert it
+            assertEquals(message_one, incoming);
 
-                // Check the channel
-                incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
-                                      .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
+                                  .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message_two, incoming);
-            }
+            // Assert it
+            assertEquals(message_two, incoming);
         }
     }
 
@@ -244,40 +258,37 @@ class JedisPubSubManagerTest{
             String channel_name = "channel" + genString();
 
             // Set up subscription for manager one
-            try(Subscription subscription_one = manager_one.subscribe(channel_name, channel_one::enqueue)){
-
-                // Get new manager
-                try(JedisPubSubManager manager_two = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
-
-                    // Create channel object
-                    Channel<String> channel_two = new Channel<>();
+            manager_one.subscribe(channel_name, channel_one::enqueue);
 
-                    // Set up subscription for manager two
-                    try(Subscription subscription_two = manager_two.subscribe(channel_name, channel_two::enqueue)){
-
-                        // Get a connection and say something
-                        try(Jedis connection = SERVER.getConnection()){
-                            connection.publish(channel_name, message);
-                        }
+            // Get new manager
+            try(JedisPubSubManager manager_two = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
 
-                        // Check the channel
-                        String incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
-                                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
+                // Create channel object
+                Channel<String> channel_two = new Channel<>();
 
-                        // Assert it
-                        assertEquals(message, incoming);
+                // Set up subscription for manager two
+                manager_two.subscribe(channel_name, channel_two::enqueue);
 
-                    }
+                // Get a connection and say something
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.publish(channel_name, message);
                 }
 
-
                 // Check the channel
-                String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
+                String incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
                                              .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
                 // Assert it
                 assertEquals(message, incoming);
             }
+
+
+            // Check the channel
+            String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
+                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertEquals(message, incoming);
         }
     }
 
@@ -298,23 +309,22 @@ class JedisPubSubManagerTest{
             String channel_name = "my_channel";
 
             // Subscribe to something
-            try(Subscription subscription = manager.subscribe(channel_name, channel::enqueue)){
+            manager.subscribe(channel_name, channel::enqueue);
 
-                // Set up expected message
-                String message = "hello!";
+            // Set up expected message
+            String message = "hello!";
 
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_name, message);
-                }
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
 
-                // Check the channel
-                String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
-                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message, incoming);
-            }
+            // Assert it
+            assertEquals(message, incoming);
 
         }finally{
             manager.close();
@@ -339,23 +349,23 @@ class JedisPubSubManagerTest{
             String channel_name = genString();
 
             // Subscribe to something
-            try(Subscription subscription = manager.subscribe(channel_name, channel::enqueue)){
+            Subscription subscription = manager.subscribe(channel_name, channel::enqueue);
 
-                // Set up expected message
-                String message = "hello!";
+            // Set up expected message
+            String message = "hello!";
 
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_name, message);
-                }
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
 
-                // Check the channel
-                String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
-                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Check the channel
+            String incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assert it
-                assertEquals(message, incoming);
-            }
+            // Assert it
+            assertEquals(message, incoming);
+            subscription.close();
 
             // Assuming that subscription has ended, try publish again
             try(Jedis connection = SERVER.getConnection()){
@@ -382,54 +392,52 @@ class JedisPubSubManagerTest{
             String channel_name = genString();
 
             // Subscribe to something
-            try(Subscription subscription_one = manager.subscribe(channel_name, channel_one::enqueue)){
+            Subscription subscription_one = manager.subscribe(channel_name, channel_one::enqueue);
 
-                // Subscribe to something
-                try(Subscription subscription_two = manager.subscribe(channel_name, channel_two::enqueue)){
-
-                    // Set up expected message
-                    String message = "hello!";
-
-                    // Get a connection and say something
-                    try(Jedis connection = SERVER.getConnection()){
-                        connection.publish(channel_name, message);
-                    }
+            // Subscribe to something
+            Subscription subscription_two = manager.subscribe(channel_name, channel_two::enqueue);
 
-                    // Check the channel
-                    String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
-                                                 .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Set up expected message
+            String message = "hello!";
 
-                    // Assert it
-                    assertEquals(message, incoming);
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
 
+            // Check the channel
+            String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
+                                         .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                    // Check the channel
-                    incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
-                                          .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Assert it
+            assertEquals(message, incoming);
 
-                    // Assert it
-                    assertEquals(message, incoming);
-                }
+            // Check the channel
+            incoming = channel_two.poll(500, TimeUnit.MILLISECONDS)
+                                  .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Set up expected message
-                String message = "hello!" + genString();
+            // Assert it
+            assertEquals(message, incoming);
+            subscription_two.close();
 
-                // Get a connection and say something
-                try(Jedis connection = SERVER.getConnection()){
-                    connection.publish(channel_name, message);
-                }
+            // Set up expected message
+            message = "hello!" + genString();
 
-                // Check the channel
-                String incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
-                                             .orElseThrow(() -> new TimeoutException("Timed Out!"));
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, message);
+            }
 
-                // Assert it
-                assertEquals(message, incoming);
+            // Check the channel
+            incoming = channel_one.poll(500, TimeUnit.MILLISECONDS)
+                                  .orElseThrow(() -> new TimeoutException("Timed Out!"));
 
-                // Assuming subscription two has ended, channel two should not retrieve anything
-                assertEquals(Optional.empty(), channel_two.poll(1, TimeUnit.SECONDS));
+            // Assert it
+            assertEquals(message, incoming);
 
-            }
+            // Assuming subscription two has ended, channel two should not retrieve anything
+            assertEquals(Optional.empty(), channel_two.poll(1, TimeUnit.SECONDS));
+            subscription_one.close();
 
             // Assuming that subscription has ended, try publish again
             try(Jedis connection = SERVER.getConnection()){
@@ -481,20 +489,18 @@ class JedisPubSubManagerTest{
                     )));
 
                     // One more sub
-                    try(
-                            Subscription subscription = manager_one.subscribe(channel_name, item -> {
-                            })
-                    ){
-
-                        // Spam something
-                        try(Jedis connection = SERVER.getConnection()){
-                            connection.publish(channel_name, genString());
-                        }
+                    Subscription subscription = manager_one.subscribe(channel_name, item -> {
+                    });
 
-                        // Assert correct subscriptions
-                        assertEquals(subs_one + 1, manager_one.getSubscriptionCount());
+                    // Spam something
+                    try(Jedis connection = SERVER.getConnection()){
+                        connection.publish(channel_name, genString());
                     }
 
+                    // Assert correct subscriptions
+                    assertEquals(subs_one + 1, manager_one.getSubscriptionCount());
+                    subscription.close();
+
                     // Assert correct subscriptions
                     assertEquals(subs_one, manager_one.getSubscriptionCount());
 
@@ -513,4 +519,1106 @@ class JedisPubSubManagerTest{
             assertEquals(0, manager_one.getSubscriptionCount());
         }
     }
-}
\ No newline at end of file
+
+    @DisplayName("Slow consumer cancellation test")
+    @Test
+    void slowConsumerCancelTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Set up channel for reports
+            Channel<SlowConsumerPolicy.Action> reports = new Channel<>();
+
+            // Cancel consumers that are slow twice in a row
+            manager.setSlowConsumerPolicy(new SlowConsumerPolicy(
+                    Duration.ofMillis(50),
+                    2,
+                    SlowConsumerPolicy.Action.CANCEL,
+                    (channel, subscription, action, elapsed_nanos) -> reports.enqueue(action)
+            ));
+
+            // Set up channel name
+            String channel_name = genString();
+
+            // Subscribe with slow consumer
+            Subscription subscription = manager.subscribe(channel_name, message -> {
+                try{
+                    Thread.sleep(100);
+                }catch(InterruptedException e){
+                    throw new RuntimeException(e);
+                }
+            });
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, genString());
+                connection.publish(channel_name, genString());
+            }
+
+            // Check the report
+            SlowConsumerPolicy.Action action = reports.poll(1, TimeUnit.SECONDS)
+                                                      .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertEquals(SlowConsumerPolicy.Action.CANCEL, action);
+            assertTrue(subscription.isCanceled());
+            assertEquals(0, manager.getSubscriptionCount());
+        }
+    }
+
+    @DisplayName("Slow consumer isolation test")
+    @Test
+    void slowConsumerIsolateTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Set up channel for reports
+            Channel<SlowConsumerPolicy.Action> reports = new Channel<>();
+
+            // Isolate consumers that are slow once
+            manager.setSlowConsumerPolicy(new SlowConsumerPolicy(
+                    Duration.ofMillis(50),
+                    1,
+                    SlowConsumerPolicy.Action.ISOLATE,
+                    (channel, subscription, action, elapsed_nanos) -> reports.enqueue(action)
+            ));
+
+            // Create channel objects
+            Channel<String> slow_channel = new Channel<>();
+            Channel<String> fast_channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = genString();
+
+            // Subscribe with a consumer that is slow on the first message and holds the second one until released, and
+            // a fast consumer
+            CountDownLatch release = new CountDownLatch(1);
+            manager.subscribe(channel_name, fast_channel::enqueue);
+            try(
+                    Subscription slow = manager.subscribe(channel_name, message -> {
+                        try{
+                            if(message.equals("first")) Thread.sleep(300);
+                            else release.await();
+                        }catch(InterruptedException e){
+                            throw new RuntimeException(e);
+                        }
+                        slow_channel.enqueue(message);
+                    })
+            ){
+
+                // Get a connection and say something to trip the slow consumer
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.publish(channel_name, "first");
+                }
+
+                // Check the report
+                SlowConsumerPolicy.Action action = reports.poll(1, TimeUnit.SECONDS)
+                                                          .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+                // Assert it
+                assertEquals(SlowConsumerPolicy.Action.ISOLATE, action);
+                assertEquals("first", fast_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+                assertEquals("first", slow_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+                // Say something again
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.publish(channel_name, "second");
+                }
+
+                // Fast consumer doesn't wait for the isolated consumer anymore, which only gets it once it's released
+                try{
+                    assertEquals("second", fast_channel.poll(5, TimeUnit.SECONDS).orElse(null));
+                    assertFalse(slow_channel.poll(0, TimeUnit.MILLISECONDS).isPresent());
+                }finally{
+                    release.countDown();
+                }
+                assertEquals("second", slow_channel.poll(5, TimeUnit.SECONDS).orElse(null));
+                assertFalse(slow.isCanceled());
+            }
+        }
+    }
+
+    @DisplayName("Isolated consumer overflow test")
+    @Test
+    void isolatedConsumerOverflowTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Set up channel for reports
+            Channel<SlowConsumerPolicy.Action> reports = new Channel<>();
+
+            // Isolate consumers that are slow once
+            manager.setSlowConsumerPolicy(new SlowConsumerPolicy(
+                    Duration.ofMillis(50),
+                    1,
+                    SlowConsumerPolicy.Action.ISOLATE,
+                    (channel, subscription, action, elapsed_nanos) -> reports.enqueue(action)
+            ));
+
+            // Set up channel name
+            String channel_name = genString();
+
+            // Subscribe with a consumer that is slow on the first message and then holds its thread until released
+            CountDownLatch release = new CountDownLatch(1);
+            try(Subscription slow = manager.subscribe(channel_name, message -> {
+                try{
+                    if(message.equals("first")) Thread.sleep(300);
+                    else release.await();
+                }catch(InterruptedException e){
+                    throw new RuntimeException(e);
+                }
+            })){
+
+                // Trip the slow consumer
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.publish(channel_name, "first");
+                }
+                assertEquals(
+                        SlowConsumerPolicy.Action.ISOLATE,
+                        reports.poll(5, TimeUnit.SECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"))
+                );
+
+                // Pile up more than the isolated executor holds, the consumer is canceled rather than queued forever
+                try{
+                    try(Jedis connection = SERVER.getConnection()){
+                        Pipeline pipeline = connection.pipelined();
+                        for(int i = 0; i < 10_100; i++) pipeline.publish(channel_name, "message" + i);
+                        pipeline.sync();
+                    }
+                    assertEquals(
+                            SlowConsumerPolicy.Action.CANCEL,
+                            reports.poll(5, TimeUnit.SECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"))
+                    );
+                    assertTrue(slow.isCanceled());
+                }finally{
+                    release.countDown();
+                }
+            }
+        }
+    }
+
+    @DisplayName("Routed subscription test")
+    @Test
+    void routedSubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> channel_one = new Channel<>();
+            Channel<String> channel_two = new Channel<>();
+            Channel<String> channel_all = new Channel<>();
+
+            // Key extractor that counts its invocations
+            AtomicInteger extractions = new AtomicInteger(0);
+            Function<String,String> extractor = message -> {
+                extractions.incrementAndGet();
+                return message.substring(0, message.indexOf(':'));
+            };
+
+            // Set up channel name
+            String channel_name = genString();
+
+            // Subscribe to something
+            Subscription subscription_one = manager.subscribe(
+                    channel_name,
+                    extractor,
+                    "one",
+                    channel_one::enqueue
+            );
+            Subscription subscription_two = manager.subscribe(
+                    channel_name,
+                    extractor,
+                    "two",
+                    channel_two::enqueue
+            );
+            Subscription subscription_all = manager.subscribe(channel_name, channel_all::enqueue);
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, "one:hello");
+                connection.publish(channel_name, "three:hello");
+                connection.publish(channel_name, "two:hello");
+            }
+
+            // Check the channels
+            assertEquals("one:hello", channel_one.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("two:hello", channel_two.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("one:hello", channel_all.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("three:hello", channel_all.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("two:hello", channel_all.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Routed consumers should not receive anything else
+            assertEquals(Optional.empty(), channel_one.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(Optional.empty(), channel_two.poll(100, TimeUnit.MILLISECONDS));
+
+            // Key should be extracted once per message
+            assertEquals(3, extractions.get());
+            assertEquals(3, manager.getSubscriptionCount());
+
+            // Key extractor that throws matches nothing, but the others still receive it
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name, "no key");
+                connection.publish(channel_name, "one:again");
+            }
+            assertEquals("no key", channel_all.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("one:again", channel_all.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("one:again", channel_one.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(Optional.empty(), channel_two.poll(100, TimeUnit.MILLISECONDS));
+            subscription_all.close();
+            subscription_two.close();
+            subscription_one.close();
+
+            // Assert correct subscriptions
+            assertEquals(0, manager.getSubscriptionCount());
+        }
+    }
+
+    @DisplayName("Binary subscription test")
+    @Test
+    void binarySubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel object
+            Channel<byte[]> channel = new Channel<>();
+
+            // Set up channel name and a payload that is not valid UTF-8
+            String channel_name = "channel" + genString();
+            byte[] message = new byte[]{0, (byte) 0xff, (byte) 0xfe, '\r', '\n', 42};
+
+            // Subscribe to something, payload is copied since it may not outlive the call
+            manager.subscribeBinary(channel_name, payload -> {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                channel.enqueue(bytes);
+            });
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_name.getBytes(StandardCharsets.UTF_8), message);
+            }
+
+            // Check the channel
+            byte[] incoming = channel.poll(500, TimeUnit.MILLISECONDS)
+                                     .orElseThrow(() -> new TimeoutException("Timed Out!"));
+
+            // Assert it
+            assertArrayEquals(message, incoming);
+        }
+    }
+
+    @DisplayName("Batching publisher test")
+    @Test
+    void batchingPublisherTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel object
+            Channel<String> channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to something, and count what the server sends with a plain subscriber
+            AtomicInteger publishes = new AtomicInteger(0);
+            CountDownLatch subscribed = new CountDownLatch(1);
+            CountDownLatch ended = new CountDownLatch(1);
+            JedisPubSub counter = new JedisPubSub(){
+                @Override
+                public void onMessage(String channel, String message){
+                    if(message.equals("end")) ended.countDown();
+                    else publishes.incrementAndGet();
+                }
+
+                @Override
+                public void onSubscribe(String channel, int subscribedChannels){
+                    subscribed.countDown();
+                }
+            };
+            Thread counting = new Thread(() -> {
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.subscribe(counter, channel_name);
+                }
+            });
+            counting.start();
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            manager.subscribe(channel_name, channel::enqueue);
+            try{
+
+                // Publish many small messages in batches of 100
+                int amount = 1000;
+                try(BatchingPublisher publisher = new BatchingPublisher(
+                        SERVER.getHostname(),
+                        SERVER.getPort(),
+                        100,
+                        64 * 1024,
+                        Duration.ofSeconds(10)
+                )){
+                    for(int i = 0; i < amount; i++) publisher.publish(channel_name, "message" + i);
+                }
+
+                // Check the channel, every message arrives on its own and in order
+                for(int i = 0; i < amount; i++){
+                    assertEquals("message" + i, channel.poll(500, TimeUnit.MILLISECONDS)
+                                                       .orElseThrow(() -> new TimeoutException("Timed Out!")));
+                }
+
+                // Server received 10 publishes, every one of them reached the counter ahead of the end marker
+                try(Jedis connection = SERVER.getConnection()){
+                    connection.publish(channel_name, "end");
+                }
+                assertTrue(ended.await(5, TimeUnit.SECONDS));
+                assertEquals(10, publishes.get());
+            }finally{
+                counter.unsubscribe();
+                counting.join(5000);
+            }
+        }
+    }
+
+    @DisplayName("Throwing consumer in batch test")
+    @Test
+    void throwingConsumerInBatchTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> channel = new Channel<>();
+            Channel<String> other_channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe a consumer that fails on one message and another one that doesn't
+            manager.subscribe(channel_name, message -> {
+                if(message.equals("message2")) throw new IllegalStateException("Failing consumer");
+                channel.enqueue(message);
+            });
+            manager.subscribe(channel_name, other_channel::enqueue);
+            try(
+                    BatchingPublisher publisher = new BatchingPublisher(
+                            SERVER.getHostname(),
+                            SERVER.getPort(),
+                            5,
+                            64 * 1024,
+                            Duration.ofSeconds(10)
+                    )
+            ){
+
+                // Publish a single batch
+                for(int i = 0; i < 5; i++) publisher.publish(channel_name, "message" + i);
+
+                // Failing consumer gets the messages after the one it failed on, the other one gets everything
+                for(int i = 0; i < 5; i++){
+                    if(i != 2){
+                        assertEquals("message" + i, channel.poll(500, TimeUnit.MILLISECONDS)
+                                                           .orElseThrow(() -> new TimeoutException("Timed Out!")));
+                    }
+                    assertEquals("message" + i, other_channel.poll(500, TimeUnit.MILLISECONDS)
+                                                             .orElseThrow(() -> new TimeoutException("Timed Out!")));
+                }
+            }
+        }
+    }
+
+    @DisplayName("Batching publisher linger test")
+    @Test
+    void batchingPublisherLingerTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel object
+            Channel<String> channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to something
+            manager.subscribe(channel_name, channel::enqueue);
+            BatchingPublisher publisher = new BatchingPublisher(
+                    SERVER.getHostname(),
+                    SERVER.getPort(),
+                    1000,
+                    64 * 1024,
+                    Duration.ofMillis(50)
+            );
+
+            // Batch is far from full so only linger time publishes it
+            publisher.publish(channel_name, "first");
+            publisher.publish(channel_name, "second".getBytes(StandardCharsets.UTF_8));
+            assertEquals("first", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("second", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Publisher refuses messages once closed
+            publisher.close();
+            assertThrows(IllegalStateException.class, () -> publisher.publish(channel_name, "third"));
+        }
+    }
+
+    @DisplayName("Compressed message test")
+    @Test
+    void compressedMessageTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> first = new Channel<>();
+            Channel<String> second = new Channel<>();
+
+            // Set up channel name and a large document
+            String channel_name = "channel" + genString();
+            StringBuilder builder = new StringBuilder("[");
+            for(int i = 0; i < 10_000; i++) builder.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append('}');
+            String document = builder.append(']').toString();
+
+            // Subscribe to something
+            manager.subscribe(channel_name, first::enqueue);
+            manager.subscribe(channel_name, second::enqueue);
+
+            // Publish it compressed along with a small message that is not
+            PayloadCompressor compressor = new PayloadCompressor(16 * 1024);
+            try(Jedis connection = SERVER.getConnection()){
+                byte[] channel_bytes = channel_name.getBytes(StandardCharsets.UTF_8);
+                connection.publish(channel_bytes, compressor.compress(document.getBytes(StandardCharsets.UTF_8)));
+                connection.publish(channel_bytes, compressor.compress("small".getBytes(StandardCharsets.UTF_8)));
+            }
+            assertTrue(compressor.getRatio() < 0.5);
+
+            // Check the channels
+            for(Channel<String> channel : Arrays.asList(first, second)){
+                assertEquals(document, channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+                assertEquals("small", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            }
+        }
+    }
+
+    @DisplayName("Priority lane test")
+    @Test
+    void priorityLaneTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> bulk = new Channel<>();
+            Channel<String> control = new Channel<>();
+            AtomicInteger delivered = new AtomicInteger(0);
+
+            // Set up channel names
+            String bulk_name = "bulk" + genString();
+            String control_name = "control" + genString();
+
+            // Subscribe to a bulk channel with a slow consumer and a control channel
+            manager.subscribe(bulk_name, Priority.LOW, message -> {
+                try{
+                    Thread.sleep(10);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                delivered.incrementAndGet();
+                bulk.enqueue(message);
+            });
+            manager.subscribe(control_name, Priority.HIGH, control::enqueue);
+
+            // Channel keeps its priority class
+            assertThrows(IllegalArgumentException.class, () -> manager.subscribe(bulk_name, message -> {}));
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> manager.subscribe(bulk_name, Priority.HIGH, message -> {})
+            );
+            assertEquals(2, manager.getSubscriptionCount());
+
+            // Flood the bulk channel, which takes its consumer about two seconds, then say something on control
+            int amount = 200;
+            try(Jedis connection = SERVER.getConnection()){
+                for(int i = 0; i < amount; i++) connection.publish(bulk_name, "bulk" + i);
+                connection.publish(control_name, "shutdown");
+            }
+
+            // Control message is not stuck behind the flood
+            assertEquals("shutdown", control.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertTrue(delivered.get() < amount);
+
+            // Bulk messages still arrive in order
+            for(int i = 0; i < amount; i++){
+                assertEquals("bulk" + i, bulk.poll(5, TimeUnit.SECONDS)
+                                             .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+        }
+    }
+
+    @DisplayName("Draining close test")
+    @Test
+    void drainingCloseTest() throws InterruptedException, TimeoutException{
+
+        // Set up channel names
+        String bulk_name = "bulk" + genString();
+        String marker_name = "marker" + genString();
+        int amount = 50;
+
+        // Drain everything with enough time, then drop most with too little
+        for(Duration timeout : Arrays.asList(Duration.ofSeconds(10), Duration.ofMillis(20))){
+
+            // Get manager
+            JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+            AtomicInteger delivered = new AtomicInteger(0);
+            Channel<String> marker = new Channel<>();
+
+            // Subscribe to a bulk channel with a slow consumer and a marker channel
+            manager.subscribe(bulk_name, Priority.LOW, message -> {
+                try{
+                    Thread.sleep(10);
+                    delivered.incrementAndGet();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            });
+            manager.subscribe(marker_name, marker::enqueue);
+
+            // Flood the bulk channel, the marker arrives once every bulk message is queued on the lane
+            try(Jedis connection = SERVER.getConnection()){
+                for(int i = 0; i < amount; i++) connection.publish(bulk_name, "bulk" + i);
+                connection.publish(marker_name, "done");
+            }
+            assertEquals(
+                    "done",
+                    marker.poll(5, TimeUnit.SECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"))
+            );
+            assertTrue(delivered.get() < amount);
+
+            // Close it
+            long dropped = manager.close(timeout);
+            if(timeout.getSeconds() > 0){
+                assertEquals(0, dropped);
+                assertEquals(amount, delivered.get());
+            }else{
+                assertTrue(dropped > 0);
+                Thread.sleep(100);
+                assertTrue(delivered.get() <= amount - dropped + 1);
+            }
+        }
+
+        // Invalid timeout
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+            assertThrows(IllegalArgumentException.class, () -> manager.close(Duration.ofSeconds(-1)));
+        }
+    }
+
+    @DisplayName("Bounded close test")
+    @Test
+    void boundedCloseTest() throws InterruptedException, TimeoutException{
+
+        // Get manager with a consumer that holds its lane until released, and a marker channel
+        JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+        CountDownLatch release = new CountDownLatch(1);
+        String channel_name = "channel" + genString();
+        String marker_name = "marker" + genString();
+        Channel<String> marker = new Channel<>();
+        manager.subscribe(channel_name, message -> {
+            try{
+                release.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        });
+        manager.subscribe(marker_name, Priority.HIGH, marker::enqueue);
+        try{
+
+            // Overflow the lane, the reading thread drops what doesn't fit and moves on to the marker
+            try(Jedis connection = SERVER.getConnection()){
+                Pipeline pipeline = connection.pipelined();
+                for(int i = 0; i < 10_100; i++) pipeline.publish(channel_name, "message" + i);
+                pipeline.publish(marker_name, "done");
+                pipeline.sync();
+            }
+            assertEquals(
+                    "done",
+                    marker.poll(5, TimeUnit.SECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"))
+            );
+            assertEquals(100, manager.getDroppedMessageCount());
+            assertEquals(100, manager.getLostMessageCount());
+            assertEquals(100, manager.getLostMessageCount(channel_name));
+
+            // Close doesn't wait past its timeout, and everything that was held up counts as dropped
+            long dropped = assertTimeoutPreemptively(
+                    Duration.ofSeconds(5),
+                    () -> manager.close(Duration.ofMillis(200))
+            );
+            assertEquals(10_000, dropped);
+        }finally{
+            release.countDown();
+        }
+    }
+
+    @DisplayName("Liveness probe test")
+    @Test
+    void livenessProbeTest() throws InterruptedException, TimeoutException{
+
+        // Use a server of its own since it will be stalled
+        try(ServerUtility.Server server = ServerUtility.getServer()){
+
+            // Get manager and probe it often
+            JedisPubSubManager manager = new JedisPubSubManager(server.getHostname(), server.getPort());
+            LivenessProbe probe = new LivenessProbe(Duration.ofMillis(20), Duration.ofMillis(500));
+            manager.setLivenessProbe(probe);
+            Channel<String> disconnects = new Channel<>();
+            manager.setDisconnectListener((endpoint, stalled) -> disconnects.enqueue(endpoint + ":" + stalled));
+
+            // Messages still arrive between pings
+            Channel<String> channel = new Channel<>();
+            String channel_name = "channel" + genString();
+            manager.subscribe(channel_name, channel::enqueue);
+            try(Jedis connection = server.getConnection()){
+                for(int i = 0; i < 10; i++){
+                    connection.publish(channel_name, "message" + i);
+                    Thread.sleep(10);
+                }
+            }
+            for(int i = 0; i < 10; i++){
+                assertEquals("message" + i, channel.poll(5, TimeUnit.SECONDS)
+                                                   .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+
+            // Wait for replies
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while(probe.getPongCount() < 5 && System.nanoTime() < deadline) Thread.sleep(10);
+            assertTrue(probe.getPongCount() >= 5);
+            assertTrue(probe.getMinRoundTripNanos() > 0);
+            assertTrue(probe.getMinRoundTripNanos() <= probe.getMeanRoundTripNanos());
+            assertTrue(probe.getMeanRoundTripNanos() <= probe.getMaxRoundTripNanos());
+            assertTrue(probe.getLastRoundTripNanos() > 0);
+            assertEquals(0, probe.getStallCount());
+
+            // Stall the server without closing the connection
+            Thread sleeper = new Thread(() -> {
+                try(Jedis connection = server.getConnection()){
+                    connection.getClient().sendCommand(Protocol.Command.DEBUG, "SLEEP", "1.5");
+                    connection.getClient().getStatusCodeReply();
+                }
+            });
+            sleeper.start();
+
+            // Connection is dropped long before the server wakes up
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while(probe.getStallCount() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+            assertEquals(1, probe.getStallCount());
+
+            // Application hears about it
+            assertEquals(
+                    server.getHostname() + ":" + server.getPort() + ":true",
+                    disconnects.poll(1, TimeUnit.SECONDS).orElse(null)
+            );
+            assertTimeoutPreemptively(Duration.ofSeconds(1), () -> manager.close());
+            assertFalse(disconnects.poll(100, TimeUnit.MILLISECONDS).isPresent());
+            assertThrows(IllegalStateException.class, () -> manager.subscribe(channel_name, message -> {}));
+            sleeper.join();
+        }
+
+        // Invalid probes
+        assertThrows(IllegalArgumentException.class, () -> new LivenessProbe(Duration.ZERO, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> new LivenessProbe(Duration.ofSeconds(1), Duration.ZERO));
+    }
+
+    @DisplayName("Sequence stamping test")
+    @Test
+    void sequenceStampingTest() throws InterruptedException, TimeoutException{
+
+        // Get a publishing and a receiving manager
+        try(
+                JedisPubSubManager publisher = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+                JedisPubSubManager receiver = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+                BatchingPublisher batching = new BatchingPublisher(
+                        SERVER.getHostname(),
+                        SERVER.getPort(),
+                        4,
+                        1024,
+                        Duration.ofSeconds(10)
+                )
+        ){
+            publisher.setSequenceStamping(true);
+            batching.setSequenceStamping(true);
+            Channel<String> gaps = new Channel<>();
+            receiver.setGapListener((channel, expected, received, lost) -> gaps.enqueue(
+                    channel + " " + expected + " " + received + " " + lost
+            ));
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+            Channel<String> channel = new Channel<>();
+
+            // Stamps are removed before dispatch
+            Subscription subscription = receiver.subscribe(channel_name, channel::enqueue);
+            for(int i = 0; i < 5; i++) publisher.publish(channel_name, "message" + i);
+            for(int i = 0; i < 5; i++){
+                assertEquals("message" + i, channel.poll(5, TimeUnit.SECONDS)
+                                                   .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+
+            // Messages published while unsubscribed are lost
+            subscription.close();
+            while(subscriberCount(channel_name) != 0) Thread.sleep(5);
+            for(int i = 5; i < 8; i++) publisher.publish(channel_name, "message" + i);
+            subscription = receiver.subscribe(channel_name, channel::enqueue);
+            publisher.publish(channel_name, "message8");
+            assertEquals("message8", channel.poll(5, TimeUnit.SECONDS)
+                                            .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            assertEquals(channel_name + " 5 8 3", gaps.poll(5, TimeUnit.SECONDS)
+                                                      .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            assertEquals(3, receiver.getLostMessageCount(channel_name));
+
+            // Batches count every message in them, delivered ones are consumed before unsubscribing
+            for(int i = 0; i < 8; i++) batching.publish(channel_name, "batched" + i);
+            for(int i = 0; i < 8; i++){
+                assertEquals("batched" + i, channel.poll(5, TimeUnit.SECONDS)
+                                                   .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+            subscription.close();
+            while(subscriberCount(channel_name) != 0) Thread.sleep(5);
+            for(int i = 8; i < 12; i++) batching.publish(channel_name, "batched" + i);
+            subscription = receiver.subscribe(channel_name, channel::enqueue);
+            for(int i = 12; i < 16; i++) batching.publish(channel_name, "batched" + i);
+            for(int i = 12; i < 16; i++){
+                assertEquals("batched" + i, channel.poll(5, TimeUnit.SECONDS)
+                                                   .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            }
+            assertEquals(channel_name + " 8 12 4", gaps.poll(5, TimeUnit.SECONDS)
+                                                       .orElseThrow(() -> new TimeoutException("Timed Out!")));
+            assertEquals(7, receiver.getLostMessageCount());
+            assertEquals(0, publisher.getLostMessageCount());
+            subscription.close();
+        }
+    }
+
+    static long subscriberCount(String channel){
+        try(Jedis connection = SERVER.getConnection()){
+            return Long.parseLong(connection.pubsubNumSub(channel).get(channel));
+        }
+    }
+
+    @DisplayName("Shared connection test")
+    @Test
+    void sharedConnectionTest() throws InterruptedException, TimeoutException, ExecutionException{
+
+        // Set up channel names
+        String shared_name = "channel" + genString();
+        String other_name = "channel" + genString();
+
+        // Get managers that share a connection
+        JedisPubSubManager first = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort());
+        try(JedisPubSubManager second = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> first_channel = new Channel<>();
+            Channel<String> second_channel = new Channel<>();
+
+            // Subscribe to the same channel from both, and another channel from first only
+            first.subscribe(shared_name, first_channel::enqueue);
+            first.subscribe(other_name, first_channel::enqueue);
+            second.subscribe(shared_name, second_channel::enqueue);
+
+            // Channel that first already has is acknowledged for second too
+            second.subscribeConfirmed(other_name, second_channel::enqueue).get(500, TimeUnit.MILLISECONDS);
+
+            // Server only sees one subscriber, but each manager counts its own
+            assertEquals(1, subscriberCount(shared_name));
+            assertEquals(1, subscriberCount(other_name));
+            assertEquals(2, first.getSubscriptionCount());
+            assertEquals(2, second.getSubscriptionCount());
+
+            // Both receive the message once
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(shared_name, "hello");
+            }
+            assertEquals("hello", first_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("hello", second_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertFalse(first_channel.poll(100, TimeUnit.MILLISECONDS).isPresent());
+            assertFalse(second_channel.poll(100, TimeUnit.MILLISECONDS).isPresent());
+
+            // Closing first leaves second alone
+            first.close();
+            assertThrows(IllegalStateException.class, () -> first.subscribe(shared_name, message -> {}));
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(shared_name, "goodbye");
+                connection.publish(other_name, "again");
+            }
+            assertEquals("goodbye", second_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("again", second_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertFalse(first_channel.poll(100, TimeUnit.MILLISECONDS).isPresent());
+            assertEquals(1, subscriberCount(other_name));
+        }
+
+        // Last one closes the connection
+        long deadline = System.currentTimeMillis() + 1000;
+        while(subscriberCount(shared_name) != 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, subscriberCount(shared_name));
+
+        // A new shared manager gets a new connection
+        try(JedisPubSubManager third = JedisPubSubManager.shared(SERVER.getHostname(), SERVER.getPort())){
+            Channel<String> channel = new Channel<>();
+            third.subscribeConfirmed(shared_name, channel::enqueue).get(500, TimeUnit.MILLISECONDS);
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(shared_name, "new");
+            }
+            assertEquals("new", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+        }
+    }
+
+    @DisplayName("Loopback publish test")
+    @Test
+    void loopbackPublishTest() throws InterruptedException, TimeoutException{
+
+        // Get a local and a remote manager
+        try(
+                JedisPubSubManager local = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+                JedisPubSubManager remote = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())
+        ){
+
+            // Create channel objects
+            Channel<String> local_channel = new Channel<>();
+            Channel<String> local_threads = new Channel<>();
+            Channel<String> pattern_channel = new Channel<>();
+            Channel<String> remote_channel = new Channel<>();
+
+            // Set up channel name
+            String channel_name = "channel" + genString();
+
+            // Subscribe to it from both, and a pattern locally
+            local.subscribe(channel_name, message -> {
+                local_threads.enqueue(Thread.currentThread().getName());
+                local_channel.enqueue(message);
+            });
+            local.psubscribe(
+                    channel_name + "*",
+                    (name, message) -> pattern_channel.enqueue(message)
+            );
+            remote.subscribe(channel_name, remote_channel::enqueue);
+
+            // Publish it through the local manager
+            local.publish(channel_name, "hello");
+
+            // Local consumer received it on the lane of the channel, not on the publishing thread
+            assertEquals("hello", local_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertTrue(local_threads.poll(0, TimeUnit.MILLISECONDS)
+                                    .orElse("none")
+                                    .startsWith("JedisPubSubManager-lane-"));
+
+            // Others receive it through the server without the tag
+            assertEquals("hello", remote_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("hello", pattern_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Echo is dropped
+            assertFalse(local_channel.poll(200, TimeUnit.MILLISECONDS).isPresent());
+
+            // Messages published by others still arrive
+            remote.publish(channel_name, "world");
+            assertEquals("world", local_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("world", remote_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertFalse(remote_channel.poll(200, TimeUnit.MILLISECONDS).isPresent());
+
+            // Compressed messages are inflated for local consumers as well
+            String document = String.join(" ", Collections.nCopies(2048, "compressible"));
+            PayloadCompressor compressor = new PayloadCompressor(1024);
+            local.publish(channel_name, compressor.compress(document.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(document, local_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(document, remote_channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+        }
+    }
+
+    @DisplayName("Pattern subscription test")
+    @Test
+    void patternSubscriptionTest() throws InterruptedException, TimeoutException{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Create channel objects
+            Channel<String> channel_wide = new Channel<>();
+            Channel<String> channel_narrow = new Channel<>();
+            Channel<String> channel_exact = new Channel<>();
+
+            // Set up channel names
+            String prefix = "tenant" + genString();
+            String channel_one = prefix + ".one";
+            String channel_two = prefix + ".two";
+
+            // Subscribe to overlapping patterns and one of the matching channels
+            Subscription subscription_wide = manager.psubscribe(
+                    prefix + ".*",
+                    (channel, message) -> channel_wide.enqueue(channel + ":" + message)
+            );
+            Subscription subscription_narrow = manager.psubscribe(
+                    prefix + ".o?e",
+                    (channel, message) -> channel_narrow.enqueue(channel + ":" + message)
+            );
+            Subscription subscription_exact = manager.subscribe(channel_one, channel_exact::enqueue);
+
+            // Get a connection and say something
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_one, "hello");
+                connection.publish(channel_two, "world");
+            }
+
+            // Check the channels
+            assertEquals(channel_one + ":hello", channel_wide.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(channel_two + ":world", channel_wide.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals(channel_one + ":hello", channel_narrow.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+            assertEquals("hello", channel_exact.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Nobody should receive anything twice
+            assertEquals(Optional.empty(), channel_wide.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(Optional.empty(), channel_narrow.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(Optional.empty(), channel_exact.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(3, manager.getSubscriptionCount());
+            subscription_exact.close();
+            subscription_narrow.close();
+            subscription_wide.close();
+
+            // Assert correct subscriptions
+            assertEquals(0, manager.getSubscriptionCount());
+
+            // Assuming that subscriptions have ended, try publish again
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(channel_one, genString());
+            }
+
+            // Channel should not retrieve anything
+            assertEquals(Optional.empty(), channel_wide.poll(500, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @DisplayName("Batch cancel test")
+    @Test
+    void cancelAllTest() throws InterruptedException, TimeoutException{
+
+        // Get managers
+        try(
+                JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+                JedisPubSubManager other = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())
+        ){
+
+            // Subscribe many consumers to a few channels and a pattern, and one that stays
+            String prefix = "batch" + genString();
+            Channel<String> channel = new Channel<>();
+            List<Subscription> subscriptions = new ArrayList<>();
+            for(int i = 0; i < 300; i++) subscriptions.add(manager.subscribe(prefix + (i % 3), message -> {}));
+            for(int i = 0; i < 10; i++) subscriptions.add(manager.psubscribe(prefix + "*", (name, message) -> {}));
+            Subscription survivor = manager.subscribe(prefix + 0, channel::enqueue);
+            assertEquals(311, manager.getSubscriptionCount());
+
+            // One of them is already canceled, it's skipped
+            subscriptions.get(0).cancel();
+            assertEquals(310, manager.getSubscriptionCount());
+
+            // Subscriptions of another manager are rejected before anything is canceled
+            Subscription foreign = other.subscribe(prefix + 0, message -> {});
+            assertThrows(IllegalArgumentException.class, () -> manager.cancelAll(Arrays.asList(survivor, foreign)));
+            assertFalse(survivor.isCanceled());
+            assertFalse(foreign.isCanceled());
+            foreign.cancel();
+
+            // Cancel them all at once
+            manager.cancelAll(subscriptions);
+            assertTrue(subscriptions.stream().allMatch(Subscription::isCanceled));
+            assertEquals(1, manager.getSubscriptionCount());
+
+            // Emptied channels are unsubscribed, the survivor still receives
+            long deadline = System.currentTimeMillis() + 1000;
+            while(subscriberCount(prefix + 1) + subscriberCount(prefix + 2) != 0 &&
+                  System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(0, subscriberCount(prefix + 1));
+            assertEquals(0, subscriberCount(prefix + 2));
+            assertEquals(1, subscriberCount(prefix + 0));
+            try(Jedis connection = SERVER.getConnection()){
+                connection.publish(prefix + 0, "hello");
+            }
+            assertEquals("hello", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+            // Canceling again does nothing
+            manager.cancelAll(subscriptions);
+            assertEquals(1, manager.getSubscriptionCount());
+
+            // Racing cancels remove the consumer only once
+            List<Subscription> racing = new ArrayList<>();
+            for(int i = 0; i < 100; i++) racing.add(manager.subscribe(prefix + 3, message -> {}));
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for(int i = 0; i < 4; i++){
+                Thread thread = new Thread(() -> {
+                    try{
+                        start.await();
+                    }catch(InterruptedException e){
+                        return;
+                    }
+                    racing.forEach(Subscription::cancel);
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for(Thread thread : threads) thread.join();
+            assertEquals(1, manager.getSubscriptionCount());
+            survivor.cancel();
+            assertEquals(0, manager.getSubscriptionCount());
+        }
+    }
+
+    @DisplayName("Closing with active pattern subscription test")
+    @Test
+    void closeWithPatternTest(){
+
+        // Get manager and leave pattern subscription open, close should not hang
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort());
+            manager.psubscribe("pattern" + genString() + ".*", (channel, message) -> {
+            });
+            manager.close();
+        });
+    }
+
+    @DisplayName("Confirmed subscription test")
+    @Test
+    void subscribeConfirmedTest() throws Exception{
+
+        // Get manager
+        try(JedisPubSubManager manager = new JedisPubSubManager(SERVER.getHostname(), SERVER.getPort())){
+
+            // Pipeline many subscriptions and wait once
+            String prefix = "channel" + genString();
+            int count = 1000;
+            CountDownLatch received = new CountDownLatch(count);
+            List<CompletableFuture<Subscription>> futures = new ArrayList<>();
+            for(int i = 0; i < count; i++){
+                futures.add(manager.subscribeConfirmed(prefix + i, message -> received.countDown()));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+            // Publish right away, nothing should be missed
+            try(Jedis connection = SERVER.getConnection()){
+                for(int i = 0; i < count; i++) connection.publish(prefix + i, "hello!");
+            }
+
+            // Assert it
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(count, manager.getSubscriptionCount());
+
+            // Subscribing to an acknowledged channel completes as well
+            Subscription subscription = manager.subscribeConfirmed(prefix + 0, message -> {
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(count + 1, manager.getSubscriptionCount());
+            subscription.close();
+
+            // Clean up
+            for(CompletableFuture<Subscription> future : futures) future.get().cancel();
+            assertEquals(0, manager.getSubscriptionCount());
+        }
+    }
+}
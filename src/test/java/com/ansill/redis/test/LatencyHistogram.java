@@ -0,0 +1,86 @@
+package com.ansill.redis.test;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Every power of two is split into 16 buckets, so percentiles are
+ * reported with at most 1/16 relative error no matter how wide the range is, and recording never allocates
+ */
+final class LatencyHistogram{
+
+    /** Number of buckets per power of two */
+    private static final int SUB_BUCKETS = 16;
+
+    /** Bits that select the bucket within a power of two */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Counts by bucket */
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+    /**
+     * Records latency
+     *
+     * @param nanos latency in nanoseconds, negative values count as zero
+     */
+    void record(long nanos){
+        this.counts.incrementAndGet(index(Math.max(nanos, 0)));
+    }
+
+    /**
+     * Returns number of recorded latencies
+     *
+     * @return count
+     */
+    @Nonnegative
+    long getCount(){
+        long count = 0;
+        for(int i = 0; i < this.counts.length(); i++) count += this.counts.get(i);
+        return count;
+    }
+
+    /**
+     * Returns latency at percentile
+     *
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the bucket that holds the percentile in nanoseconds, zero if nothing was recorded
+     */
+    @Nonnegative
+    long getPercentile(double percentile){
+        long total = this.getCount();
+        if(total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < this.counts.length(); i++){
+            seen += this.counts.get(i);
+            if(seen >= rank) return upperBound(i);
+        }
+        return upperBound(this.counts.length() - 1);
+    }
+
+    /**
+     * Returns bucket of value
+     *
+     * @param value non-negative value
+     * @return bucket index
+     */
+    private static int index(long value){
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub_bucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub_bucket;
+    }
+
+    /**
+     * Returns largest value of bucket
+     *
+     * @param index bucket index
+     * @return largest value
+     */
+    private static long upperBound(int index){
+        if(index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + index % SUB_BUCKETS) * width) + width - 1;
+    }
+}
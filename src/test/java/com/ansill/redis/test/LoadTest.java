@@ -0,0 +1,315 @@
+package com.ansill.redis.test;
+
+import com.ansill.redis.EventLoopGroup;
+import com.ansill.redis.JedisPubSubManager;
+import com.ansill.redis.ServerUtility;
+import com.ansill.redis.Subscription;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Soak and load test against an embedded Redis server. It's excluded from the regular build, run it with
+ * {@code mvn -P load-test test} and shape the load with system properties such as {@code -Dload.rate=100000}, see
+ * {@link Settings}. The last line of output is a single key=value summary meant to be tracked across builds
+ */
+@Tag("load")
+class LoadTest{
+
+    /** Load settings, read from system properties */
+    static final class Settings{
+
+        /** Messages published per second, across every publisher */
+        final int rate = Integer.getInteger("load.rate", 20_000);
+
+        /** Length of the run in seconds */
+        final int duration = Integer.getInteger("load.duration", 10);
+
+        /** Number of channels, messages are spread over them evenly */
+        final int channels = Integer.getInteger("load.channels", 100);
+
+        /** Number of managers that subscribe to every channel */
+        final int managers = Integer.getInteger("load.managers", 1);
+
+        /** Number of consumers per channel in every manager */
+        final int consumers = Integer.getInteger("load.consumers", 1);
+
+        /** Number of publishing threads, each with a connection of its own */
+        final int publishers = Integer.getInteger("load.publishers", 2);
+
+        /** Size of payloads in bytes, at least 8 to carry the send time */
+        final int size = Math.max(8, Integer.getInteger("load.size", 64));
+
+        /** Subscriptions added and cancelled per second while the load runs */
+        final int churn = Integer.getInteger("load.churn", 0);
+
+        /** Event loop threads, zero to give every manager a thread of its own */
+        final int loops = Integer.getInteger("load.loops", 0);
+
+        @Override
+        public String toString(){
+            return "rate=" + this.rate + " duration=" + this.duration + " channels=" + this.channels + " managers=" +
+                   this.managers + " consumers=" + this.consumers + " publishers=" + this.publishers + " size=" +
+                   this.size + " churn=" + this.churn + " loops=" + this.loops;
+        }
+    }
+
+    @DisplayName("Load test")
+    @Test
+    void loadTest() throws InterruptedException{
+        Settings settings = new Settings();
+        System.out.println("LoadTest " + settings);
+
+        try(ServerUtility.Server server = ServerUtility.getServer()){
+
+            // Set up managers and consumers that record latency
+            EventLoopGroup group = settings.loops > 0 ? new EventLoopGroup(settings.loops) : null;
+            List<JedisPubSubManager> managers = new ArrayList<>();
+            String[] channels = new String[settings.channels];
+            LatencyHistogram histogram = new LatencyHistogram();
+            LongAdder received = new LongAdder();
+            for(int i = 0; i < channels.length; i++) channels[i] = "load" + i;
+            for(int i = 0; i < settings.managers; i++){
+                JedisPubSubManager manager = group == null ?
+                                             new JedisPubSubManager(server.getHostname(), server.getPort()) :
+                                             new JedisPubSubManager(server.getHostname(), server.getPort(), group);
+                managers.add(manager);
+                for(String channel : channels){
+                    for(int j = 0; j < settings.consumers; j++){
+                        manager.subscribeBinary(channel, payload -> {
+                            histogram.record(System.nanoTime() - payload.getLong(payload.position()));
+                            received.increment();
+                        });
+                    }
+                }
+            }
+
+            // Start measuring
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            long allocated_before = allocatedBytes(threads);
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(settings.duration);
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder sent = new LongAdder();
+            LongAdder churned = new LongAdder();
+
+            // Start publishers and churn
+            List<Thread> workers = new ArrayList<>();
+            for(int i = 0; i < settings.publishers; i++){
+                int offset = i;
+                workers.add(start(
+                        "LoadTest-publisher-" + i,
+                        () -> publish(server, settings, channels, offset, start, running, sent)
+                ));
+            }
+            if(settings.churn > 0){
+                workers.add(start("LoadTest-churn", () -> churn(managers, channels, settings.churn, running, churned)));
+            }
+
+            // Report progress every second
+            long last_received = 0;
+            while(System.nanoTime() < deadline){
+                Thread.sleep(1000);
+                long total = received.sum();
+                System.out.println(String.format(
+                        Locale.ROOT,
+                        "LoadTest %4ds sent=%d received=%d rate=%d/s p99=%dus",
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                        sent.sum(),
+                        total,
+                        total - last_received,
+                        TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99))
+                ));
+                last_received = total;
+            }
+
+            // Stop load and wait for stragglers
+            running.set(false);
+            for(Thread worker : workers) worker.join();
+            long elapsed = System.nanoTime() - start;
+            long expected = sent.sum() * settings.managers * settings.consumers;
+            long drain_deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while(received.sum() < expected && System.nanoTime() < drain_deadline) Thread.sleep(10);
+            long allocated = allocatedBytes(threads) - allocated_before;
+            int thread_count = threads.getThreadCount();
+            int peak_threads = threads.getPeakThreadCount();
+
+            // Report it
+            double seconds = elapsed / 1e9;
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "LoadTest result sent=%d received=%d expected=%d missing=%d throughput=%.0f/s " +
+                    "p50=%dus p99=%dus p999=%dus max=%dus allocation=%.1fMB/s threads=%d peak_threads=%d churn=%d",
+                    sent.sum(),
+                    received.sum(),
+                    expected,
+                    Math.max(0, expected - received.sum()),
+                    received.sum() / seconds,
+                    TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(50)),
+                    TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99.9)),
+                    TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(100)),
+                    allocated / seconds / (1024 * 1024),
+                    thread_count,
+                    peak_threads,
+                    churned.sum()
+            ));
+
+            // Clean up
+            managers.forEach(JedisPubSubManager::close);
+            if(group != null) group.close();
+            assertTrue(received.sum() > 0, "Nothing was received");
+        }
+    }
+
+    /**
+     * Publishes at the configured rate until stopped, pipelining whatever is due
+     *
+     * @param server   server
+     * @param settings settings
+     * @param channels channel names
+     * @param offset   index of this publisher
+     * @param start    start time in nanoseconds
+     * @param running  running flag
+     * @param sent     number of sent messages
+     */
+    static void publish(
+            ServerUtility.Server server,
+            Settings settings,
+            String[] channels,
+            int offset,
+            long start,
+            AtomicBoolean running,
+            LongAdder sent
+    ){
+        byte[][] names = new byte[channels.length][];
+        for(int i = 0; i < channels.length; i++) names[i] = SafeEncoder.encode(channels[i]);
+        double rate = (double) settings.rate / settings.publishers;
+        int next_channel = offset;
+        long published = 0;
+        try(Jedis connection = server.getConnection()){
+            Pipeline pipeline = connection.pipelined();
+            while(running.get()){
+
+                // Publish what's due, in bounded bursts
+                long due = (long) ((System.nanoTime() - start) / 1e9 * rate) - published;
+                if(due <= 0){
+                    sleepQuietly(1);
+                    continue;
+                }
+                due = Math.min(due, 1000);
+                for(long i = 0; i < due; i++){
+                    byte[] payload = new byte[settings.size];
+                    ByteBuffer.wrap(payload).putLong(System.nanoTime());
+                    pipeline.publish(names[next_channel], payload);
+                    next_channel = (next_channel + 1) % names.length;
+                }
+                pipeline.sync();
+                published += due;
+                sent.add(due);
+            }
+        }
+    }
+
+    /**
+     * Subscribes and cancels extra consumers at the configured rate until stopped
+     *
+     * @param managers managers
+     * @param channels channel names
+     * @param rate     subscriptions per second
+     * @param running  running flag
+     * @param churned  number of subscriptions made
+     */
+    static void churn(
+            List<JedisPubSubManager> managers,
+            String[] channels,
+            int rate,
+            AtomicBoolean running,
+            LongAdder churned
+    ){
+        Queue<Subscription> subscriptions = new ArrayDeque<>();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long next = System.nanoTime();
+        while(running.get()){
+
+            // Subscribe to a random channel, either one with consumers already or one without
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            JedisPubSubManager manager = managers.get(random.nextInt(managers.size()));
+            String channel = random.nextBoolean() ?
+                             channels[random.nextInt(channels.length)] :
+                             "churn" + random.nextInt(1000);
+            subscriptions.add(manager.subscribe(channel, message -> {}));
+            churned.increment();
+
+            // Keep a bounded number around
+            if(subscriptions.size() > 100) subscriptions.poll().close();
+
+            // Wait for the next one
+            next += interval;
+            long delay = next - System.nanoTime();
+            if(delay > 0) sleepQuietly(TimeUnit.NANOSECONDS.toMillis(delay));
+        }
+        subscriptions.forEach(Subscription::close);
+    }
+
+    /**
+     * Returns bytes allocated by live threads, or zero if the JVM can't tell
+     *
+     * @param threads thread bean
+     * @return allocated bytes
+     */
+    static long allocatedBytes(ThreadMXBean threads){
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) return 0;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if(!allocations.isThreadAllocatedMemorySupported()) return 0;
+        long total = 0;
+        for(long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) total += Math.max(bytes, 0);
+        return total;
+    }
+
+    /**
+     * Starts daemon thread
+     *
+     * @param name     thread name
+     * @param runnable work
+     * @return thread
+     */
+    static Thread start(String name, Runnable runnable){
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Sleeps without throwing
+     *
+     * @param millis time in milliseconds
+     */
+    static void sleepQuietly(long millis){
+        try{
+            Thread.sleep(millis);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
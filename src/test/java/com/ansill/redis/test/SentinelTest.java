@@ -0,0 +1,142 @@
+package com.ansill.redis.test;
+
+import com.ansill.redis.Channel;
+import com.ansill.redis.JedisPubSubManager;
+import com.ansill.redis.ServerUtility;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("unused")
+class SentinelTest{
+
+    private static final String MASTER_NAME = "mymaster";
+
+    static String genString(){
+        return (Math.random() + "").replace(".", "");
+    }
+
+    static void awaitReplica(ServerUtility.Sentinel sentinel) throws InterruptedException, TimeoutException{
+        long deadline = System.currentTimeMillis() + 20_000;
+        try(Jedis connection = sentinel.getConnection()){
+            while(System.currentTimeMillis() < deadline){
+                List<Map<String,String>> replicas = connection.sentinelSlaves(MASTER_NAME);
+                if(replicas.size() == 1 &&
+                   "slave".equals(replicas.get(0).get("flags")) &&
+                   "ok".equals(replicas.get(0).get("master-link-status"))) return;
+                Thread.sleep(100);
+            }
+        }
+        throw new TimeoutException("Sentinel did not discover the replica");
+    }
+
+    @DisplayName("Unknown master test")
+    @Test
+    void unknownMasterTest(){
+        try(
+                ServerUtility.Server master = ServerUtility.getServer();
+                ServerUtility.Sentinel sentinel = ServerUtility.getSentinel(master, MASTER_NAME)
+        ){
+            assertThrows(JedisConnectionException.class, () -> new JedisPubSubManager(
+                    "nonexistent",
+                    Collections.singleton(sentinel.getHostname() + ":" + sentinel.getPort())
+            ));
+        }
+    }
+
+    @DisplayName("Invalid sentinels test")
+    @Test
+    void invalidSentinelsTest(){
+        assertThrows(IllegalArgumentException.class, () -> new JedisPubSubManager(MASTER_NAME, Collections.emptySet()));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new JedisPubSubManager(MASTER_NAME, Collections.singleton("nonsense"))
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new JedisPubSubManager("", Collections.singleton("localhost:26379"))
+        );
+    }
+
+    @DisplayName("Master failover test")
+    @Test
+    void failoverTest() throws InterruptedException, TimeoutException{
+        ServerUtility.Server master = ServerUtility.getServer();
+        try(
+                ServerUtility.Server replica = ServerUtility.getReplica(master);
+                ServerUtility.Sentinel sentinel = ServerUtility.getSentinel(master, MASTER_NAME)
+        ){
+
+            // Wait for sentinel to know about the replica
+            awaitReplica(sentinel);
+
+            // Get manager
+            try(JedisPubSubManager manager = new JedisPubSubManager(
+                    MASTER_NAME,
+                    Collections.singleton(sentinel.getHostname() + ":" + sentinel.getPort())
+            )){
+
+                // Record failovers
+                Channel<String> failovers = new Channel<>();
+                AtomicLong duration = new AtomicLong(0);
+                manager.setFailoverListener((endpoint, elapsed_nanos) -> {
+                    duration.set(elapsed_nanos);
+                    failovers.enqueue(endpoint);
+                });
+
+                // Subscribe to channels and a pattern
+                String prefix = "channel" + genString();
+                Channel<String> channel = new Channel<>();
+                Channel<String> pattern = new Channel<>();
+                for(int i = 0; i < 3; i++) manager.subscribe(prefix + i, channel::enqueue);
+                manager.psubscribe(prefix + "*", (name, message) -> pattern.enqueue(message));
+
+                // Say something on the master
+                try(Jedis connection = master.getConnection()){
+                    connection.publish(prefix + 0, "before");
+                }
+                assertEquals("before", channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+                assertEquals("before", pattern.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+
+                // Kill the master
+                master.close();
+
+                // Wait for failover
+                String endpoint = failovers.poll(20, TimeUnit.SECONDS)
+                                           .orElseThrow(() -> new TimeoutException("Failover was not reported"));
+                assertTrue(endpoint.endsWith(":" + replica.getPort()));
+                assertTrue(duration.get() > 0);
+
+                // Say something on the new master
+                try(Jedis connection = replica.getConnection()){
+                    for(int i = 0; i < 3; i++) connection.publish(prefix + i, "after" + i);
+                }
+                // Channels are delivered in parallel, the pattern in order
+                Set<String> received = new HashSet<>();
+                for(int i = 0; i < 3; i++){
+                    received.add(channel.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+                    assertEquals("after" + i, pattern.poll(500, TimeUnit.MILLISECONDS).orElse(null));
+                }
+                assertEquals(new HashSet<>(Arrays.asList("after0", "after1", "after2")), received);
+                assertEquals(4, manager.getSubscriptionCount());
+            }
+        }finally{
+            master.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ansill.redis.test;
+
+import com.ansill.redis.Channel;
+import com.ansill.redis.JedisPubSubManager;
+import com.ansill.redis.ServerUtility;
+import com.ansill.redis.Subscription;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class FlightRecorderEventsIT{
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name){
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+    @DisplayName("Events are emitted test")
+    @Test
+    void eventsAreEmittedTest() throws IOException, InterruptedException, TimeoutException{
+
+        // Record the events of the manager
+        Path file = Files.createTempFile("pubsub", ".jfr");
+        try(ServerUtility.Server server = ServerUtility.getServer(); Recording recording = new Recording()){
+            recording.enable("com.ansill.redis.MessageReceived");
+            recording.enable("com.ansill.redis.Dispatch");
+            recording.enable("com.ansill.redis.ChannelSubscription");
+            recording.enable("com.ansill.redis.Lifecycle");
+            recording.start();
+
+            // Receive a message
+            String channel_name = "flight_recorder";
+            try(JedisPubSubManager manager = new JedisPubSubManager(server.getHostname(), server.getPort())){
+                Channel<String> channel = new Channel<>();
+                Subscription subscription = manager.subscribe(channel_name, channel::enqueue);
+                try(Jedis connection = server.getConnection()){
+                    connection.publish(channel_name, "hello!");
+                }
+                channel.poll(5, TimeUnit.SECONDS).orElseThrow(() -> new TimeoutException("Timed Out!"));
+                subscription.close();
+            }
+            recording.stop();
+            recording.dump(file);
+
+            // Every step left an event
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> received = events(events, "com.ansill.redis.MessageReceived");
+            assertEquals(1, received.size());
+            assertEquals(channel_name, received.get(0).getString("channel"));
+            assertEquals(6, received.get(0).getInt("size"));
+            List<RecordedEvent> dispatched = events(events, "com.ansill.redis.Dispatch");
+            assertEquals(1, dispatched.size());
+            assertEquals(channel_name, dispatched.get(0).getString("channel"));
+            List<RecordedEvent> subscriptions = events(events, "com.ansill.redis.ChannelSubscription");
+            assertEquals(2, subscriptions.size());
+            for(RecordedEvent subscription : subscriptions){
+                assertEquals(channel_name, subscription.getString("channel"));
+            }
+            assertEquals(1, subscriptions.stream().filter(event -> event.getBoolean("subscribed")).count());
+            assertFalse(events(events, "com.ansill.redis.Lifecycle").isEmpty());
+        }finally{
+            Files.deleteIfExists(file);
+        }
+    }
+}